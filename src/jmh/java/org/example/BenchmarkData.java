@@ -0,0 +1,341 @@
+package org.example;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * The BenchmarkData class writes synthetic ESP CSV files and FlixBus workbooks that look like the real exports.
+ * Both files of a pair are generated from the same seeded sequence of bookings, so they agree on every booking
+ * except the ones the shape asks to differ. A FlixBus workbook has a single sheet, like the real export, so a shape
+ * with more rows than a sheet holds is written as several workbooks, which are reconciled together as one file.
+ * Files are written under a temporary name and moved into place when they are complete, so an interrupted run
+ * never leaves a partial file behind that a later run would reuse.
+ */
+public class BenchmarkData {
+    private static final String ESP_HEADER = "Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)";
+    private static final String[] FLIXBUS_HEADER = {
+            "Date", "Time", "Shop", "Booking Number", "Ride", "From", "To", "Passengers", "Payment Method", "Currency",
+            "Trip Services", "Net", "Tax", "Gross", "Cash", "Voucher", "Comm Gross"};
+    private static final int ROW_WINDOW = 100;
+    private static final int ROWS_PER_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    /**
+     * Describes the bookings of a generated file pair.
+     *
+     * @param bookings Number of bookings. Split bookings and fees add rows on top of this.
+     * @param duplicateRatio Share of bookings that are split over two rows in both files.
+     * @param voucherRatio Share of bookings paid by voucher instead of cash.
+     * @param feeRatio Share of bookings with a service fee in ESP and a platform fee row in FlixBus.
+     * @param mismatchRate Share of bookings that differ: a different FlixBus amount, or a booking missing from one file.
+     * @param seed Seed of the booking sequence.
+     */
+    public record Shape(int bookings, double duplicateRatio, double voucherRatio, double feeRatio, double mismatchRate, long seed) {
+    }
+
+    /**
+     * One generated booking. Amounts are in cents.
+     */
+    private record Booking(String bookingNumber, long amount, long margin, long fee, boolean voucher, boolean split,
+                           boolean inESP, boolean inFlixBus, long flixBusDelta) {
+    }
+
+    /**
+     * Writes the ESP CSV file of a shape.
+     *
+     * @param path The file to write.
+     * @param shape The bookings to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeESPFile(Path path, Shape shape) throws IOException {
+        Path temporary = temporaryFile(path);
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                out.write(ESP_HEADER);
+                out.write('\n');
+                SplittableRandom random = new SplittableRandom(shape.seed());
+                StringBuilder line = new StringBuilder(64);
+                for (int i = 0; i < shape.bookings(); i++) {
+                    Booking booking = nextBooking(random, shape, i);
+                    if (!booking.inESP()) {
+                        continue;
+                    }
+                    if (booking.split()) {
+                        long amount = booking.amount() / 2;
+                        long margin = booking.margin() / 2;
+                        writeESPLine(out, line, booking.bookingNumber(), amount, booking.fee(), margin);
+                        writeESPLine(out, line, booking.bookingNumber(), booking.amount() - amount, 0, booking.margin() - margin);
+                    } else {
+                        writeESPLine(out, line, booking.bookingNumber(), booking.amount(), booking.fee(), booking.margin());
+                    }
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Writes the FlixBus workbook of a shape, with a header row and a closing total row like the real export.
+     *
+     * @param path The file to write.
+     * @param shape The bookings to write.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If the rows of the shape do not fit on one sheet; use
+     *                                  {@link #writeFlixBusFiles(Path, Shape)} for those.
+     */
+    public static void writeFlixBusFile(Path path, Shape shape) throws IOException {
+        Path temporary = temporaryFile(path);
+        try {
+            try (FlixBusWorkbooks workbooks = new FlixBusWorkbooks(part -> temporary, 1, ROWS_PER_SHEET)) {
+                writeFlixBusRows(workbooks, shape);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Writes the FlixBus rows of a shape into a new directory, as many workbooks as the row limit of a sheet requires.
+     *
+     * @param directory The directory to create. It must not exist yet.
+     * @param shape The bookings to write.
+     * @return The workbooks, in the order of their rows.
+     * @throws IOException If the files cannot be written.
+     */
+    public static List<Path> writeFlixBusFiles(Path directory, Shape shape) throws IOException {
+        return writeFlixBusFiles(directory, shape, ROWS_PER_SHEET);
+    }
+
+    /**
+     * Writes the FlixBus rows of a shape into a new directory, with at most the given number of rows per workbook.
+     * Every workbook has the header row and a total row of its own cash.
+     *
+     * @param directory The directory to create. It must not exist yet.
+     * @param shape The bookings to write.
+     * @param rowsPerFile Rows per workbook, header and total row included, at most
+     *                    {@link SpreadsheetVersion#EXCEL2007}'s row limit.
+     * @return The workbooks, in the order of their rows.
+     * @throws IOException If the files cannot be written.
+     */
+    public static List<Path> writeFlixBusFiles(Path directory, Shape shape, int rowsPerFile) throws IOException {
+        Path absolute = directory.toAbsolutePath();
+        Path temporary = Files.createTempDirectory(absolute.getParent(), absolute.getFileName() + "-");
+        try {
+            List<Path> files;
+            try (FlixBusWorkbooks workbooks = new FlixBusWorkbooks(
+                    part -> temporary.resolve(String.format("flixbus-%03d.xlsx", part)), Integer.MAX_VALUE, rowsPerFile)) {
+                files = writeFlixBusRows(workbooks, shape);
+            }
+            Files.move(temporary, absolute, StandardCopyOption.ATOMIC_MOVE);
+            return files.stream().map(file -> absolute.resolve(file.getFileName())).toList();
+        } finally {
+            deleteDirectory(temporary);
+        }
+    }
+
+    private static List<Path> writeFlixBusRows(FlixBusWorkbooks workbooks, Shape shape) throws IOException {
+        SplittableRandom random = new SplittableRandom(shape.seed());
+        for (int i = 0; i < shape.bookings(); i++) {
+            Booking booking = nextBooking(random, shape, i);
+            if (!booking.inFlixBus()) {
+                continue;
+            }
+            long amount = booking.amount() + booking.flixBusDelta();
+            if (booking.split()) {
+                long half = amount / 2;
+                long margin = booking.margin() / 2;
+                writeFlixBusRow(workbooks, booking, half, margin);
+                writeFlixBusRow(workbooks, booking, amount - half, booking.margin() - margin);
+            } else {
+                writeFlixBusRow(workbooks, booking, amount, booking.margin());
+            }
+            if (booking.fee() != 0) {
+                Row fee = workbooks.nextRow();
+                fee.createCell(3).setCellValue(booking.bookingNumber());
+                fee.createCell(10).setCellValue("PlatformFee");
+                fee.createCell(14).setCellValue(booking.fee() / 100.0);
+                workbooks.addCash(booking.fee());
+            }
+        }
+        return workbooks.finish();
+    }
+
+    /**
+     * Creates the rows of FlixBus workbooks with one sheet each. When a sheet is full, the workbook gets its total row
+     * and is written, and the next row starts a new workbook with the header row.
+     */
+    private static final class FlixBusWorkbooks implements Closeable {
+        private final IntFunction<Path> files;
+        private final int maxFiles;
+        private final int rowsPerFile;
+        private final List<Path> written = new ArrayList<>();
+        private SXSSFWorkbook workbook;
+        private Sheet sheet;
+        private int rowIndex;
+        private long totalCash;
+
+        /**
+         * @param files Returns the file of each workbook, numbered from 1.
+         * @param maxFiles The number of workbooks the rows may take.
+         * @param rowsPerFile Rows per workbook, header and total row included.
+         */
+        FlixBusWorkbooks(IntFunction<Path> files, int maxFiles, int rowsPerFile) {
+            this.files = files;
+            this.maxFiles = maxFiles;
+            this.rowsPerFile = rowsPerFile;
+        }
+
+        Row nextRow() throws IOException {
+            // The last row of a workbook is left for its total row
+            if (workbook == null || rowIndex >= rowsPerFile - 1) {
+                finishWorkbook();
+                if (written.size() == maxFiles) {
+                    throw new IllegalArgumentException("The FlixBus rows do not fit in " + maxFiles + " workbook(s) of "
+                            + rowsPerFile + " rows");
+                }
+                startWorkbook();
+            }
+            return sheet.createRow(rowIndex++);
+        }
+
+        void addCash(long cents) {
+            totalCash += cents;
+        }
+
+        /**
+         * Writes the last workbook and returns all written workbooks.
+         */
+        List<Path> finish() throws IOException {
+            if (workbook == null && written.isEmpty()) {
+                startWorkbook();
+            }
+            finishWorkbook();
+            return written;
+        }
+
+        private void startWorkbook() {
+            workbook = new SXSSFWorkbook(ROW_WINDOW);
+            sheet = workbook.createSheet("Bookings");
+            Row header = sheet.createRow(0);
+            for (int column = 0; column < FLIXBUS_HEADER.length; column++) {
+                header.createCell(column).setCellValue(FLIXBUS_HEADER[column]);
+            }
+            rowIndex = 1;
+            totalCash = 0;
+        }
+
+        private void finishWorkbook() throws IOException {
+            if (workbook == null) {
+                return;
+            }
+            Row total = sheet.createRow(rowIndex);
+            total.createCell(0).setCellValue("Total");
+            total.createCell(14).setCellValue(totalCash / 100.0);
+            Path file = files.apply(written.size() + 1);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                workbook.write(out);
+            } finally {
+                close();
+            }
+            written.add(file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (workbook != null) {
+                workbook.close();
+                workbook = null;
+            }
+        }
+    }
+
+    /**
+     * Returns a temporary file next to the given one, so the finished file can be moved into place atomically.
+     */
+    private static Path temporaryFile(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        return Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+    }
+
+    /**
+     * Deletes a directory and its files, if it still exists.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Generates the next booking. Both writers call this for every index in order, so they see the same bookings.
+     * Booking numbers are a scrambled sequence, so neither file is sorted by booking number.
+     */
+    private static Booking nextBooking(SplittableRandom random, Shape shape, int index) {
+        String bookingNumber = Long.toString(1_000_000_000L + ((index * 0x9E3779B1L) & 0x3FFF_FFFFL));
+        long amount = 500 + random.nextInt(20_000);
+        long margin = amount / 10;
+        long fee = random.nextDouble() < shape.feeRatio() ? (random.nextBoolean() ? 99 : 150) : 0;
+        boolean voucher = random.nextDouble() < shape.voucherRatio();
+        boolean split = random.nextDouble() < shape.duplicateRatio();
+        boolean inESP = true;
+        boolean inFlixBus = true;
+        long flixBusDelta = 0;
+        if (random.nextDouble() < shape.mismatchRate()) {
+            switch (random.nextInt(3)) {
+                case 0 -> flixBusDelta = 100;
+                case 1 -> inFlixBus = false;
+                default -> inESP = false;
+            }
+        }
+        return new Booking(bookingNumber, amount, margin, fee, voucher, split, inESP, inFlixBus, flixBusDelta);
+    }
+
+    private static void writeESPLine(BufferedWriter out, StringBuilder line, String serialNumber, long amount, long fee, long margin)
+            throws IOException {
+        line.setLength(0);
+        line.append(serialNumber).append(';');
+        Money.appendTo(line, amount).append(';');
+        Money.appendTo(line, fee).append(';');
+        Money.appendTo(line, margin).append('\n');
+        out.append(line);
+    }
+
+    private static void writeFlixBusRow(FlixBusWorkbooks workbooks, Booking booking, long amount, long margin) throws IOException {
+        Row row = workbooks.nextRow();
+        row.createCell(0).setCellValue("2024-05-01");
+        row.createCell(3).setCellValue(booking.bookingNumber());
+        row.createCell(9).setCellValue("EUR");
+        row.createCell(10).setCellValue("Ticket");
+        row.createCell(14).setCellValue(booking.voucher() ? 0 : amount / 100.0);
+        row.createCell(15).setCellValue(booking.voucher() ? amount / 100.0 : 0);
+        row.createCell(16).setCellValue(margin / 100.0);
+        if (!booking.voucher()) {
+            workbooks.addCash(amount);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The BenchmarkFiles class generates one ESP CSV file and one FlixBus workbook per trial, shaped by the
+ * benchmark parameters, and deletes them after the trial.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkFiles {
+    @Param({"10000", "100000"})
+    public int bookings;
+
+    @Param({"0.05"})
+    public double duplicateRatio;
+
+    @Param({"0.1"})
+    public double voucherRatio;
+
+    @Param({"0.3"})
+    public double feeRatio;
+
+    @Param({"0.02"})
+    public double mismatchRate;
+
+    Path directory;
+    Path espFile;
+    Path flixBusFile;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        BenchmarkData.Shape shape = new BenchmarkData.Shape(bookings, duplicateRatio, voucherRatio, feeRatio, mismatchRate, 42);
+        directory = Files.createTempDirectory("difference-finder-bench");
+        espFile = directory.resolve("esp.csv");
+        flixBusFile = directory.resolve("flixbus.xlsx");
+        BenchmarkData.writeESPFile(espFile, shape);
+        BenchmarkData.writeFlixBusFile(flixBusFile, shape);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(espFile);
+        Files.deleteIfExists(flixBusFile);
+        Files.deleteIfExists(directory);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures comparing already parsed input files, without the cost of reading them.
+ * Run with {@code -prof gc} to see the allocation rate as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareBenchmark {
+
+    /**
+     * The parsed rows of the generated files, read once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class ParsedFiles {
+        EspColumns espRecords;
+        FlixBusRecordSet flixBusRecords;
+
+        @Setup(Level.Trial)
+        public void read(BenchmarkFiles files) throws IOException {
+            espRecords = FileProcessor.readESPFile(files.espFile.toString());
+            flixBusRecords = FileProcessor.readFlixBusFile(files.flixBusFile.toString());
+        }
+    }
+
+    @Benchmark
+    public ReconciliationResult compare(ParsedFiles files) {
+        return new ComparingFiles().compare(files.espRecords, files.flixBusRecords);
+    }
+
+    @Benchmark
+    public String compareFiles(ParsedFiles files) {
+        return ComparingFiles.compareFiles(files.espRecords, files.flixBusRecords);
+    }
+
+    @Benchmark
+    public String printServiceFee(ParsedFiles files) {
+        return ComparingFiles.printServiceFee(files.espRecords, files.flixBusRecords);
+    }
+}
@@ -0,0 +1,38 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the generated input files. Run with {@code -prof gc} to see the allocation rate as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Benchmark
+    public EspColumns readESPFile(BenchmarkFiles files) throws IOException {
+        return FileProcessor.readESPFile(files.espFile.toString());
+    }
+
+    @Benchmark
+    public EspColumns readESPFileSequential(BenchmarkFiles files) throws IOException {
+        return FileProcessor.readESPFile(files.espFile.toString(), false);
+    }
+
+    @Benchmark
+    public FlixBusRecordSet readFlixBusFile(BenchmarkFiles files) throws IOException {
+        return FileProcessor.readFlixBusFile(files.flixBusFile.toString());
+    }
+}
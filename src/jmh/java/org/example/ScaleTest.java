@@ -0,0 +1,240 @@
+package org.example;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The ScaleTest class checks that the full pipeline still fits the production limits. For every size it generates
+ * an ESP file and as many FlixBus workbooks as the rows need with {@link BenchmarkData}, then runs
+ * {@code FileProcessor.readInputFiles} on all of them,
+ * {@code ComparingFiles.compareFiles} and {@code ComparingFiles.printServiceFee} in a fresh JVM whose {@code -Xmx}
+ * is the heap budget of the size. The run fails if that JVM runs out of memory or dies otherwise, or if its wall
+ * time exceeds the budget of the size. The JVM also reports its largest heap occupancy after a garbage collection,
+ * which is how much of the budget the live data used. Generating the files and starting the JVM do not count
+ * towards the budgets.
+ * <p>
+ * Usage: {@code ScaleTest [--rows 100000,1000000,5000000] [--heap 100000=256,...] [--seconds 100000=20,...] [--dir <directory>]}.
+ * Heap budgets are in megabytes. Generated files are kept in the directory and reused by later runs.
+ */
+public class ScaleTest {
+    private static final String RESULT_PREFIX = "scale-result ";
+    private static final Map<Integer, Long> DEFAULT_HEAP_MEGABYTES = Map.of(100_000, 256L, 1_000_000, 1024L, 5_000_000, 3584L);
+    private static final Map<Integer, Long> DEFAULT_SECONDS = Map.of(100_000, 20L, 1_000_000, 120L, 5_000_000, 600L);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && "--run".equals(args[0])) {
+            runPipeline(List.of(args).subList(1, args.length));
+            return;
+        }
+
+        List<Integer> sizes = List.of(100_000, 1_000_000, 5_000_000);
+        Map<Integer, Long> heapBudgets = new TreeMap<>(DEFAULT_HEAP_MEGABYTES);
+        Map<Integer, Long> timeBudgets = new TreeMap<>(DEFAULT_SECONDS);
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "difference-finder-scale");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rows" -> sizes = parseSizes(args[++i]);
+                case "--heap" -> heapBudgets.putAll(parseBudgets(args[++i]));
+                case "--seconds" -> timeBudgets.putAll(parseBudgets(args[++i]));
+                case "--dir" -> directory = Paths.get(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        Files.createDirectories(directory);
+        boolean passed = true;
+        for (int rows : sizes) {
+            Long heapBudget = heapBudgets.get(rows);
+            Long timeBudget = timeBudgets.get(rows);
+            if (heapBudget == null || timeBudget == null) {
+                throw new IllegalArgumentException("No heap or time budget for " + rows + " rows");
+            }
+            passed &= runSize(directory, rows, heapBudget << 20, timeBudget * 1000);
+        }
+        System.out.println(passed ? "All sizes within budget" : "Budget exceeded");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Generates the files of one size, if they do not exist yet, and runs the pipeline on them in a child JVM.
+     * {@link BenchmarkData} only moves a file or directory into place once it is complete, so an existing one is
+     * always whole.
+     *
+     * @return True if the child JVM finished within both budgets.
+     */
+    private static boolean runSize(Path directory, int rows, long heapBudget, long millisBudget)
+            throws IOException, InterruptedException {
+        BenchmarkData.Shape shape = new BenchmarkData.Shape(rows, 0.05, 0.1, 0.3, 0.02, 42);
+        Path espFile = directory.resolve("esp-" + rows + ".csv");
+        Path flixBusDirectory = directory.resolve("flixbus-" + rows);
+        if (!Files.exists(espFile)) {
+            BenchmarkData.writeESPFile(espFile, shape);
+        }
+        List<Path> flixBusFiles;
+        if (Files.exists(flixBusDirectory)) {
+            try (Stream<Path> files = Files.list(flixBusDirectory)) {
+                flixBusFiles = files.filter(file -> file.getFileName().toString().endsWith(".xlsx")).sorted().toList();
+            }
+        } else {
+            flixBusFiles = BenchmarkData.writeFlixBusFiles(flixBusDirectory, shape);
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + (heapBudget >> 20) + "m");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScaleTest.class.getName());
+        command.add("--run");
+        command.add(espFile.toString());
+        for (Path flixBusFile : flixBusFiles) {
+            command.add(flixBusFile.toString());
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        long liveHeap = -1;
+        long millis = -1;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = output.readLine(); line != null; line = output.readLine()) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    String[] values = line.substring(RESULT_PREFIX.length()).split(" ");
+                    liveHeap = Long.parseLong(values[0]);
+                    millis = Long.parseLong(values[1]);
+                } else {
+                    System.out.println("  " + line);
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+
+        // The heap budget is the child's -Xmx, so a run over budget ends with an OutOfMemoryError and a failed exit code
+        boolean passed = exitCode == 0 && liveHeap >= 0 && millis <= millisBudget;
+        System.out.printf(Locale.ROOT, "%-4s %,10d rows  live heap %,6d of %,6d MB  time %,8.1f of %,8.1f s%s%n",
+                passed ? "OK" : "FAIL", rows, liveHeap >> 20, heapBudget >> 20, millis / 1000.0, millisBudget / 1000.0,
+                exitCode == 0 ? "" : "  (exit code " + exitCode + ")");
+        return passed;
+    }
+
+    /**
+     * Runs the pipeline in the child JVM and prints its largest heap occupancy after a garbage collection in bytes
+     * and its wall time in milliseconds.
+     */
+    private static void runPipeline(List<String> filePaths) throws IOException {
+        LiveHeap liveHeap = LiveHeap.watch();
+        System.gc();
+
+        long start = System.nanoTime();
+        InputFiles inputFiles = FileProcessor.readInputFiles(filePaths, null, ProgressToken.NONE);
+        String comparison = ComparingFiles.compareFiles(inputFiles.espRecords(), inputFiles.flixBusRecords());
+        String serviceFees = ComparingFiles.printServiceFee(inputFiles.espRecords(), inputFiles.flixBusRecords());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        if (comparison.isEmpty() || serviceFees.isEmpty()) {
+            throw new IllegalStateException("The comparison produced no report");
+        }
+        // Collect once more while the inputs are still reachable, so a run without a late collection counts them too
+        System.gc();
+        Reference.reachabilityFence(inputFiles);
+        System.out.println(RESULT_PREFIX + liveHeap.max() + " " + millis);
+    }
+
+    /**
+     * Tracks the largest heap occupancy after a garbage collection from the collectors' notifications. Unlike the
+     * peak usage of the memory pools, it does not count garbage that was waiting to be collected.
+     */
+    private static final class LiveHeap implements NotificationListener {
+        private final Set<String> heapPools = new HashSet<>();
+        private final AtomicLong max = new AtomicLong();
+
+        static LiveHeap watch() {
+            LiveHeap liveHeap = new LiveHeap();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    liveHeap.heapPools.add(pool.getName());
+                }
+            }
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).addNotificationListener(liveHeap, null, null);
+            }
+            return liveHeap;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (heapPools.contains(pool.getKey())) {
+                    used += pool.getValue().getUsed();
+                }
+            }
+            max.accumulateAndGet(used, Math::max);
+        }
+
+        /**
+         * Returns the largest occupancy seen so far. Notifications are delivered on another thread, so this waits
+         * briefly for the one of the last collection.
+         */
+        long max() {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return max.get();
+        }
+    }
+
+    private static List<Integer> parseSizes(String value) {
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : value.split(",")) {
+            sizes.add(Integer.parseInt(size.strip()));
+        }
+        return sizes;
+    }
+
+    /**
+     * Parses budgets of the form "100000=256,1000000=1024".
+     */
+    private static Map<Integer, Long> parseBudgets(String value) {
+        Map<Integer, Long> budgets = new TreeMap<>();
+        for (String budget : value.split(",")) {
+            String[] parts = budget.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid budget, expected rows=limit: " + budget);
+            }
+            budgets.put(Integer.parseInt(parts[0].strip()), Long.parseLong(parts[1].strip()));
+        }
+        return budgets;
+    }
+}
@@ -0,0 +1,323 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The BatchReconciler class reconciles many ESP/FlixBus file pairs without a user interface.
+ * Pairs come from a directory, where an ESP CSV file and a FlixBus workbook with the same base name form a pair,
+ * or from a manifest file with one "esp.csv;flixbus.xlsx" pair per line. Pairs are reconciled on a bounded pool,
+ * one report is written per pair, and a throughput summary is printed at the end.
+ * With a memory budget, each pair is reconciled by the {@link ExternalReconciler}, so pairs larger than the heap
+ * can be processed. In incremental mode, a snapshot is kept next to each report, and a re-run only parses the files
+ * of a pair that changed since the last run. Reports are written as text, CSV or Excel workbooks through a {@link ReportSink},
+ * into a temporary file that replaces the report only once it is complete.
+ */
+public class BatchReconciler {
+    private static final Logger logger = Logger.getLogger(BatchReconciler.class.getName());
+    private static final String USAGE = "Usage: --batch <directory|manifest> [--out <directory>] [--threads <count>] [--memory <megabytes per pair>] [--incremental] [--format text|csv|xlsx]";
+
+    /**
+     * One file pair to reconcile.
+     *
+     * @param name Base name of the report.
+     * @param espFile The ESP CSV file.
+     * @param flixBusFile The FlixBus Excel file.
+     */
+    public record Pair(String name, Path espFile, Path flixBusFile) {
+    }
+
+    /**
+     * Writes the report of one pair into a sink.
+     */
+    @FunctionalInterface
+    interface ReportWriter {
+        /**
+         * @return The number of rows read from both files.
+         */
+        long write(ReportSink sink) throws IOException;
+    }
+
+    /**
+     * Runs a batch from command line arguments.
+     *
+     * @param args The arguments following "--batch".
+     * @return The process exit code: 0 if every pair was reconciled, 1 if any pair failed, 2 for invalid arguments.
+     */
+    public static int run(String[] args) {
+        Path input = null;
+        Path outputDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryBudget = 0;
+        boolean incremental = false;
+        String format = "txt";
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out" -> outputDirectory = Paths.get(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--memory" -> memoryBudget = Long.parseLong(args[++i]) << 20;
+                    case "--incremental" -> incremental = true;
+                    case "--format" -> format = reportExtension(args[++i]);
+                    default -> input = Paths.get(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (input == null || threads < 1 || memoryBudget < 0 || (incremental && memoryBudget > 0)) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (outputDirectory == null) {
+            outputDirectory = (Files.isDirectory(input) ? input : input.toAbsolutePath().getParent()).resolve("reports");
+        }
+
+        try {
+            List<Pair> pairs = findPairs(input);
+            return reconcile(pairs, outputDirectory, threads, memoryBudget, incremental, format) ? 0 : 1;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not read batch input " + input, e);
+            return 1;
+        }
+    }
+
+    /**
+     * Reconciles every pair and writes one report per pair into the output directory.
+     *
+     * @param pairs The pairs to reconcile.
+     * @param outputDirectory Directory that receives the reports.
+     * @param threads Number of pairs reconciled at the same time.
+     * @param memoryBudget Heap bytes per pair for the disk-backed reconciliation, or 0 to reconcile in memory.
+     * @param incremental Whether to keep a snapshot per pair and only parse changed files. Requires in-memory reconciliation.
+     * @param reportExtension Extension of the report files, which selects their format: "txt", "csv" or "xlsx".
+     * @return True if every pair was reconciled.
+     * @throws IOException If the output directory cannot be created.
+     */
+    public static boolean reconcile(List<Pair> pairs, Path outputDirectory, int threads, long memoryBudget, boolean incremental,
+                                    String reportExtension) throws IOException {
+        Files.createDirectories(outputDirectory);
+        ComparingFiles engine = new ComparingFiles();
+        long start = System.nanoTime();
+
+        List<Future<Long>> results = new ArrayList<>(pairs.size());
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (Pair pair : pairs) {
+                Path report = outputDirectory.resolve(pair.name() + "." + reportExtension);
+                results.add(executor.submit(() -> memoryBudget > 0
+                        ? reconcileExternally(pair, report, memoryBudget)
+                        : reconcile(engine, pair, report, outputDirectory, incremental, ProgressToken.NONE, null)));
+            }
+        }
+
+        long rows = 0;
+        int failed = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            try {
+                rows += results.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                logger.log(Level.SEVERE, "Could not reconcile " + pairs.get(i).name(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        int succeeded = pairs.size() - failed;
+        System.out.printf(Locale.ROOT, "Reconciled %d of %d pairs, %d rows in %.2f s (%.2f pairs/s, %.0f rows/s) using %d threads%n",
+                succeeded, pairs.size(), rows, seconds, succeeded / seconds, rows / seconds, threads);
+        StageTimer.logSummary();
+        return failed == 0;
+    }
+
+    /**
+     * Reconciles one pair and writes its report.
+     *
+     * @param token Stops the parses and the comparison when cancelled.
+     * @param reportTime The modification time to give the report, or null to keep the time it was written.
+     * @return The number of rows read from both files.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled. The report is left as it was.
+     */
+    static long reconcile(ComparingFiles engine, Pair pair, Path report, Path outputDirectory, boolean incremental,
+                          ProgressToken token, FileTime reportTime) throws IOException {
+        InputFiles inputFiles = incremental
+                ? ReconciliationSnapshot.load(pair.espFile(), pair.flixBusFile(), outputDirectory.resolve(pair.name() + ".snapshot"))
+                : FileProcessor.readInputFiles(pair.espFile().toString(), pair.flixBusFile().toString(), null, token);
+        if (!inputFiles.isComplete()) {
+            throw new IOException("Pair " + pair.name() + " needs one .csv and one .xlsx file");
+        }
+        ReconciliationResult reconciliation = engine.compare(inputFiles.espRecords(), inputFiles.flixBusRecords(), token);
+        long rows = inputFiles.espRecords().size() + inputFiles.flixBusRecords().size();
+        return writeReport(report, reportTime, sink -> {
+            ComparingFiles.writeReport(reconciliation, sink);
+            return rows;
+        });
+    }
+
+    /**
+     * Reconciles one pair with bounded memory and writes its report. Spill files go to the default temporary directory.
+     *
+     * @return The number of rows read from both files.
+     */
+    private static long reconcileExternally(Pair pair, Path report, long memoryBudget) throws IOException {
+        Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        return writeReport(report, null, sink -> ExternalReconciler.reconcile(pair.espFile(), pair.flixBusFile(), memoryBudget, tempDirectory, sink));
+    }
+
+    /**
+     * Writes a report to a hidden temporary file in the report's directory and moves it over the report only once it
+     * is complete, so a reconciliation that fails or is stopped part way never leaves a truncated report that looks
+     * done. The temporary file keeps the report's extension, which selects the format.
+     *
+     * @param report The report file.
+     * @param reportTime The modification time to give the report, or null to keep the time it was written.
+     * @param writer Writes the report.
+     * @return The number of rows the writer read.
+     * @throws IOException If the report cannot be written or moved into place.
+     */
+    static long writeReport(Path report, FileTime reportTime, ReportWriter writer) throws IOException {
+        Path directory = report.toAbsolutePath().getParent();
+        String fileName = report.getFileName().toString();
+        Path temporary = Files.createTempFile(directory, "." + baseName(fileName) + ".",
+                fileName.substring(baseName(fileName).length()));
+        try {
+            long rows;
+            try (ReportSink sink = ReportSink.open(temporary)) {
+                rows = writer.write(sink);
+            }
+            if (reportTime != null) {
+                Files.setLastModifiedTime(temporary, reportTime);
+            }
+            Files.move(temporary, report, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Returns the report file extension of a format name given on the command line.
+     *
+     * @throws IllegalArgumentException If the format is unknown.
+     */
+    static String reportExtension(String format) {
+        return switch (format.toLowerCase(Locale.ROOT)) {
+            case "text", "txt" -> "txt";
+            case "csv" -> "csv";
+            case "xlsx", "excel" -> "xlsx";
+            default -> throw new IllegalArgumentException("Unknown report format " + format);
+        };
+    }
+
+    /**
+     * Lists the pairs of a directory or a manifest file.
+     *
+     * @param input A directory or a manifest file.
+     * @return The pairs, ordered by name.
+     * @throws IOException If the directory or manifest cannot be read.
+     */
+    public static List<Pair> findPairs(Path input) throws IOException {
+        return Files.isDirectory(input) ? pairDirectory(input) : readManifest(input);
+    }
+
+    /**
+     * Pairs the .csv and .xlsx files of a directory by base name. Files without a partner are logged and skipped.
+     */
+    private static List<Pair> pairDirectory(Path directory) throws IOException {
+        List<Path> unpaired = new ArrayList<>();
+        List<Pair> pairs;
+        try (Stream<Path> files = Files.list(directory)) {
+            pairs = pairFiles((Iterable<Path>) files::iterator, unpaired);
+        }
+        for (Path file : unpaired) {
+            boolean espFile = "CSV".equals(FileProcessor.determineFileType(file.getFileName().toString()));
+            logger.warning((espFile ? "No FlixBus workbook for " : "No ESP file for ") + file);
+        }
+        return pairs;
+    }
+
+    /**
+     * Pairs ESP CSV files and FlixBus workbooks by base name. The type of a file is found by
+     * {@link FileProcessor#determineFileType}, so extensions match in any case.
+     *
+     * @param files The files to pair. Files of other types are ignored.
+     * @param unpaired Receives the ESP and FlixBus files without a partner.
+     * @return The pairs, ordered by name.
+     */
+    static List<Pair> pairFiles(Iterable<Path> files, List<Path> unpaired) {
+        Map<String, Path> espFiles = new TreeMap<>();
+        Map<String, Path> flixBusFiles = new TreeMap<>();
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            String fileType = FileProcessor.determineFileType(fileName);
+            if ("CSV".equals(fileType)) {
+                espFiles.put(baseName(fileName), file);
+            } else if ("EXCEL".equals(fileType)) {
+                flixBusFiles.put(baseName(fileName), file);
+            }
+        }
+
+        List<Pair> pairs = new ArrayList<>();
+        for (Map.Entry<String, Path> espFile : espFiles.entrySet()) {
+            Path flixBusFile = flixBusFiles.remove(espFile.getKey());
+            if (flixBusFile != null) {
+                pairs.add(new Pair(espFile.getKey(), espFile.getValue(), flixBusFile));
+            } else {
+                unpaired.add(espFile.getValue());
+            }
+        }
+        unpaired.addAll(flixBusFiles.values());
+        return pairs;
+    }
+
+    /**
+     * Reads a manifest with one "esp.csv;flixbus.xlsx" pair per line. Empty lines and lines starting with '#'
+     * are ignored, and relative paths are resolved against the manifest's directory.
+     */
+    private static List<Pair> readManifest(Path manifest) throws IOException {
+        Path baseDirectory = manifest.toAbsolutePath().getParent();
+        List<Pair> pairs = new ArrayList<>();
+        Map<String, Integer> names = new TreeMap<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] files = line.split(";");
+            if (files.length != 2) {
+                throw new IOException("Invalid manifest line, expected \"esp.csv;flixbus.xlsx\": " + line);
+            }
+            Path espFile = baseDirectory.resolve(files[0].strip());
+            Path flixBusFile = baseDirectory.resolve(files[1].strip());
+            String name = baseName(espFile.getFileName().toString());
+            int count = names.merge(name, 1, Integer::sum);
+            pairs.add(new Pair(count == 1 ? name : name + "-" + count, espFile, flixBusFile));
+        }
+        return pairs;
+    }
+
+    static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+}
@@ -0,0 +1,122 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The BookingIndex class maps canonical booking keys to row numbers.
+ * Numeric keys, which are almost all keys in practice, live in an open-addressing table of primitive longs
+ * with linear probing. The remaining keys are looked up by their canonical text.
+ */
+public class BookingIndex {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] rows;
+    private int mask;
+    private int numericSize;
+    private final Map<String, Integer> textRows = new HashMap<>();
+
+    /**
+     * Creates an index sized so that the expected number of keys fits without rehashing.
+     *
+     * @param expectedSize The expected number of keys.
+     */
+    public BookingIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        rows = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() {
+        return numericSize + textRows.size();
+    }
+
+    /**
+     * Returns the indexed row for the key of a row in any column store, or -1 if the key is not indexed.
+     */
+    public int find(ColumnStore<?> store, int row) {
+        long key = store.key(row);
+        return ColumnStore.isNumericKey(key) ? findNumeric(key) : textRows.getOrDefault(store.keyText(row), -1);
+    }
+
+    /**
+     * Returns the indexed row for a booking key, or -1 if the key is not indexed.
+     */
+    public int find(BookingKey bookingKey) {
+        return bookingKey.isNumeric() ? findNumeric(bookingKey.number()) : textRows.getOrDefault(bookingKey.text(), -1);
+    }
+
+    /**
+     * Returns the indexed row for a numeric booking key, or -1 if the key is not indexed.
+     */
+    public int find(long number) {
+        return findNumeric(number);
+    }
+
+    /**
+     * Indexes the key of a row in the given store under that row number.
+     */
+    public void put(ColumnStore<?> store, int row) {
+        long key = store.key(row);
+        if (ColumnStore.isNumericKey(key)) {
+            putNumeric(key, row);
+        } else {
+            textRows.put(store.keyText(row), row);
+        }
+    }
+
+    private int findNumeric(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return rows[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void putNumeric(long key, int row) {
+        if ((numericSize + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                rows[slot] = row;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        rows[slot] = row;
+        numericSize++;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldRows = rows;
+        keys = new long[capacity];
+        rows = new int[capacity];
+        mask = capacity - 1;
+        numericSize = 0;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                putNumeric(oldKeys[i], oldRows[i]);
+            }
+        }
+    }
+
+    /**
+     * Spreads sequential booking numbers across the table (the 64-bit golden-ratio multiplier).
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
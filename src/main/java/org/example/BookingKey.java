@@ -0,0 +1,125 @@
+package org.example;
+
+import java.math.BigDecimal;
+
+/**
+ * The BookingKey record is the canonical form of a booking or serial number, computed once when a row is parsed.
+ * Numbers are normalized the same way as {@code new BigDecimal(value).toPlainString()}, so "00123" and "1.23E2"
+ * both become "123". Purely numeric keys with up to 18 digits are also packed into a long, which is what
+ * equality and hashing use.
+ *
+ * @param text The canonical text, used for output and for keys that are not numeric.
+ * @param number The packed numeric value, or {@link #NOT_NUMERIC}.
+ */
+public record BookingKey(String text, long number) implements Comparable<BookingKey> {
+    public static final long NOT_NUMERIC = -1;
+    private static final int MAX_PACKED_DIGITS = 18;
+
+    /**
+     * Creates the canonical key for a raw booking or serial number.
+     *
+     * @param raw The booking number as read from the file.
+     * @return The canonical key.
+     */
+    public static BookingKey of(String raw) {
+        String text = canonicalText(raw);
+        return new BookingKey(text, pack(text));
+    }
+
+    public boolean isNumeric() {
+        return number != NOT_NUMERIC;
+    }
+
+    private static String canonicalText(String raw) {
+        if (raw.isEmpty()) {
+            return raw;
+        }
+        if (isDigits(raw)) {
+            int firstNonZero = 0;
+            while (firstNonZero < raw.length() - 1 && raw.charAt(firstNonZero) == '0') {
+                firstNonZero++;
+            }
+            return raw.substring(firstNonZero);
+        }
+        if (!looksNumeric(raw)) {
+            return raw;
+        }
+        try {
+            return new BigDecimal(raw).toPlainString();
+        } catch (NumberFormatException e) {
+            return raw;
+        }
+    }
+
+    private static long pack(String text) {
+        if (text.isEmpty() || text.length() > MAX_PACKED_DIGITS || !isDigits(text)) {
+            return NOT_NUMERIC;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cheap pre-check so that alphanumeric booking numbers never reach the BigDecimal exception path.
+     */
+    private static boolean looksNumeric(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BookingKey other)) {
+            return false;
+        }
+        if (number != NOT_NUMERIC || other.number != NOT_NUMERIC) {
+            return number == other.number;
+        }
+        return text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return number != NOT_NUMERIC ? Long.hashCode(number) : text.hashCode();
+    }
+
+    /**
+     * Numeric keys sort by value and before all other keys, which sort by text.
+     */
+    @Override
+    public int compareTo(BookingKey other) {
+        if (isNumeric() && other.isNumeric()) {
+            return Long.compare(number, other.number);
+        }
+        if (isNumeric() != other.isNumeric()) {
+            return isNumeric() ? -1 : 1;
+        }
+        return text.compareTo(other.text);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,118 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
+
+/**
+ * The ColumnMerger class combines the rows of several files of the same type per booking without concatenating them
+ * first. Each file is combined on its own and its rows put in booking key order; the sorted files are then merged k
+ * ways, so the rows of one booking meet at the heads of the files and are summed into a single row. Files are merged
+ * in the order given, so for a booking found in several files the earliest file keeps its booking number, exactly as
+ * if the files had been concatenated and combined with {@link CombinedColumns}.
+ */
+public final class ColumnMerger {
+
+    /**
+     * The next row of one sorted file.
+     */
+    private record Head<S>(S rows, int file, int row) {
+    }
+
+    private ColumnMerger() {
+    }
+
+    /**
+     * Combines the rows of one file per booking and returns them in booking key order, which is the order of
+     * {@link BookingKey#compareTo}.
+     *
+     * @param parsed The rows of one file.
+     * @param newStore Creates empty stores of the same type.
+     * @return A new store with one row per booking key, sorted by key.
+     */
+    public static <S extends ColumnStore<S>> S combineSorted(S parsed, Supplier<S> newStore) {
+        CombinedColumns<S> combined = CombinedColumns.combine(parsed, newStore.get());
+        S rows = combined.rows();
+        int numericCount = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            if (ColumnStore.isNumericKey(rows.key(row))) {
+                numericCount++;
+            }
+        }
+        // Keys are unique after combining, so sorting the keys alone and finding their rows again is enough.
+        long[] numbers = new long[numericCount];
+        String[] texts = new String[rows.size() - numericCount];
+        int nextNumber = 0;
+        int nextText = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            long key = rows.key(row);
+            if (ColumnStore.isNumericKey(key)) {
+                numbers[nextNumber++] = key;
+            } else {
+                texts[nextText++] = rows.keyText(row);
+            }
+        }
+        Arrays.sort(numbers);
+        Arrays.sort(texts);
+
+        S sorted = newStore.get();
+        for (long number : numbers) {
+            sorted.addCopy(rows, combined.index().find(number));
+        }
+        for (String text : texts) {
+            sorted.addCopy(rows, combined.index().find(new BookingKey(text, BookingKey.NOT_NUMERIC)));
+        }
+        return sorted;
+    }
+
+    /**
+     * Merges files that were each combined and sorted with {@link #combineSorted} into one store with one row per
+     * booking key, in key order. Only one row per file is compared at a time.
+     *
+     * @param files The sorted rows of each file, in file order.
+     * @param target An empty store of the same type that receives the merged rows.
+     * @return The target.
+     */
+    public static <S extends ColumnStore<S>> S merge(List<S> files, S target) {
+        PriorityQueue<Head<S>> heads = new PriorityQueue<>(Math.max(1, files.size()), (a, b) -> {
+            int order = compareKeys(a.rows(), a.row(), b.rows(), b.row());
+            return order != 0 ? order : Integer.compare(a.file(), b.file());
+        });
+        for (int file = 0; file < files.size(); file++) {
+            if (files.get(file).size() > 0) {
+                heads.add(new Head<>(files.get(file), file, 0));
+            }
+        }
+        while (!heads.isEmpty()) {
+            Head<S> head = heads.poll();
+            int last = target.size() - 1;
+            if (last >= 0 && compareKeys(target, last, head.rows(), head.row()) == 0) {
+                target.addAmounts(last, head.rows(), head.row());
+            } else {
+                target.addCopy(head.rows(), head.row());
+            }
+            if (head.row() + 1 < head.rows().size()) {
+                heads.add(new Head<>(head.rows(), head.file(), head.row() + 1));
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Compares the keys of two rows in {@link BookingKey#compareTo} order without creating booking keys.
+     */
+    private static int compareKeys(ColumnStore<?> a, int rowA, ColumnStore<?> b, int rowB) {
+        long keyA = a.key(rowA);
+        long keyB = b.key(rowB);
+        boolean numericA = ColumnStore.isNumericKey(keyA);
+        boolean numericB = ColumnStore.isNumericKey(keyB);
+        if (numericA && numericB) {
+            return Long.compare(keyA, keyB);
+        }
+        if (numericA != numericB) {
+            return numericA ? -1 : 1;
+        }
+        return a.keyText(rowA).compareTo(b.keyText(rowB));
+    }
+}
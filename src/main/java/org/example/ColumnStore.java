@@ -0,0 +1,283 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The ColumnStore class is the base of the column-oriented row stores used for large reconciliations.
+ * Each row is a packed booking key plus an int for the booking number's text, and subclasses add their
+ * amounts as parallel long arrays, so a row costs a few dozen bytes instead of a record object per row.
+ *
+ * <p>Keys are packed into a long: numeric booking numbers are stored as their value, all other keys as
+ * {@code -1 - id}, where id refers to the canonical text in this store's string pool. Packed keys of
+ * numeric bookings can therefore be compared across stores directly; other keys are compared by text.
+ * The booking number as written in the file is pooled only when it differs from the canonical text,
+ * such as "00123" for 123; otherwise it is rebuilt from the key, so plain numeric rows pool no strings.
+ */
+public abstract class ColumnStore<S extends ColumnStore<S>> {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CANONICAL = -1;
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    protected final StringPool strings = new StringPool();
+    protected int size;
+    private long[] keys = new long[0];
+    private int[] bookingNumbers = new int[0];
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the packed key of a row, as described in the class comment.
+     */
+    public long key(int row) {
+        return keys[row];
+    }
+
+    public static boolean isNumericKey(long key) {
+        return key >= 0;
+    }
+
+    /**
+     * Returns the canonical text of a row's booking key.
+     */
+    public String keyText(int row) {
+        long key = keys[row];
+        return isNumericKey(key) ? Long.toString(key) : strings.get((int) (-1 - key));
+    }
+
+    public BookingKey bookingKey(int row) {
+        long key = keys[row];
+        return new BookingKey(keyText(row), isNumericKey(key) ? key : BookingKey.NOT_NUMERIC);
+    }
+
+    /**
+     * Returns the booking number exactly as it appeared in the file.
+     */
+    public String bookingNumber(int row) {
+        int id = bookingNumbers[row];
+        return id == CANONICAL ? keyText(row) : strings.get(id);
+    }
+
+    /**
+     * Compares the booking numbers of two rows as {@link String#compareTo} would. Rows whose booking number is
+     * the plain text of a numeric key are compared on their keys, without building the text.
+     */
+    public int compareBookingNumbers(int rowA, int rowB) {
+        long keyA = keys[rowA];
+        long keyB = keys[rowB];
+        if (bookingNumbers[rowA] == CANONICAL && bookingNumbers[rowB] == CANONICAL && isNumericKey(keyA) && isNumericKey(keyB)) {
+            int digitsA = digits(keyA);
+            int digitsB = digits(keyB);
+            if (digitsA == digitsB) {
+                return Long.compare(keyA, keyB);
+            }
+            // Compare the shorter number with the same number of leading digits of the longer one
+            if (digitsA < digitsB) {
+                long prefixB = keyB / POWERS_OF_TEN[digitsB - digitsA];
+                return keyA != prefixB ? Long.compare(keyA, prefixB) : -1;
+            }
+            long prefixA = keyA / POWERS_OF_TEN[digitsA - digitsB];
+            return prefixA != keyB ? Long.compare(prefixA, keyB) : 1;
+        }
+        return bookingNumber(rowA).compareTo(bookingNumber(rowB));
+    }
+
+    /**
+     * Returns the rows of this store ordered by booking number, in {@link String#compareTo} order.
+     * Rows with equal booking numbers keep their order.
+     */
+    public int[] rowsByBookingNumber() {
+        int[] rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+        }
+        sortByBookingNumber(rows, rows.clone(), 0, size);
+        return rows;
+    }
+
+    /**
+     * Merge sorts {@code rows[from, to)}; {@code buffer} holds the same rows on entry.
+     */
+    private void sortByBookingNumber(int[] rows, int[] buffer, int from, int to) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i;
+                while (j > from && compareBookingNumbers(rows[j - 1], row) > 0) {
+                    rows[j] = rows[j - 1];
+                    j--;
+                }
+                rows[j] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByBookingNumber(buffer, rows, from, middle);
+        sortByBookingNumber(buffer, rows, middle, to);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareBookingNumbers(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static int digits(long number) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && number >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Appends a row with the given booking number and returns its index.
+     * Subclasses call this first and then fill in their amount columns.
+     */
+    protected int addRow(String bookingNumber) {
+        return addRow(bookingNumber, BookingKey.of(bookingNumber));
+    }
+
+    /**
+     * Appends a row whose canonical key is already known and returns its index.
+     */
+    protected int addRow(String bookingNumber, BookingKey bookingKey) {
+        ensureCapacity(size + 1);
+        keys[size] = bookingKey.isNumeric() ? bookingKey.number() : -1 - strings.intern(bookingKey.text());
+        bookingNumbers[size] = bookingNumber.equals(bookingKey.text()) ? CANONICAL : strings.intern(bookingNumber);
+        return size++;
+    }
+
+    /**
+     * Appends a copy of another store's key and booking number, re-pooling strings into this store.
+     */
+    protected int addRow(ColumnStore<?> other, int row) {
+        ensureCapacity(size + 1);
+        long key = other.keys[row];
+        keys[size] = isNumericKey(key) ? key : -1 - strings.intern(other.keyText(row));
+        int id = other.bookingNumbers[row];
+        bookingNumbers[size] = id == CANONICAL ? CANONICAL : strings.intern(other.strings.get(id));
+        return size++;
+    }
+
+    /**
+     * Appends the keys and booking numbers of all rows of another store and returns the index of the first
+     * appended row. Each distinct string of the other store is pooled once through an id remap, not once per row.
+     * Subclasses call this first and then copy their amount columns in bulk.
+     */
+    protected int addRows(ColumnStore<?> other) {
+        ensureCapacity(size + other.size);
+        int[] remap = new int[other.strings.size()];
+        for (int id = 0; id < remap.length; id++) {
+            remap[id] = strings.intern(other.strings.get(id));
+        }
+        int start = size;
+        for (int row = 0; row < other.size; row++) {
+            long key = other.keys[row];
+            keys[start + row] = isNumericKey(key) ? key : -1 - remap[(int) (-1 - key)];
+            int id = other.bookingNumbers[row];
+            bookingNumbers[start + row] = id == CANONICAL ? CANONICAL : remap[id];
+        }
+        size += other.size;
+        return start;
+    }
+
+    /**
+     * Grows the columns to hold at least the given number of rows.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newCapacity = Math.max(capacity, Math.max(INITIAL_CAPACITY, keys.length * 2));
+            keys = Arrays.copyOf(keys, newCapacity);
+            bookingNumbers = Arrays.copyOf(bookingNumbers, newCapacity);
+            grow(newCapacity);
+        }
+    }
+
+    /**
+     * Appends a copy of a row of another store of the same type and returns its index.
+     */
+    public abstract int addCopy(S other, int otherRow);
+
+    /**
+     * Adds the amounts of a row of another store to a row of this store.
+     */
+    public abstract void addAmounts(int row, S other, int otherRow);
+
+    /**
+     * Writes all rows in a compact binary form that {@link #read} appends back: the string pool once, each string
+     * as its UTF-8 length and bytes, followed by the packed keys, booking number ids and amounts of every row.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(strings.size());
+        for (int id = 0; id < strings.size(); id++) {
+            byte[] bytes = strings.get(id).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(size);
+        for (int row = 0; row < size; row++) {
+            out.writeLong(keys[row]);
+            out.writeInt(bookingNumbers[row]);
+            writeAmounts(out, row);
+        }
+    }
+
+    /**
+     * Appends the rows written by {@link #write}. The written strings are pooled once each; into an empty store
+     * they keep their ids.
+     */
+    public void read(DataInput in) throws IOException {
+        int[] stringIds = new int[in.readInt()];
+        byte[] bytes = new byte[64];
+        for (int id = 0; id < stringIds.length; id++) {
+            int length = in.readInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            in.readFully(bytes, 0, length);
+            stringIds[id] = strings.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        int rows = in.readInt();
+        ensureCapacity(size + rows);
+        for (int i = 0; i < rows; i++) {
+            long key = in.readLong();
+            keys[size] = isNumericKey(key) ? key : -1 - stringIds[(int) (-1 - key)];
+            int id = in.readInt();
+            bookingNumbers[size] = id == CANONICAL ? CANONICAL : stringIds[id];
+            readAmounts(in, size++, stringIds);
+        }
+    }
+
+    /**
+     * Writes the subclass's columns of a row. Pooled strings are written as their id.
+     */
+    protected abstract void writeAmounts(DataOutput out, int row) throws IOException;
+
+    /**
+     * Reads the subclass's columns into a row that was just added.
+     *
+     * @param stringIds Maps the string ids of the written store to the ids of this store.
+     */
+    protected abstract void readAmounts(DataInput in, int row, int[] stringIds) throws IOException;
+
+    /**
+     * Resizes the subclass's columns to the given capacity.
+     */
+    protected abstract void grow(int capacity);
+}
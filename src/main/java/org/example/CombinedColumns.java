@@ -0,0 +1,52 @@
+package org.example;
+
+/**
+ * The CombinedColumns record holds the rows of a column store combined per booking: one row per canonical
+ * booking key with its amounts summed, plus an index from key to row.
+ *
+ * @param rows The combined rows.
+ * @param index Maps booking keys to rows of {@code rows}.
+ */
+public record CombinedColumns<S extends ColumnStore<S>>(S rows, BookingIndex index) {
+
+    /**
+     * Combines all rows of the source store into the empty target store.
+     *
+     * @param source The parsed rows.
+     * @param target An empty store of the same type that receives the combined rows.
+     * @return The combined rows and their index.
+     */
+    public static <S extends ColumnStore<S>> CombinedColumns<S> combine(S source, S target) {
+        return combine(source, target, null);
+    }
+
+    /**
+     * Combines the rows of the source store whose booking key is in the filter index.
+     * Amounts are summed in place in the target's columns, so no objects are created per duplicate row.
+     *
+     * @param source The parsed rows.
+     * @param target An empty store of the same type that receives the combined rows.
+     * @param filter Only rows whose key is in this index are kept, or null to keep every row.
+     * @return The combined rows and their index.
+     */
+    public static <S extends ColumnStore<S>> CombinedColumns<S> combine(S source, S target, BookingIndex filter) {
+        BookingIndex index = new BookingIndex(source.size());
+        for (int row = 0; row < source.size(); row++) {
+            if (filter != null && filter.find(source, row) < 0) {
+                continue;
+            }
+            int combinedRow = index.find(source, row);
+            if (combinedRow < 0) {
+                combinedRow = target.addCopy(source, row);
+                index.put(target, combinedRow);
+            } else {
+                target.addAmounts(combinedRow, source, row);
+            }
+        }
+        return new CombinedColumns<>(target, index);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+}
@@ -1,446 +1,471 @@
 package org.example;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.Map;
-import java.util.Comparator;
+import java.util.function.IntUnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * The ComparingFiles class provides methods to compare records from ESP and FlixBus files.
+ * The ComparingFiles class compares records from ESP and FlixBus files.
  * It combines, sorts, and matches records, and generates summaries and detailed comparison results.
+ * Matching works on the row numbers of the combined column stores; records are only created for the rows a report
+ * or a table reads from the result.
+ * An instance keeps no state between comparisons, so one engine can run any number of comparisons at the same time.
  */
 public class ComparingFiles {
     private static final Logger logger = Logger.getLogger(ComparingFiles.class.getName());
-    private static final List<MatchedRecord> matchedRecordsList = new ArrayList<>();
-    private static final List<FlixBusRecord> unmatchedFlixbusList = new ArrayList<>();
-    private static final List<ESPRecord> unmatchedESPList = new ArrayList<>();
+    private static final int PROGRESS_ROWS = 4096;
 
     /**
-     * Compares records from ESP and FlixBus files and generates a comparison result.
+     * The outcome of matching one kind of row with the ESP rows. Arrays are filled up to their counts.
      *
-     * @param espRecords List of ESP records.
-     * @param flixbusRecords List of FlixBus records.
-     * @param feeRecords List of FlixBus fee records.
-     * @param voucherFlixBusRecords List of FlixBus voucher records.
-     * @return A string containing the comparison result.
+     * @param espRows The matched ESP row of each match.
+     * @param otherRows The matched FlixBus, voucher or fee row of each match.
+     * @param matches The number of matches.
+     * @param differences Indexes of the matches whose amounts differ.
+     * @param differenceCount The number of differing matches.
+     * @param unmatchedRows The rows without an ESP row.
+     * @param unmatchedCount The number of rows without an ESP row.
+     * @param unmatchedESPRows The ESP rows without a match, in serial number order.
+     * @param unmatchedESPCount The number of unmatched ESP rows.
      */
-    public static String compareFiles(List<ESPRecord> espRecords, List<Record> flixbusRecords, List<Record> feeRecords, List<Record> voucherFlixBusRecords) {
-        StringBuilder result = new StringBuilder();
-        try {
-            List<ESPRecord> combinedESPList = combineESPRecords(espRecords);
-            List<FlixBusRecord> combinedFlixbusList = combineFlixBusRecords(flixbusRecords);
-            List<VoucherFlixBusRecord> combinedVoucherFlixBusList = combineVoucherFlixBusRecords(voucherFlixBusRecords, espRecords);
-            List<FeeRecord> combinedFlixBusFeeRecords = combineFlixBusFeeRecords(feeRecords);
-
-            sortRecords(combinedESPList, combinedFlixbusList);
-
-            result.append(generateSummary(combinedESPList, combinedFlixbusList, combinedFlixBusFeeRecords));
-            compareRecords(combinedESPList, combinedFlixbusList, combinedVoucherFlixBusList);
-            result.append(formatRecordsList());
-
-        } catch (Exception e) {
-            logger.severe("An error occurred while comparing files: " + e.getMessage());
-            logger.log(Level.SEVERE, "Exception: ", e);
-        }
-        return result.toString();
+    private record Matches(int[] espRows, int[] otherRows, int matches, int[] differences, int differenceCount,
+                           int[] unmatchedRows, int unmatchedCount, int[] unmatchedESPRows, int unmatchedESPCount) {
     }
 
     /**
-     * Generates a summary of the combined ESP and FlixBus records.
+     * Compares the records of an ESP file with those of a FlixBus file.
      *
-     * @param combinedESPList List of combined ESP records.
-     * @param combinedFlixbusList List of combined FlixBus records.
-     * @param combinedFlixBusFeeRecords List of combined FlixBus fee records.
-     * @return A string containing the summary.
+     * @param espRecords ESP rows read from the ESP file.
+     * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus file.
+     * @return The matched and unmatched records, fees and totals.
      */
-    private static String generateSummary(List<ESPRecord> combinedESPList, List<FlixBusRecord> combinedFlixbusList, List<FeeRecord> combinedFlixBusFeeRecords) {
-        double espTotalAmount = combinedESPList.stream().mapToDouble(ESPRecord::amount).sum();
-        double suplierMarginTotalAmount = combinedESPList.stream().mapToDouble(ESPRecord::suplierMargin).sum();
-        double flixbusTotalCash = combinedFlixbusList.stream().mapToDouble(FlixBusRecord::cash).sum();
-        double absoluteDifference = Math.abs(espTotalAmount - flixbusTotalCash);
-        double totalComm_gross = combinedFlixbusList.stream().mapToDouble(FlixBusRecord::comm_gross).sum();
-        double commGrossSupplierMarginDiff = Math.abs(totalComm_gross - suplierMarginTotalAmount);
-        double combinedESPListTotalAmount = combinedESPList.stream().mapToDouble(ESPRecord::getTotalAmount).sum();
-        double combinedFlixBusListTotalAmount = getFlixBusTotalAmount(combinedFlixbusList, combinedFlixBusFeeRecords);
-        double TotalAmountDifference = Math.abs(combinedESPListTotalAmount - combinedFlixBusListTotalAmount);
-        return String.format("ESP summary:     %.2f  |   Suplier Margin:   %14.2f  |   ESP Total Amount: %10.2f%n" +
-                        "Flixbus summary: %.2f  |   Total Comm Gross: %9.2f  |  Flixbus Total Amount: %.2f%n" +
-                        "Difference:      %12.2f    |   Difference:       %18.2f  |   Difference: %24.2f%n%n",
-                espTotalAmount, suplierMarginTotalAmount, combinedESPListTotalAmount, flixbusTotalCash, totalComm_gross, combinedFlixBusListTotalAmount, absoluteDifference, commGrossSupplierMarginDiff, TotalAmountDifference);
+    public ReconciliationResult compare(EspColumns espRecords, FlixBusRecordSet flixBusRecords) {
+        return compare(espRecords, flixBusRecords, ProgressToken.NONE);
     }
 
     /**
-     * Combines voucher FlixBus records with ESP records.
+     * Compares the records of an ESP file with those of a FlixBus file, reporting the progress of every stage to a token.
      *
-     * @param voucherFlixBusRecords List of voucher FlixBus records.
-     * @param espRecords List of ESP records.
-     * @return A list of combined voucher FlixBus records.
+     * @param espRecords ESP rows read from the ESP file.
+     * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus file.
+     * @param token Receives progress and stops the comparison when cancelled.
+     * @return The matched and unmatched records, fees and totals.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
      */
-    private static List<VoucherFlixBusRecord> combineVoucherFlixBusRecords(List<Record> voucherFlixBusRecords, List<ESPRecord> espRecords) {
-        Map<String, ESPRecord> espRecordMap = new HashMap<>();
-        for (ESPRecord espRecord : espRecords) {
-            espRecordMap.put(formatSerialNumber(espRecord.serialNumber()), espRecord);
-        }
-
-        Map<String, VoucherFlixBusRecord> combinedVoucherFlixBusRecords = new HashMap<>();
-        for (Record record : voucherFlixBusRecords) {
-            if (record instanceof VoucherFlixBusRecord voucherFlixBusRecord) {
-                String voucherSerial = formatSerialNumber(voucherFlixBusRecord.bookingNumber());
-                if (espRecordMap.containsKey(voucherSerial)) {
-                    combinedVoucherFlixBusRecords.merge(voucherFlixBusRecord.bookingNumber(), voucherFlixBusRecord, (existing, newRecord) ->
-                            new VoucherFlixBusRecord(
-                                    existing.bookingNumber(),
-                                    existing.tripServices(),
-                                    existing.voucher() + newRecord.voucher(),
-                                    existing.comm_gross() + newRecord.comm_gross(),
-                                    existing.totalAmount() + newRecord.totalAmount()
-                            ));
-                }
-            }
-        }
-        return new ArrayList<>(combinedVoucherFlixBusRecords.values());
+    public ReconciliationResult compare(EspColumns espRecords, FlixBusRecordSet flixBusRecords, ProgressToken token) {
+        return compare(new ReconciliationContext(espRecords, flixBusRecords, token), token);
     }
 
     /**
-     * Combines FlixBus records.
+     * Compares the combined records of an ESP file and a FlixBus file.
      *
-     * @param flixbusRecords List of FlixBus records.
-     * @return A list of combined FlixBus records.
+     * @param context The combined and indexed records of both files.
+     * @return The matched and unmatched records, fees and totals.
      */
-    private static List<FlixBusRecord> combineFlixBusRecords(List<Record> flixbusRecords) {
-        Map<String, FlixBusRecord> combinedFlixBusRecords = new HashMap<>();
-        for (Record record : flixbusRecords) {
-            if (record instanceof FlixBusRecord flixBusRecord) {
-                combinedFlixBusRecords.merge(flixBusRecord.bookingNumber(), flixBusRecord, (existing, newRecord) ->
-                        new FlixBusRecord(
-                                existing.bookingNumber(),
-                                existing.tripServices(),
-                                existing.cash() + newRecord.cash(),
-                                existing.voucher() + newRecord.voucher(),
-                                existing.comm_gross() + newRecord.comm_gross(),
-                                existing.totalAmount() + newRecord.totalAmount()
-                        ));
-            }
-        }
-        return new ArrayList<>(combinedFlixBusRecords.values());
+    public ReconciliationResult compare(ReconciliationContext context) {
+        return compare(context, ProgressToken.NONE);
     }
 
     /**
-     * Calculates the total amount from FlixBus records and fee records.
+     * Compares the combined records of an ESP file and a FlixBus file, reporting progress to a token.
      *
-     * @param flixbusRecords List of FlixBus records.
-     * @param feeRecords List of fee records.
-     * @return The total amount.
+     * @param context The combined and indexed records of both files.
+     * @param token Receives progress and stops the comparison when cancelled.
+     * @return The matched and unmatched records, fees and totals.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
      */
-    public static double getFlixBusTotalAmount(List<FlixBusRecord> flixbusRecords, List<FeeRecord> feeRecords) {
-        return flixbusRecords.stream().mapToDouble(FlixBusRecord::totalAmount).sum()
-                + feeRecords.stream().mapToDouble(FeeRecord::getFeeAmount).sum();
+    public ReconciliationResult compare(ReconciliationContext context, ProgressToken token) {
+        ReconciliationResult.Summary summary = generateSummary(context);
+        Matches bookings = compareRecords(context, token);
+        return compareServiceFees(context, summary, bookings, token);
     }
 
     /**
-     * Combines FlixBus fee records.
+     * Compares records from ESP and FlixBus files and generates a comparison result.
      *
-     * @param feeRecords List of fee records.
-     * @return A list of combined FlixBus fee records.
+     * @param espRecords ESP rows read from the ESP file.
+     * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus file.
+     * @return A string containing the comparison result.
      */
-    private static List<FeeRecord> combineFlixBusFeeRecords(List<Record> feeRecords) {
-        Map<String, FeeRecord> combinedFlixBusFeeRecords = new HashMap<>();
-        for (Record record : feeRecords) {
-            if (record instanceof FeeRecord feeRecord) {
-                combinedFlixBusFeeRecords.merge(feeRecord.bookingNumber(), feeRecord, (existing, newRecord) ->
-                        new FeeRecord(
-                                existing.bookingNumber(),
-                                existing.getFeeAmount() + newRecord.getFeeAmount()
-                        ));
-            }
+    public static String compareFiles(EspColumns espRecords, FlixBusRecordSet flixBusRecords) {
+        try {
+            return formatComparison(new ComparingFiles().compare(espRecords, flixBusRecords));
+        } catch (Exception e) {
+            logger.severe("An error occurred while comparing files: " + e.getMessage());
+            logger.log(Level.SEVERE, "Exception: ", e);
+            return "";
         }
-        return new ArrayList<>(combinedFlixBusFeeRecords.values());
     }
 
     /**
-     * Combines ESP records.
+     * Formats the summary and the matched and unmatched records of a comparison.
      *
-     * @param espRecords List of ESP records.
-     * @return A list of combined ESP records.
+     * @param result The result of a comparison.
+     * @return A string containing the comparison result.
      */
-    private static List<ESPRecord> combineESPRecords(List<ESPRecord> espRecords) {
-        Map<String, ESPRecord> combinedESPRecords = new HashMap<>();
-        for (ESPRecord record : espRecords) {
-            combinedESPRecords.merge(record.serialNumber(), record, (existing, newRecord) ->
-                    new ESPRecord(
-                            existing.serialNumber(),
-                            existing.amount() + newRecord.amount(),
-                            existing.suplierMargin() + newRecord.suplierMargin(),
-                            existing.suplierMargin() + newRecord.suplierMargin()
-                    ));
+    public static String formatComparison(ReconciliationResult result) {
+        StringWriter text = new StringWriter();
+        try (TextReportSink sink = new TextReportSink(text)) {
+            writeComparison(result, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringWriter does not fail
         }
-        return new ArrayList<>(combinedESPRecords.values());
+        return text.toString();
     }
 
     /**
-     * Sorts ESP and FlixBus records by their serial numbers and booking numbers, respectively.
+     * Writes a complete report, the comparison followed by the service fee comparison, to a sink.
      *
-     * @param espRecords List of ESP records.
-     * @param records List of FlixBus records.
+     * @param result The result of a comparison.
+     * @param sink Receives the report rows. It is not closed.
+     * @throws IOException If the sink cannot write.
      */
-    private static void sortRecords(List<ESPRecord> espRecords, List<? extends Record> records) {
-        espRecords.sort(Comparator.comparing(ESPRecord::serialNumber));
-        records.sort(Comparator.comparing(Record::bookingNumber));
+    public static void writeReport(ReconciliationResult result, ReportSink sink) throws IOException {
+        writeComparison(result, sink);
+        writeServiceFees(result, sink);
     }
 
     /**
-     * Compares ESP and FlixBus records and identifies matched and unmatched records.
+     * Calculates the totals of the combined ESP and FlixBus rows.
      *
-     * @param espRecords List of ESP records.
-     * @param flixbusRecords List of FlixBus records.
-     * @param voucherFlixBusRecords List of voucher FlixBus records.
+     * @param context The combined rows of both files.
+     * @return The totals of both files.
      */
-    private static void compareRecords(List<ESPRecord> espRecords, List<FlixBusRecord> flixbusRecords, List<VoucherFlixBusRecord> voucherFlixBusRecords) {
-        unmatchedFlixbusList.clear();
-        unmatchedESPList.clear();
-        matchedRecordsList.clear();
-
-        Map<String, ESPRecord> espRecordMap = new HashMap<>();
-        for (ESPRecord espRecord : espRecords) {
-            espRecordMap.put(formatSerialNumber(espRecord.serialNumber()), espRecord);
+    private static ReconciliationResult.Summary generateSummary(ReconciliationContext context) {
+        EspColumns esp = context.espRows();
+        long espTotalAmount = 0;
+        long suplierMarginTotalAmount = 0;
+        long espServiceFees = 0;
+        for (int row = 0; row < esp.size(); row++) {
+            espTotalAmount += esp.amount(row);
+            suplierMarginTotalAmount += esp.suplierMargin(row);
+            espServiceFees += esp.serviceFee(row);
         }
+        FlixBusColumns flixBus = context.flixBusRows();
+        long flixbusTotalCash = 0;
+        long totalComm_gross = 0;
+        long combinedFlixBusListTotalAmount = 0;
+        for (int row = 0; row < flixBus.size(); row++) {
+            flixbusTotalCash += flixBus.cash(row);
+            totalComm_gross += flixBus.commGross(row);
+            combinedFlixBusListTotalAmount += flixBus.totalAmount(row);
+        }
+        FeeColumns fees = context.feeRows();
+        for (int row = 0; row < fees.size(); row++) {
+            combinedFlixBusListTotalAmount += fees.feeAmount(row);
+        }
+        return new ReconciliationResult.Summary(espTotalAmount, suplierMarginTotalAmount, espTotalAmount + espServiceFees,
+                flixbusTotalCash, totalComm_gross, combinedFlixBusListTotalAmount);
+    }
+
+    /**
+     * Calculates the total amount from FlixBus records and fee records.
+     *
+     * @param flixbusRecords List of FlixBus records.
+     * @param feeRecords List of fee records.
+     * @return The total amount in cents.
+     */
+    public static long getFlixBusTotalAmount(List<FlixBusRecord> flixbusRecords, List<FeeRecord> feeRecords) {
+        return flixbusRecords.stream().mapToLong(FlixBusRecord::totalAmount).sum()
+                + feeRecords.stream().mapToLong(FeeRecord::getFeeAmount).sum();
+    }
 
-        for (FlixBusRecord flixbusRecord : flixbusRecords) {
-            String flixbusSerial = formatSerialNumber(flixbusRecord.bookingNumber());
-            ESPRecord matchedESPRecord = espRecordMap.get(flixbusSerial);
+    /**
+     * Compares ESP and FlixBus rows and identifies matched and unmatched rows.
+     * FlixBus rows are matched first, in booking number order; voucher rows can only match ESP rows that are still
+     * unmatched. The matches are FlixBus matches followed by voucher matches, and the unmatched rows are FlixBus rows.
+     *
+     * @param context The combined and indexed rows of both files.
+     * @param token Receives the number of FlixBus and voucher rows matched so far.
+     * @return The matches.
+     */
+    private static Matches compareRecords(ReconciliationContext context, ProgressToken token) {
+        StageTimer timer = StageTimer.start(StageTimer.Stage.MATCH_BOOKINGS);
+        EspColumns esp = context.espRows();
+        FlixBusColumns flixBus = context.flixBusRows();
+        VoucherColumns vouchers = context.voucherRows();
+        boolean[] matchedESPRows = new boolean[esp.size()];
+        int[] espRows = new int[esp.size()];
+        int[] otherRows = new int[esp.size()];
+        int[] differences = new int[esp.size()];
+        int[] unmatchedRows = new int[flixBus.size()];
+        int matches = 0;
+        int differenceCount = 0;
+        int unmatchedCount = 0;
+        long total = flixBus.size() + vouchers.size();
+        long done = 0;
+
+        for (int position = 0; position < flixBus.size(); position++) {
+            if (++done % PROGRESS_ROWS == 0) {
+                token.advance(ProgressToken.Stage.MATCHING, done, total);
+            }
+            int row = context.sortedFlixBusRow(position);
+            int espRow = context.espRow(flixBus, row);
 
-            if (matchedESPRecord != null) {
-                matchedRecordsList.add(new MatchedRecord(matchedESPRecord, flixbusRecord));
-                espRecordMap.remove(flixbusSerial);
+            if (espRow >= 0 && !matchedESPRows[espRow]) {
+                if (esp.amount(espRow) != flixBus.cash(row) || esp.suplierMargin(espRow) != flixBus.commGross(row)) {
+                    differences[differenceCount++] = matches;
+                }
+                espRows[matches] = espRow;
+                otherRows[matches++] = row;
+                matchedESPRows[espRow] = true;
             } else {
-                unmatchedFlixbusList.add(flixbusRecord);
+                unmatchedRows[unmatchedCount++] = row;
             }
         }
 
-        Map<String, ESPRecord> unmatchedESPMap = new HashMap<>(espRecordMap);
-        for (VoucherFlixBusRecord voucherRecord : voucherFlixBusRecords) {
-            String voucherSerial = formatSerialNumber(voucherRecord.bookingNumber());
-            ESPRecord matchedESPRecord = unmatchedESPMap.get(voucherSerial);
+        for (int row = 0; row < vouchers.size(); row++) {
+            if (++done % PROGRESS_ROWS == 0) {
+                token.advance(ProgressToken.Stage.MATCHING, done, total);
+            }
+            int espRow = context.espRow(vouchers, row);
 
-            if (matchedESPRecord != null) {
-                matchedRecordsList.add(new MatchedRecord(matchedESPRecord, voucherRecord));
-                unmatchedESPMap.remove(voucherSerial);
+            if (espRow >= 0 && !matchedESPRows[espRow]) {
+                if (esp.amount(espRow) != vouchers.voucher(row) || esp.suplierMargin(espRow) != vouchers.commGross(row)) {
+                    differences[differenceCount++] = matches;
+                }
+                espRows[matches] = espRow;
+                otherRows[matches++] = row;
+                matchedESPRows[espRow] = true;
             }
         }
 
-        unmatchedESPList.addAll(unmatchedESPMap.values());
+        int[] unmatchedESPRows = new int[esp.size() - matches];
+        int unmatchedESPCount = addUnmatchedESPRows(context, matchedESPRows, unmatchedESPRows);
+        timer.stop(total, 0);
+        token.advance(ProgressToken.Stage.MATCHING, total, total);
+        return new Matches(espRows, otherRows, matches, differences, differenceCount, unmatchedRows, unmatchedCount,
+                unmatchedESPRows, unmatchedESPCount);
     }
 
     /**
-     * Formats the list of matched and unmatched records into a string.
+     * Matches fee rows with ESP rows by booking key.
      *
-     * @return A string containing the formatted records list.
+     * @param context The combined and indexed rows of both files.
+     * @param fees Combined fee rows.
+     * @param order Maps positions to fee rows, giving the order in which fees are matched.
+     * @param token Receives the number of fee rows matched so far.
+     * @return The matches.
      */
-    private static String formatRecordsList() {
-        StringBuilder result = new StringBuilder();
+    private static Matches matchFees(ReconciliationContext context, FeeColumns fees, IntUnaryOperator order, ProgressToken token) {
+        StageTimer timer = StageTimer.start(StageTimer.Stage.MATCH_FEES);
+        EspColumns esp = context.espRows();
+        boolean[] matchedESPRows = new boolean[esp.size()];
+        int capacity = Math.min(esp.size(), fees.size());
+        int[] espRows = new int[capacity];
+        int[] feeRows = new int[capacity];
+        int[] differences = new int[capacity];
+        int[] unmatchedRows = new int[fees.size()];
+        int matches = 0;
+        int differenceCount = 0;
+        int unmatchedCount = 0;
+        for (int position = 0; position < fees.size(); position++) {
+            if ((position + 1) % PROGRESS_ROWS == 0) {
+                token.advance(ProgressToken.Stage.MATCHING_FEES, position + 1, fees.size());
+            }
+            int row = order.applyAsInt(position);
+            int espRow = context.espRow(fees, row);
 
-        boolean hasDifferentPrices = false;
-        double epsilon_cash = 0.00001; // Adjusted epsilon for comparison
-        double epsilon_comm_gross = 0.0001; // Adjusted epsilon for comparison
-        for (MatchedRecord record : matchedRecordsList) {
-            ESPRecord espRecord = record.espRecord();
-            Record flixBusRecord = record.record();
-
-            if (flixBusRecord instanceof FlixBusRecord flixRecord) {
-                if (Math.abs(espRecord.amount() - flixRecord.cash()) > epsilon_cash ||
-                        Math.abs(espRecord.suplierMargin() - flixRecord.comm_gross()) > epsilon_comm_gross) {
-                    if (!hasDifferentPrices) {
-                        result.append("Matched Records with Different Prices:\n");
-                        result.append(String.format("%-18s| %-12s | %-10s | %-20s | %-10s | %-10s%n", "ESP Serial", "ESP Amount", "ESP Supp Margin", "Flixbus Booking Number", "Cash", "Flixbus Comm Gross"));
-                        hasDifferentPrices = true;
-                    }
-                    String formattedBookingNumber = formatSerialNumber(flixRecord.bookingNumber());
-                    result.append(String.format("%-14s | %-19.2f | %-26.2f | %-30s | %-10.2f | %-10.2f%n",
-                            espRecord.serialNumber(), espRecord.amount(), espRecord.suplierMargin(), formattedBookingNumber, flixRecord.cash(), flixRecord.comm_gross()));
-                }
-            } else if (flixBusRecord instanceof VoucherFlixBusRecord voucherRecord) {
-                if (Math.abs(espRecord.amount() - voucherRecord.voucher()) > epsilon_cash ||
-                        Math.abs(espRecord.suplierMargin() - voucherRecord.comm_gross()) > epsilon_comm_gross) {
-                    if (hasDifferentPrices) {
-                        result.append("Matched Records with Different Prices:\n");
-                        result.append(String.format("%-18s| %-12s | %-10s | %-20s | %-10s | %-10s%n", "ESP Serial", "ESP Amount", "ESP Supp Margin", "Voucher Booking Number", "Voucher", "Voucher Comm Gross"));
-                    }
-                    String formattedBookingNumber = formatSerialNumber(voucherRecord.bookingNumber());
-                    result.append(String.format("%-13s | %-18.2f | %-25.2f | %-30s | %-10.2f | %-10.2f%n",
-                            espRecord.serialNumber(), espRecord.amount(), espRecord.suplierMargin(), formattedBookingNumber, voucherRecord.voucher(), voucherRecord.comm_gross()));
+            if (espRow >= 0 && !matchedESPRows[espRow]) {
+                if (esp.serviceFee(espRow) != fees.feeAmount(row)) {
+                    differences[differenceCount++] = matches;
                 }
+                espRows[matches] = espRow;
+                feeRows[matches++] = row;
+                matchedESPRows[espRow] = true;
+            } else {
+                unmatchedRows[unmatchedCount++] = row;
             }
         }
+        int[] unmatchedESPRows = new int[esp.size() - matches];
+        int unmatchedESPCount = addUnmatchedESPRows(context, matchedESPRows, unmatchedESPRows);
+        timer.stop(fees.size(), 0);
+        token.advance(ProgressToken.Stage.MATCHING_FEES, fees.size(), fees.size());
+        return new Matches(espRows, feeRows, matches, differences, differenceCount, unmatchedRows, unmatchedCount,
+                unmatchedESPRows, unmatchedESPCount);
+    }
 
-        if (!hasDifferentPrices) {
-            result.append("All matched records have the same price.\n");
+    /**
+     * Collects the ESP rows that are not marked as matched, in serial number order.
+     *
+     * @return The number of rows collected.
+     */
+    private static int addUnmatchedESPRows(ReconciliationContext context, boolean[] matchedESPRows, int[] unmatchedESPRows) {
+        int count = 0;
+        for (int position = 0; position < matchedESPRows.length; position++) {
+            int row = context.sortedESPRow(position);
+            if (!matchedESPRows[row]) {
+                unmatchedESPRows[count++] = row;
+            }
         }
+        return count;
+    }
 
-        if (!unmatchedFlixbusList.isEmpty()) {
-            result.append("\nUnmatched FlixBus Records:\n");
-            for (FlixBusRecord record : unmatchedFlixbusList) {
-                String formattedBookingNumber = formatSerialNumber(record.bookingNumber());
-                if (!formattedBookingNumber.isEmpty()) {
-                    result.append(String.format("%-20s | %-10.2f | %-10.2f%n", formattedBookingNumber, record.cash(), record.comm_gross()));
-                }
+    /**
+     * Writes the summary and the matched and unmatched records of a comparison to a sink.
+     *
+     * @param reconciliation The result of a comparison.
+     * @param sink Receives the report rows.
+     * @throws IOException If the sink cannot write.
+     */
+    private static void writeComparison(ReconciliationResult reconciliation, ReportSink sink) throws IOException {
+        StageTimer timer = StageTimer.start(StageTimer.Stage.WRITE_REPORT);
+        sink.summary(reconciliation.summary());
+
+        sink.startSection(ReportSink.Section.PRICE_DIFFERENCES);
+        for (MatchedRecord record : reconciliation.priceDifferences()) {
+            ESPRecord espRecord = record.espRecord();
+            if (record.record() instanceof FlixBusRecord flixRecord) {
+                sink.priceDifference(espRecord, flixRecord);
+            } else if (record.record() instanceof VoucherFlixBusRecord voucherRecord) {
+                sink.priceDifference(espRecord, voucherRecord);
             }
-        } else {
-            result.append("\nNo unmatched FlixBus records.\n");
         }
+        sink.endSection(ReportSink.Section.PRICE_DIFFERENCES);
 
-        if (!unmatchedESPList.isEmpty()) {
-            result.append("\nUnmatched ESP Records:\n");
-            for (ESPRecord record : unmatchedESPList) {
-                result.append(String.format("%-20s | %-10.2f | %-10.2f%n", record.serialNumber(), record.amount(), record.suplierMargin()));
-            }
-        } else {
-            result.append("\nNo unmatched ESP records.\n");
+        sink.startSection(ReportSink.Section.UNMATCHED_FLIXBUS);
+        for (FlixBusRecord record : reconciliation.unmatchedFlixBusRecords()) {
+            sink.unmatchedFlixBusRecord(record);
         }
+        sink.endSection(ReportSink.Section.UNMATCHED_FLIXBUS);
 
-        return result.toString();
+        sink.startSection(ReportSink.Section.UNMATCHED_ESP);
+        for (ESPRecord record : reconciliation.unmatchedESPRecords()) {
+            sink.unmatchedESPRecord(record);
+        }
+        sink.endSection(ReportSink.Section.UNMATCHED_ESP);
+        timer.stop(reconciliation.priceDifferences().size() + reconciliation.unmatchedFlixBusRecords().size()
+                + reconciliation.unmatchedESPRecords().size(), 0);
     }
+
     /**
      * Prints the service fee comparison between ESP and FlixBus records.
      *
-     * @param espRecords List of ESP records.
-     * @param feeRecords List of FlixBus fee records.
-     * @param flixbusRecords List of FlixBus records.
-     * @param voucherFlixBusRecords List of FlixBus voucher records.
+     * @param espRecords ESP rows read from the ESP file.
+     * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus file.
      * @return A string containing the service fee comparison result.
      */
-    public static String printServiceFee(List<ESPRecord> espRecords, List<Record> feeRecords, List<Record> flixbusRecords, List<Record> voucherFlixBusRecords) {
-        StringBuilder result = new StringBuilder();
-
-        List<ESPRecord> combinedESPList = combineESPRecords(espRecords);
-        List<FeeRecord> combinedFeeList = combineFlixBusFeeRecords(feeRecords);
-        List<FlixBusRecord> combinedFlixBusList = combineFlixBusRecords(flixbusRecords);
-        List<VoucherFlixBusRecord> combinedVoucherFlixBusList = combineVoucherFlixBusRecords(voucherFlixBusRecords, combinedESPList);
-
-        sortRecords(combinedESPList, combinedFeeList);
+    public static String printServiceFee(EspColumns espRecords, FlixBusRecordSet flixBusRecords) {
+        return formatServiceFees(new ComparingFiles().compare(espRecords, flixBusRecords));
+    }
 
-        List<FeeRecord> unmatchedFeeList = new ArrayList<>();
-        List<MatchedRecord> matchedFeeRecordsList = new ArrayList<>();
+    /**
+     * Matches ESP service fees with FlixBus platform fees and completes the result of a comparison.
+     * If no fee matches at all, every FlixBus and voucher booking is compared with a fee of 0.00 instead.
+     */
+    private static ReconciliationResult compareServiceFees(ReconciliationContext context, ReconciliationResult.Summary summary,
+                                                           Matches bookings, ProgressToken token) {
+        Matches contextFeeMatches = matchFees(context, context.feeRows(), context::sortedFeeRow, token);
+        boolean feeFallback = contextFeeMatches.matches() == 0;
+        FeeColumns fees = feeFallback ? fallbackFees(context, contextFeeMatches) : context.feeRows();
+        Matches feeMatches = feeFallback ? matchFees(context, fees, IntUnaryOperator.identity(), token) : contextFeeMatches;
+
+        EspColumns esp = context.espRows();
+        FlixBusColumns flixBus = context.flixBusRows();
+        VoucherColumns vouchers = context.voucherRows();
+        // Every FlixBus row is either matched or unmatched, and FlixBus matches come first
+        int flixBusMatches = flixBus.size() - bookings.unmatchedCount();
+        List<MatchedRecord> matchedRecords = new RowView<>(bookings.matches(), i -> new MatchedRecord(
+                esp.toRecord(bookings.espRows()[i]),
+                i < flixBusMatches ? flixBus.toRecord(bookings.otherRows()[i]) : vouchers.toRecord(bookings.otherRows()[i])));
+        List<MatchedRecord> priceDifferences = new RowView<>(bookings.differenceCount(),
+                i -> matchedRecords.get(bookings.differences()[i]));
+        List<FlixBusRecord> unmatchedFlixbusList = new RowView<>(bookings.unmatchedCount(),
+                i -> flixBus.toRecord(bookings.unmatchedRows()[i]));
+        List<ESPRecord> unmatchedESPList = new RowView<>(bookings.unmatchedESPCount(),
+                i -> esp.toRecord(bookings.unmatchedESPRows()[i]));
+
+        List<MatchedRecord> matchedFeeRecordsList = new RowView<>(feeMatches.matches(),
+                i -> new MatchedRecord(esp.toRecord(feeMatches.espRows()[i]), fees.toRecord(feeMatches.otherRows()[i])));
+        List<MatchedRecord> feeDifferences = new RowView<>(feeMatches.differenceCount(),
+                i -> matchedFeeRecordsList.get(feeMatches.differences()[i]));
+        List<FeeRecord> unmatchedFeeList = new RowView<>(feeMatches.unmatchedCount(),
+                i -> fees.toRecord(feeMatches.unmatchedRows()[i]));
+        List<ESPRecord> unmatchedESPFeeList = new RowView<>(feeMatches.unmatchedESPCount(),
+                i -> esp.toRecord(feeMatches.unmatchedESPRows()[i]));
+
+        return new ReconciliationResult(summary, matchedRecords, priceDifferences, unmatchedFlixbusList, unmatchedESPList,
+                feeFallback, matchedFeeRecordsList, feeDifferences, unmatchedFeeList, unmatchedESPFeeList);
+    }
 
-        Map<String, ESPRecord> espRecordMap = new HashMap<>();
-        for (ESPRecord espRecord : combinedESPList) {
-            espRecordMap.put(formatSerialNumber(espRecord.serialNumber()), espRecord);
+    /**
+     * Builds the fee rows compared when no fee matched: the unmatched fees plus a fee of 0.00 for every FlixBus
+     * booking, in booking number order, and every voucher booking, combined per booking.
+     */
+    private static FeeColumns fallbackFees(ReconciliationContext context, Matches feeMatches) {
+        FeeColumns fallbackFeeRecords = new FeeColumns();
+        for (int i = 0; i < feeMatches.unmatchedCount(); i++) {
+            fallbackFeeRecords.addCopy(context.feeRows(), feeMatches.unmatchedRows()[i]);
         }
-
-        for (FeeRecord feeRecord : combinedFeeList) {
-            String feeSerial = formatSerialNumber(feeRecord.bookingNumber());
-            ESPRecord matchedESPRecord = espRecordMap.get(feeSerial);
-
-            if (matchedESPRecord != null) {
-                matchedFeeRecordsList.add(new MatchedRecord(matchedESPRecord, feeRecord));
-                espRecordMap.remove(feeSerial);
-            } else {
-                unmatchedFeeList.add(feeRecord);
-            }
+        FlixBusColumns flixBus = context.flixBusRows();
+        for (int position = 0; position < flixBus.size(); position++) {
+            fallbackFeeRecords.add(flixBus, context.sortedFlixBusRow(position), 0);
         }
-
-        List<ESPRecord> unmatchedESPFeeList = new ArrayList<>(espRecordMap.values());
-
-        if (matchedFeeRecordsList.isEmpty()) {
-            result.append("No matched fees found combing esp fee with flixbus record and putting feeAmount to 0.00.\n");
-            for (FlixBusRecord flixBusRecord : combinedFlixBusList) {
-                unmatchedFeeList.add(new FeeRecord(flixBusRecord.bookingNumber(), 0.00));
-            }
-            for (VoucherFlixBusRecord voucherFlixBusRecord : combinedVoucherFlixBusList) {
-                unmatchedFeeList.add(new FeeRecord(voucherFlixBusRecord.bookingNumber(), 0.00));
-            }
-            combinedFeeList = combineFlixBusFeeRecords(new ArrayList<>(unmatchedFeeList));
-            unmatchedFeeList.clear();
-            espRecordMap.clear();
-            for (ESPRecord espRecord : combinedESPList) {
-                espRecordMap.put(formatSerialNumber(espRecord.serialNumber()), espRecord);
-            }
-            for (FeeRecord feeRecord : combinedFeeList) {
-                String feeSerial = formatSerialNumber(feeRecord.bookingNumber());
-                ESPRecord matchedESPRecord = espRecordMap.get(feeSerial);
-                if (matchedESPRecord != null) {
-                    matchedFeeRecordsList.add(new MatchedRecord(matchedESPRecord, feeRecord));
-                    espRecordMap.remove(feeSerial);
-                } else {
-                    unmatchedFeeList.add(feeRecord);
-                }
-            }
-            unmatchedESPFeeList = new ArrayList<>(espRecordMap.values());
+        VoucherColumns vouchers = context.voucherRows();
+        for (int row = 0; row < vouchers.size(); row++) {
+            fallbackFeeRecords.add(vouchers, row, 0);
         }
+        return ReconciliationContext.combineFees(fallbackFeeRecords);
+    }
 
-
-
-        boolean hasDifferentAmounts = false;
-        for (MatchedRecord record : matchedFeeRecordsList) {
-            ESPRecord espRecord = record.espRecord();
-            Record feeRecord = record.record();
-            if (feeRecord instanceof FeeRecord fee) {
-                if (Math.abs(espRecord.serviceFee() - fee.getFeeAmount()) > 0.0001) {
-                    if (!hasDifferentAmounts) {
-                        result.append("\nMatched Fee Records with Different Amounts:\n");
-                        hasDifferentAmounts = true;
-                    }
-                    String formattedBookingNumber = formatSerialNumber(fee.bookingNumber());
-                    result.append(String.format("%-20s | %-10.2f | %-20s | %-10.2f%n",
-                            espRecord.serialNumber(), espRecord.serviceFee(), formattedBookingNumber, fee.getFeeAmount()));
-                }
-            } else if (feeRecord instanceof FlixBusRecord flixBus) {
-                if (Math.abs(espRecord.serviceFee() - flixBus.cash()) > 0.0001) {
-                    if (!hasDifferentAmounts) {
-                        result.append("\nMatched Fee Records with Different Amounts:\n");
-                        hasDifferentAmounts = true;
-                    }
-                    String formattedBookingNumber = formatSerialNumber(flixBus.bookingNumber());
-                    result.append(String.format("%-20s | %-10.2f | %-20s | %-10.2f%n",
-                            espRecord.serialNumber(), espRecord.serviceFee(), formattedBookingNumber, flixBus.cash()));
-                }
-            } else if (feeRecord instanceof VoucherFlixBusRecord voucher) {
-                if (Math.abs(espRecord.serviceFee() - voucher.voucher()) > 0.0001) {
-                    if (!hasDifferentAmounts) {
-                        result.append("\nMatched Fee Records with Different Amounts:\n");
-                        hasDifferentAmounts = true;
-                    }
-                    String formattedBookingNumber = formatSerialNumber(voucher.bookingNumber());
-                    result.append(String.format("%-20s | %-10.2f | %-20s | %-10.2f%n",
-                            espRecord.serialNumber(), espRecord.serviceFee(), formattedBookingNumber, voucher.voucher()));
-                }
-            }
+    /**
+     * Formats the service fee comparison of a comparison.
+     *
+     * @param reconciliation The result of a comparison.
+     * @return A string containing the service fee comparison result.
+     */
+    public static String formatServiceFees(ReconciliationResult reconciliation) {
+        StringWriter text = new StringWriter();
+        try (TextReportSink sink = new TextReportSink(text)) {
+            writeServiceFees(reconciliation, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringWriter does not fail
         }
+        return text.toString();
+    }
 
-        if (!hasDifferentAmounts) {
-            result.append("No matched fees with different amounts.\n");
+    /**
+     * Writes the service fee comparison of a comparison to a sink.
+     *
+     * @param reconciliation The result of a comparison.
+     * @param sink Receives the report rows.
+     * @throws IOException If the sink cannot write.
+     */
+    private static void writeServiceFees(ReconciliationResult reconciliation, ReportSink sink) throws IOException {
+        StageTimer timer = StageTimer.start(StageTimer.Stage.WRITE_REPORT);
+        sink.startSection(ReportSink.Section.FEE_DIFFERENCES);
+        if (reconciliation.feeFallback()) {
+            sink.feeFallback();
         }
+        for (MatchedRecord record : reconciliation.feeDifferences()) {
+            sink.feeDifference(record.espRecord(), (FeeRecord) record.record());
+        }
+        sink.endSection(ReportSink.Section.FEE_DIFFERENCES);
 
-        if (!unmatchedFeeList.isEmpty()) {
-            result.append("\nUnmatched FlixBus Fee Records:\n");
-            for (FeeRecord record : unmatchedFeeList) {
-                String feeSerial = formatSerialNumber(record.bookingNumber());
-                double feeAmount = record.getFeeAmount();
-                result.append(String.format("%-21s | %.2f%n", feeSerial, feeAmount));
-            }
-        } else {
-            result.append("\nNo unmatched FlixBus Fee records.\n");
+        sink.startSection(ReportSink.Section.UNMATCHED_FEES);
+        for (FeeRecord record : reconciliation.unmatchedFeeRecords()) {
+            sink.unmatchedFeeRecord(record);
         }
+        sink.endSection(ReportSink.Section.UNMATCHED_FEES);
 
-        if (!unmatchedESPFeeList.isEmpty()) {
-            result.append("\nUnmatched ESP Fee Records:\n");
-            for (ESPRecord record : unmatchedESPFeeList) {
-                result.append(String.format("%-20s | %-10.2f%n", record.serialNumber(), record.serviceFee()));
-            }
-        } else {
-            result.append("\nNo unmatched ESP Fee records.\n");
+        sink.startSection(ReportSink.Section.UNMATCHED_ESP_FEES);
+        for (ESPRecord record : reconciliation.unmatchedESPFeeRecords()) {
+            sink.unmatchedESPFeeRecord(record);
         }
+        sink.endSection(ReportSink.Section.UNMATCHED_ESP_FEES);
+        timer.stop(reconciliation.feeDifferences().size() + reconciliation.unmatchedFeeRecords().size()
+                + reconciliation.unmatchedESPFeeRecords().size(), 0);
+    }
 
-        return result.toString();
+    static boolean hasDifferentPrice(ESPRecord espRecord, FlixBusRecord flixRecord) {
+        return espRecord.amount() != flixRecord.cash() || espRecord.suplierMargin() != flixRecord.comm_gross();
     }
 
-    private static String formatSerialNumber(String serialNumber) {
-        try {
-            return new java.math.BigDecimal(serialNumber).toPlainString();
-        } catch (NumberFormatException e) {
-            return serialNumber;
-        }
+    static boolean hasDifferentPrice(ESPRecord espRecord, VoucherFlixBusRecord voucherRecord) {
+        return espRecord.amount() != voucherRecord.voucher() || espRecord.suplierMargin() != voucherRecord.comm_gross();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The CsvReportSink class writes a report as one CSV table with a row per report line, for spreadsheets and scripts.
+ * The first column names the section of the row; amounts are plain decimals with two places. For fee rows, the ESP
+ * amount is the ESP service fee and the FlixBus amount is the platform fee. The summary is written as two rows:
+ * "summary" with the amounts and commissions, and "summary_total" with the total amounts of both files.
+ * Like {@link TextReportSink}, rows are built in one reused buffer.
+ */
+public class CsvReportSink implements ReportSink {
+    private static final String HEADER = "section,booking_number,esp_serial,esp_amount,esp_commission,flixbus_amount,flixbus_commission\r\n";
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(128);
+    private char[] chars = new char[128];
+    private boolean feeFallback;
+
+    /**
+     * Creates a sink that writes to the given writer. Closing the sink closes the writer.
+     *
+     * @param out Receives the CSV text.
+     */
+    public CsvReportSink(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void summary(ReconciliationResult.Summary summary) throws IOException {
+        out.write(HEADER);
+        writeRow("summary", "", "", summary.espAmount(), summary.suplierMargin(), summary.flixBusCash(), summary.commGross());
+        line.setLength(0);
+        line.append("summary_total,,,");
+        Money.appendTo(line, summary.espTotalAmount()).append(",,");
+        Money.appendTo(line, summary.flixBusTotalAmount()).append(",\r\n");
+        writeLine();
+    }
+
+    @Override
+    public void startSection(Section section) {
+    }
+
+    @Override
+    public void endSection(Section section) {
+    }
+
+    @Override
+    public void priceDifference(ESPRecord espRecord, FlixBusRecord flixBusRecord) throws IOException {
+        writeRow("price_difference", flixBusRecord.bookingKey().text(), espRecord.serialNumber(),
+                espRecord.amount(), espRecord.suplierMargin(), flixBusRecord.cash(), flixBusRecord.comm_gross());
+    }
+
+    @Override
+    public void priceDifference(ESPRecord espRecord, VoucherFlixBusRecord voucherRecord) throws IOException {
+        writeRow("voucher_price_difference", voucherRecord.bookingKey().text(), espRecord.serialNumber(),
+                espRecord.amount(), espRecord.suplierMargin(), voucherRecord.voucher(), voucherRecord.comm_gross());
+    }
+
+    @Override
+    public void unmatchedFlixBusRecord(FlixBusRecord record) throws IOException {
+        line.setLength(0);
+        line.append("unmatched_flixbus,");
+        appendText(record.bookingKey().text()).append(",,,,");
+        Money.appendTo(line, record.cash()).append(',');
+        Money.appendTo(line, record.comm_gross()).append("\r\n");
+        writeLine();
+    }
+
+    @Override
+    public void unmatchedESPRecord(ESPRecord record) throws IOException {
+        line.setLength(0);
+        line.append("unmatched_esp,,");
+        appendText(record.serialNumber()).append(',');
+        Money.appendTo(line, record.amount()).append(',');
+        Money.appendTo(line, record.suplierMargin()).append(",,\r\n");
+        writeLine();
+    }
+
+    /**
+     * Fee rows of a fallback comparison are marked, since their FlixBus fee is 0.00 and not a platform fee.
+     */
+    @Override
+    public void feeFallback() {
+        feeFallback = true;
+    }
+
+    @Override
+    public void feeDifference(ESPRecord espRecord, FeeRecord fee) throws IOException {
+        line.setLength(0);
+        line.append(feeFallback ? "fallback_fee_difference," : "fee_difference,");
+        appendText(fee.bookingKey().text()).append(',');
+        appendText(espRecord.serialNumber()).append(',');
+        Money.appendTo(line, espRecord.serviceFee()).append(",,");
+        Money.appendTo(line, fee.getFeeAmount()).append(",\r\n");
+        writeLine();
+    }
+
+    @Override
+    public void unmatchedFeeRecord(FeeRecord record) throws IOException {
+        line.setLength(0);
+        line.append(feeFallback ? "fallback_unmatched_fee," : "unmatched_fee,");
+        appendText(record.bookingKey().text()).append(",,,,");
+        Money.appendTo(line, record.getFeeAmount()).append(",\r\n");
+        writeLine();
+    }
+
+    @Override
+    public void unmatchedESPFeeRecord(ESPRecord record) throws IOException {
+        line.setLength(0);
+        line.append(feeFallback ? "fallback_unmatched_esp_fee,," : "unmatched_esp_fee,,");
+        appendText(record.serialNumber()).append(',');
+        Money.appendTo(line, record.serviceFee()).append(",,,\r\n");
+        writeLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeRow(String section, String bookingNumber, String serialNumber,
+                          long espAmount, long espCommission, long flixBusAmount, long flixBusCommission) throws IOException {
+        line.setLength(0);
+        line.append(section).append(',');
+        appendText(bookingNumber).append(',');
+        appendText(serialNumber).append(',');
+        Money.appendTo(line, espAmount).append(',');
+        Money.appendTo(line, espCommission).append(',');
+        Money.appendTo(line, flixBusAmount).append(',');
+        Money.appendTo(line, flixBusCommission).append("\r\n");
+        writeLine();
+    }
+
+    /**
+     * Appends a text field, quoting it only if it contains a separator, a quote or a line break.
+     */
+    private StringBuilder appendText(String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            return line.append(value);
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+
+    private void writeLine() throws IOException {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+    }
+}
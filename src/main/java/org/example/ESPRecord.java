@@ -1,19 +1,15 @@
 package org.example;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+/**
+ * A row of the ESP export. All amounts are in cents.
+ */
+public record ESPRecord(String serialNumber, BookingKey bookingKey, long amount, long serviceFee, long suplierMargin) {
 
-public record ESPRecord(String serialNumber, double amount, double serviceFee, double suplierMargin) {
-
-    public ESPRecord {
-        suplierMargin = roundToTwoDecimalPoints(suplierMargin);
-    }
-
-    private static double roundToTwoDecimalPoints(double value) {
-        return BigDecimal.valueOf(value).setScale(2, RoundingMode.HALF_UP).doubleValue();
+    public ESPRecord(String serialNumber, long amount, long serviceFee, long suplierMargin) {
+        this(serialNumber, BookingKey.of(serialNumber), amount, serviceFee, suplierMargin);
     }
 
-    public double getTotalAmount() {
+    public long getTotalAmount() {
         return amount + serviceFee;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Column store for ESP rows. All amounts are in cents.
+ */
+public class EspColumns extends ColumnStore<EspColumns> {
+    private long[] amounts = new long[0];
+    private long[] serviceFees = new long[0];
+    private long[] suplierMargins = new long[0];
+
+    public void add(String serialNumber, long amount, long serviceFee, long suplierMargin) {
+        int row = addRow(serialNumber);
+        amounts[row] = amount;
+        serviceFees[row] = serviceFee;
+        suplierMargins[row] = suplierMargin;
+    }
+
+    /**
+     * Appends all rows of another store, in order, copying the columns in bulk.
+     */
+    public void addAll(EspColumns other) {
+        int start = addRows(other);
+        System.arraycopy(other.amounts, 0, amounts, start, other.size);
+        System.arraycopy(other.serviceFees, 0, serviceFees, start, other.size);
+        System.arraycopy(other.suplierMargins, 0, suplierMargins, start, other.size);
+    }
+
+    @Override
+    public int addCopy(EspColumns other, int otherRow) {
+        int row = addRow(other, otherRow);
+        amounts[row] = other.amounts[otherRow];
+        serviceFees[row] = other.serviceFees[otherRow];
+        suplierMargins[row] = other.suplierMargins[otherRow];
+        return row;
+    }
+
+    @Override
+    public void addAmounts(int row, EspColumns other, int otherRow) {
+        amounts[row] += other.amounts[otherRow];
+        // Combined rows carry the summed supplier margin as their service fee, as the record-based combine did
+        serviceFees[row] = suplierMargins[row] + other.suplierMargins[otherRow];
+        suplierMargins[row] += other.suplierMargins[otherRow];
+    }
+
+    public long amount(int row) {
+        return amounts[row];
+    }
+
+    public long serviceFee(int row) {
+        return serviceFees[row];
+    }
+
+    public long suplierMargin(int row) {
+        return suplierMargins[row];
+    }
+
+    public ESPRecord toRecord(int row) {
+        return new ESPRecord(bookingNumber(row), bookingKey(row), amounts[row], serviceFees[row], suplierMargins[row]);
+    }
+
+    @Override
+    protected void writeAmounts(DataOutput out, int row) throws IOException {
+        out.writeLong(amounts[row]);
+        out.writeLong(serviceFees[row]);
+        out.writeLong(suplierMargins[row]);
+    }
+
+    @Override
+    protected void readAmounts(DataInput in, int row, int[] stringIds) throws IOException {
+        amounts[row] = in.readLong();
+        serviceFees[row] = in.readLong();
+        suplierMargins[row] = in.readLong();
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        amounts = Arrays.copyOf(amounts, capacity);
+        serviceFees = Arrays.copyOf(serviceFees, capacity);
+        suplierMargins = Arrays.copyOf(suplierMargins, capacity);
+    }
+}
@@ -0,0 +1,386 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The EspCsvParser class reads ESP CSV exports through a memory-mapped file.
+ * Lines and fields are found by scanning for separator bytes, only the projected columns are decoded,
+ * and amounts are parsed into cents straight from the mapped bytes.
+ * A field may be enclosed in double quotes to contain the separator, with a doubled quote standing for a quote;
+ * a line always ends at a newline, so quoted fields cannot span lines.
+ * Large files are split into line-aligned chunks that are parsed in parallel and merged in file order.
+ */
+public class EspCsvParser {
+    private static final byte SEPARATOR = ';';
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte QUOTE = '"';
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final long PARALLEL_THRESHOLD = 16L << 20;
+    private static final long MIN_CHUNK_SIZE = 4L << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int PROGRESS_LINES = 8192;
+
+    /**
+     * Positions of the columns the comparison needs, resolved from the header line.
+     */
+    private record Columns(int serialNumber, int amount, int serviceFee, int supplierMargin) {
+        int last() {
+            return Math.max(Math.max(serialNumber, amount), Math.max(serviceFee, supplierMargin));
+        }
+    }
+
+    /**
+     * Parses an ESP CSV file into an ESP column store, in parallel if the file is large enough to benefit.
+     *
+     * @param path Path to the ESP CSV file.
+     * @return The ESP rows in file order.
+     * @throws IOException If the file cannot be read or a required column is missing.
+     */
+    public static EspColumns parse(Path path) throws IOException {
+        return parse(path, true, ProgressToken.NONE);
+    }
+
+    /**
+     * Parses an ESP CSV file into an ESP column store.
+     *
+     * @param path Path to the ESP CSV file.
+     * @param parallel Whether files above the parallel threshold may be parsed on the common fork-join pool.
+     *                 Pass false to force sequential parsing.
+     * @return The ESP rows in file order.
+     * @throws IOException If the file cannot be read or a required column is missing.
+     */
+    public static EspColumns parse(Path path, boolean parallel) throws IOException {
+        return parse(path, parallel, ProgressToken.NONE);
+    }
+
+    /**
+     * Parses an ESP CSV file into an ESP column store, reporting the bytes parsed so far to a progress token.
+     *
+     * @param path Path to the ESP CSV file.
+     * @param parallel Whether files above the parallel threshold may be parsed on the common fork-join pool.
+     * @param token Receives progress and stops the parse when cancelled.
+     * @return The ESP rows in file order.
+     * @throws IOException If the file cannot be read or a required column is missing.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public static EspColumns parse(Path path, boolean parallel, ProgressToken token) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return new EspColumns();
+            }
+
+            long dataStart = nextLineStart(channel, 0, size);
+            Columns columns = readHeader(channel, dataStart);
+            ByteProgress progress = new ByteProgress(token, size);
+            progress.add(dataStart);
+
+            int threads = ForkJoinPool.getCommonPoolParallelism();
+            if (!parallel || threads < 2 || size - dataStart < PARALLEL_THRESHOLD) {
+                EspColumns records = new EspColumns();
+                for (long[] chunk : splitIntoChunks(channel, dataStart, size, WINDOW_SIZE)) {
+                    parseRange(channel, chunk[0], chunk[1], columns, records, progress);
+                }
+                return records;
+            }
+
+            long chunkSize = Math.min(WINDOW_SIZE, Math.max(MIN_CHUNK_SIZE, (size - dataStart) / ((long) threads * CHUNKS_PER_THREAD) + 1));
+            return parseInParallel(channel, splitIntoChunks(channel, dataStart, size, chunkSize), columns, progress);
+        }
+    }
+
+    /**
+     * Parses an ESP CSV file sequentially in line-aligned chunks and hands the rows of each chunk to the consumer,
+     * in file order. Only one chunk is held in memory at a time, so files larger than the heap can be streamed.
+     *
+     * @param path Path to the ESP CSV file.
+     * @param chunkSize Approximate number of bytes parsed per chunk.
+     * @param consumer Receives the rows of each chunk. The store is not reused after the call returns.
+     * @throws IOException If the file cannot be read or a required column is missing.
+     */
+    public static void parse(Path path, long chunkSize, Consumer<EspColumns> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return;
+            }
+
+            long dataStart = nextLineStart(channel, 0, size);
+            Columns columns = readHeader(channel, dataStart);
+            ByteProgress progress = new ByteProgress(ProgressToken.NONE, size);
+            for (long[] chunk : splitIntoChunks(channel, dataStart, size, Math.min(WINDOW_SIZE, chunkSize))) {
+                EspColumns records = new EspColumns();
+                parseRange(channel, chunk[0], chunk[1], columns, records, progress);
+                consumer.accept(records);
+            }
+        }
+    }
+
+    /**
+     * Splits the data section of the file into ranges of whole lines, each roughly the given size.
+     */
+    private static List<long[]> splitIntoChunks(FileChannel channel, long start, long size, long chunkSize) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize, size);
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Parses each chunk on the common fork-join pool and concatenates the results in file order
+     * into a store sized for all rows.
+     */
+    private static EspColumns parseInParallel(FileChannel channel, List<long[]> chunks, Columns columns, ByteProgress progress) throws IOException {
+        List<Callable<EspColumns>> tasks = new ArrayList<>(chunks.size());
+        for (long[] chunk : chunks) {
+            tasks.add(() -> {
+                EspColumns records = new EspColumns();
+                parseRange(channel, chunk[0], chunk[1], columns, records, progress);
+                return records;
+            });
+        }
+
+        try {
+            List<Future<EspColumns>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+            List<EspColumns> parts = new ArrayList<>(results.size());
+            long rows = 0;
+            for (Future<EspColumns> result : results) {
+                EspColumns part = result.get();
+                parts.add(part);
+                rows += part.size();
+            }
+            EspColumns records = new EspColumns();
+            records.ensureCapacity(Math.toIntExact(rows));
+            for (EspColumns part : parts) {
+                records.addAll(part);
+            }
+            return records;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing ESP file");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Could not parse ESP file", e.getCause());
+        }
+    }
+
+    /**
+     * Reads the header line and resolves the indices of the required columns.
+     */
+    private static Columns readHeader(FileChannel channel, long headerEnd) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) headerEnd);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Keep reading until the whole header line is in the buffer
+        }
+        int length = buffer.position();
+        while (length > 0 && (buffer.get(length - 1) == NEWLINE || buffer.get(length - 1) == CARRIAGE_RETURN)) {
+            length--;
+        }
+        String headerLine = new String(buffer.array(), 0, length, StandardCharsets.UTF_8);
+        if (headerLine.startsWith("\uFEFF")) { // Byte order mark written by Excel
+            headerLine = headerLine.substring(1);
+        }
+
+        List<String> headers = splitHeader(headerLine);
+        Map<String, Integer> headerMap = new HashMap<>();
+        for (int i = 0; i < headers.size(); i++) {
+            headerMap.put(headers.get(i), i);
+        }
+        return new Columns(
+                requireColumn(headerMap, "Serial Number"),
+                requireColumn(headerMap, "Amount"),
+                requireColumn(headerMap, "Flixbus Service Fee"),
+                requireColumn(headerMap, "Supplier Margin (Inc. Tax)"));
+    }
+
+    /**
+     * Splits the header line at separators outside quotes and removes the quotes around each name.
+     */
+    private static List<String> splitHeader(String headerLine) {
+        List<String> headers = new ArrayList<>();
+        StringBuilder name = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < headerLine.length(); i++) {
+            char c = headerLine.charAt(i);
+            if (c == QUOTE) {
+                if (quoted && i + 1 < headerLine.length() && headerLine.charAt(i + 1) == QUOTE) {
+                    name.append(c);
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == SEPARATOR && !quoted) {
+                headers.add(name.toString());
+                name.setLength(0);
+            } else {
+                name.append(c);
+            }
+        }
+        headers.add(name.toString());
+        return headers;
+    }
+
+    private static int requireColumn(Map<String, Integer> headerMap, String name) throws IOException {
+        Integer index = headerMap.get(name);
+        if (index == null) {
+            throw new IOException("ESP file is missing the column '" + name + "'");
+        }
+        return index;
+    }
+
+    /**
+     * Returns the offset just after the first newline at or after the given position, or the file size.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = position;
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == NEWLINE) {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    /**
+     * Counts the parsed bytes of a file across all chunks and reports them to the progress token.
+     */
+    private static final class ByteProgress {
+        private final ProgressToken token;
+        private final long total;
+        private final AtomicLong done = new AtomicLong();
+
+        ByteProgress(ProgressToken token, long total) {
+            this.token = token;
+            this.total = total;
+        }
+
+        void add(long bytes) {
+            token.advance(ProgressToken.Stage.READING_ESP, done.addAndGet(bytes), total);
+        }
+    }
+
+    /**
+     * Maps a range of whole lines and appends one record per data line.
+     * Progress is reported every {@value #PROGRESS_LINES} lines.
+     */
+    private static void parseRange(FileChannel channel, long start, long end, Columns columns, EspColumns records, ByteProgress progress) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int limit = buffer.limit();
+        int lastColumn = columns.last();
+
+        int lineStart = 0;
+        int reported = 0;
+        int lines = 0;
+        while (lineStart < limit) {
+            if (++lines == PROGRESS_LINES) {
+                progress.add(lineStart - reported);
+                reported = lineStart;
+                lines = 0;
+            }
+            int serialStart = -1, serialEnd = -1;
+            int amountStart = -1, amountEnd = -1;
+            int feeStart = -1, feeEnd = -1;
+            int marginStart = -1, marginEnd = -1;
+            int lastNonEmptyField = -1;
+
+            int field = 0;
+            int fieldStart = lineStart;
+            int pos = lineStart;
+            boolean inQuotes = false;
+            while (true) {
+                boolean endOfLine = pos >= limit || buffer.get(pos) == NEWLINE;
+                if (!endOfLine && buffer.get(pos) == QUOTE) {
+                    inQuotes = !inQuotes; // A doubled quote toggles twice and stays inside the field
+                } else if (endOfLine || (!inQuotes && buffer.get(pos) == SEPARATOR)) {
+                    inQuotes = false;
+                    int fieldEnd = pos;
+                    if (endOfLine && fieldEnd > fieldStart && buffer.get(fieldEnd - 1) == CARRIAGE_RETURN) {
+                        fieldEnd--;
+                    }
+                    if (fieldEnd > fieldStart) {
+                        lastNonEmptyField = field;
+                    }
+                    if (fieldEnd - fieldStart >= 2 && buffer.get(fieldStart) == QUOTE && buffer.get(fieldEnd - 1) == QUOTE) {
+                        fieldStart++;
+                        fieldEnd--;
+                    }
+                    if (field == columns.serialNumber()) {
+                        serialStart = fieldStart;
+                        serialEnd = fieldEnd;
+                    }
+                    if (field == columns.amount()) {
+                        amountStart = fieldStart;
+                        amountEnd = fieldEnd;
+                    }
+                    if (field == columns.serviceFee()) {
+                        feeStart = fieldStart;
+                        feeEnd = fieldEnd;
+                    }
+                    if (field == columns.supplierMargin()) {
+                        marginStart = fieldStart;
+                        marginEnd = fieldEnd;
+                    }
+                    field++;
+                    fieldStart = pos + 1;
+                    if (endOfLine) {
+                        break;
+                    }
+                }
+                pos++;
+            }
+            lineStart = pos + 1;
+
+            // Same rule as String.split: trailing empty fields do not count
+            if (lastNonEmptyField >= lastColumn) {
+                records.add(
+                        decode(buffer, serialStart, serialEnd),
+                        Money.parseCents(buffer, amountStart, amountEnd),
+                        Money.parseCents(buffer, feeStart, feeEnd),
+                        Money.parseCents(buffer, marginStart, marginEnd));
+            }
+        }
+        progress.add(limit - reported);
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        return text.indexOf('"') < 0 ? text : text.replace("\"\"", "\"");
+    }
+}
@@ -0,0 +1,538 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ExternalReconciler class compares an ESP file with a FlixBus file without holding either in memory.
+ * Both files are streamed, each record type is sorted by booking key into spill files, and the four sorted streams
+ * are merged and joined booking by booking. The shared strings of the workbook are kept in a file as well. The rows
+ * of each report section are written to temporary files as they are produced and streamed to a {@link ReportSink}
+ * at the end, so memory use is bounded by the budget and not by the size of the files.
+ *
+ * <p>The report has the same sections and rows as {@link ComparingFiles#writeReport}; within a section, rows are
+ * ordered by canonical booking key.
+ */
+public class ExternalReconciler {
+    private static final long MIN_MEMORY_BUDGET = 16L << 20;
+    private static final int SORTERS = 4;
+    private static final long MAX_CHUNK_SIZE = 64L << 20;
+    private static final int SECTION_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Compares an ESP file with a FlixBus file and writes the report.
+     * Half of the memory budget is shared by the sort buffers, an eighth goes to the parsed ESP chunk, which takes
+     * about three times the bytes of the file text, and an eighth to the read buffers of the merged spill files.
+     *
+     * @param espFile The ESP CSV file.
+     * @param flixBusFile The FlixBus Excel file.
+     * @param memoryBudget Approximate number of heap bytes the reconciliation may use, at least 16 MB.
+     * @param tempDirectory Directory for spill files and report sections. They are deleted before this method returns.
+     * @param report Receives the report rows. It is not closed.
+     * @return The number of rows read from both files.
+     * @throws IOException If a file cannot be read, a spill file cannot be written or the sink cannot write.
+     */
+    public static long reconcile(Path espFile, Path flixBusFile, long memoryBudget, Path tempDirectory, ReportSink report) throws IOException {
+        long budget = Math.max(memoryBudget, MIN_MEMORY_BUDGET);
+        int maxOpenRuns = (int) Math.min(1024, budget / 8 / SORTERS / ExternalSorter.runBufferBytes());
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, budget / 8 / 3);
+        return reconcile(espFile, flixBusFile, budget / 2, maxOpenRuns, chunkSize, tempDirectory, report);
+    }
+
+    /**
+     * Compares an ESP file with a FlixBus file and writes the report, with the memory split given directly.
+     *
+     * @param sortBytes Heap bytes the buffered records of all four sorters may use together.
+     * @param maxOpenRuns Number of spill files each sorter merges at once.
+     * @param chunkSize Number of ESP file bytes parsed into memory at once.
+     */
+    static long reconcile(Path espFile, Path flixBusFile, long sortBytes, int maxOpenRuns, long chunkSize,
+                          Path tempDirectory, ReportSink report) throws IOException {
+        Path workDirectory = Files.createTempDirectory(tempDirectory, "reconcile");
+        ExternalSorter.Budget budget = new ExternalSorter.Budget(sortBytes);
+        try (ExternalSorter<ESPRecord> espRecords = budget.newSorter(ESP_CODEC, maxOpenRuns, workDirectory);
+             ExternalSorter<FlixBusRecord> flixBusRecords = budget.newSorter(FLIXBUS_CODEC, maxOpenRuns, workDirectory);
+             ExternalSorter<VoucherFlixBusRecord> voucherRecords = budget.newSorter(VOUCHER_CODEC, maxOpenRuns, workDirectory);
+             ExternalSorter<FeeRecord> feeRecords = budget.newSorter(FEE_CODEC, maxOpenRuns, workDirectory)) {
+            long[] rows = new long[1];
+            try {
+                EspCsvParser.parse(espFile, chunkSize, chunk -> {
+                    for (int row = 0; row < chunk.size(); row++) {
+                        add(espRecords, chunk.toRecord(row));
+                    }
+                    rows[0] += chunk.size();
+                });
+                FlixBusSheetReader.read(flixBusFile.toString(), record -> {
+                    if (record instanceof FlixBusRecord flixBusRecord) {
+                        add(flixBusRecords, flixBusRecord);
+                    } else if (record instanceof VoucherFlixBusRecord voucherRecord) {
+                        add(voucherRecords, voucherRecord);
+                    } else if (record instanceof FeeRecord feeRecord) {
+                        add(feeRecords, feeRecord);
+                    }
+                    rows[0]++;
+                }, ProgressToken.NONE, workDirectory);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            try (ExternalSorter.Cursor<ESPRecord> esp = espRecords.sorted();
+                 ExternalSorter.Cursor<FlixBusRecord> flixBus = flixBusRecords.sorted();
+                 ExternalSorter.Cursor<VoucherFlixBusRecord> vouchers = voucherRecords.sorted();
+                 ExternalSorter.Cursor<FeeRecord> fees = feeRecords.sorted();
+                 Join join = new Join(workDirectory)) {
+                join.run(esp, flixBus, vouchers, fees);
+                join.writeReport(report);
+            }
+            return rows[0];
+        } finally {
+            Files.deleteIfExists(workDirectory);
+        }
+    }
+
+    private static <R> void add(ExternalSorter<R> sorter, R record) {
+        try {
+            sorter.add(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Walks the four sorted streams booking by booking and writes each report row into its section.
+     * The fee comparison is written twice: once against the platform fees and once for the fallback that
+     * {@link ComparingFiles} uses when no fee matches, in which every FlixBus booking has a fee of 0.00.
+     */
+    private static class Join implements Closeable {
+        private final List<Section<?>> sections = new ArrayList<>();
+        private final Section<MatchedRecord> flixBusPriceDifferences;
+        private final Section<MatchedRecord> voucherPriceDifferences;
+        private final Section<FlixBusRecord> unmatchedFlixBus;
+        private final Section<ESPRecord> unmatchedESP;
+        private final Section<MatchedRecord> feeDifferences;
+        private final Section<FeeRecord> unmatchedFees;
+        private final Section<ESPRecord> unmatchedESPFees;
+        private final Section<MatchedRecord> fallbackFeeDifferences;
+        private final Section<FeeRecord> fallbackUnmatchedFees;
+        private final Section<ESPRecord> fallbackUnmatchedESPFees;
+
+        private long espAmount;
+        private long suplierMargin;
+        private long espTotalAmount;
+        private long flixBusCash;
+        private long commGross;
+        private long flixBusTotalAmount;
+        private boolean anyFeeMatched;
+
+        Join(Path directory) throws IOException {
+            try {
+                flixBusPriceDifferences = section(directory, EntryFormat.matched(FLIXBUS_CODEC, FlixBusRecord.class));
+                voucherPriceDifferences = section(directory, EntryFormat.matched(VOUCHER_CODEC, VoucherFlixBusRecord.class));
+                unmatchedFlixBus = section(directory, EntryFormat.of(FLIXBUS_CODEC));
+                unmatchedESP = section(directory, EntryFormat.of(ESP_CODEC));
+                feeDifferences = section(directory, EntryFormat.matched(FEE_CODEC, FeeRecord.class));
+                unmatchedFees = section(directory, EntryFormat.of(FEE_CODEC));
+                unmatchedESPFees = section(directory, EntryFormat.of(ESP_CODEC));
+                fallbackFeeDifferences = section(directory, EntryFormat.matched(FEE_CODEC, FeeRecord.class));
+                fallbackUnmatchedFees = section(directory, EntryFormat.of(FEE_CODEC));
+                fallbackUnmatchedESPFees = section(directory, EntryFormat.of(ESP_CODEC));
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private <E> Section<E> section(Path directory, EntryFormat<E> format) throws IOException {
+            Section<E> section = new Section<>(directory, format);
+            sections.add(section);
+            return section;
+        }
+
+        void run(ExternalSorter.Cursor<ESPRecord> espCursor, ExternalSorter.Cursor<FlixBusRecord> flixBusCursor,
+                 ExternalSorter.Cursor<VoucherFlixBusRecord> voucherCursor, ExternalSorter.Cursor<FeeRecord> feeCursor) throws IOException {
+            while (true) {
+                BookingKey key = min(min(espCursor.peekKey(), flixBusCursor.peekKey()), min(voucherCursor.peekKey(), feeCursor.peekKey()));
+                if (key == null) {
+                    return;
+                }
+                ESPRecord esp = key.equals(espCursor.peekKey()) ? espCursor.next() : null;
+                FlixBusRecord flixBus = key.equals(flixBusCursor.peekKey()) ? flixBusCursor.next() : null;
+                VoucherFlixBusRecord voucher = key.equals(voucherCursor.peekKey()) ? voucherCursor.next() : null;
+                FeeRecord fee = key.equals(feeCursor.peekKey()) ? feeCursor.next() : null;
+
+                addToSummary(esp, flixBus, fee);
+                compareAmounts(esp, flixBus, voucher);
+                compareFees(key, esp, flixBus, voucher, fee);
+            }
+        }
+
+        private static BookingKey min(BookingKey a, BookingKey b) {
+            if (a == null || b == null) {
+                return a == null ? b : a;
+            }
+            return a.compareTo(b) <= 0 ? a : b;
+        }
+
+        private void addToSummary(ESPRecord esp, FlixBusRecord flixBus, FeeRecord fee) {
+            if (esp != null) {
+                espAmount += esp.amount();
+                suplierMargin += esp.suplierMargin();
+                espTotalAmount += esp.getTotalAmount();
+            }
+            if (flixBus != null) {
+                flixBusCash += flixBus.cash();
+                commGross += flixBus.comm_gross();
+                flixBusTotalAmount += flixBus.totalAmount();
+            }
+            if (fee != null) {
+                flixBusTotalAmount += fee.getFeeAmount();
+            }
+        }
+
+        /**
+         * FlixBus records match first; a voucher record only matches an ESP record without a FlixBus record.
+         */
+        private void compareAmounts(ESPRecord esp, FlixBusRecord flixBus, VoucherFlixBusRecord voucher) throws IOException {
+            boolean espMatched = false;
+            if (flixBus != null) {
+                if (esp != null) {
+                    espMatched = true;
+                    if (ComparingFiles.hasDifferentPrice(esp, flixBus)) {
+                        flixBusPriceDifferences.add(new MatchedRecord(esp, flixBus));
+                    }
+                } else {
+                    unmatchedFlixBus.add(flixBus);
+                }
+            } else if (voucher != null && esp != null) {
+                espMatched = true;
+                if (ComparingFiles.hasDifferentPrice(esp, voucher)) {
+                    voucherPriceDifferences.add(new MatchedRecord(esp, voucher));
+                }
+            }
+            if (esp != null && !espMatched) {
+                unmatchedESP.add(esp);
+            }
+        }
+
+        private void compareFees(BookingKey key, ESPRecord esp, FlixBusRecord flixBus, VoucherFlixBusRecord voucher, FeeRecord fee) throws IOException {
+            if (fee != null) {
+                if (esp != null) {
+                    anyFeeMatched = true;
+                    if (esp.serviceFee() != fee.getFeeAmount()) {
+                        feeDifferences.add(new MatchedRecord(esp, fee));
+                    }
+                } else {
+                    unmatchedFees.add(fee);
+                }
+            } else if (esp != null) {
+                unmatchedESPFees.add(esp);
+            }
+
+            // Vouchers only take part in the fallback if they have an ESP record, as in ComparingFiles
+            if (fee != null || flixBus != null || (voucher != null && esp != null)) {
+                FeeRecord fallbackFee = new FeeRecord(key.text(), key, fee != null ? fee.getFeeAmount() : 0);
+                if (esp != null) {
+                    if (esp.serviceFee() != fallbackFee.getFeeAmount()) {
+                        fallbackFeeDifferences.add(new MatchedRecord(esp, fallbackFee));
+                    }
+                } else {
+                    fallbackUnmatchedFees.add(fallbackFee);
+                }
+            } else if (esp != null) {
+                fallbackUnmatchedESPFees.add(esp);
+            }
+        }
+
+        void writeReport(ReportSink report) throws IOException {
+            report.summary(new ReconciliationResult.Summary(espAmount, suplierMargin, espTotalAmount,
+                    flixBusCash, commGross, flixBusTotalAmount));
+
+            report.startSection(ReportSink.Section.PRICE_DIFFERENCES);
+            flixBusPriceDifferences.forEach(matched -> report.priceDifference(matched.espRecord(), (FlixBusRecord) matched.record()));
+            voucherPriceDifferences.forEach(matched -> report.priceDifference(matched.espRecord(), (VoucherFlixBusRecord) matched.record()));
+            report.endSection(ReportSink.Section.PRICE_DIFFERENCES);
+            writeSection(report, ReportSink.Section.UNMATCHED_FLIXBUS, unmatchedFlixBus, report::unmatchedFlixBusRecord);
+            writeSection(report, ReportSink.Section.UNMATCHED_ESP, unmatchedESP, report::unmatchedESPRecord);
+
+            report.startSection(ReportSink.Section.FEE_DIFFERENCES);
+            Section<MatchedRecord> differences = feeDifferences;
+            Section<FeeRecord> fees = unmatchedFees;
+            Section<ESPRecord> espFees = unmatchedESPFees;
+            if (!anyFeeMatched) {
+                report.feeFallback();
+                differences = fallbackFeeDifferences;
+                fees = fallbackUnmatchedFees;
+                espFees = fallbackUnmatchedESPFees;
+            }
+            differences.forEach(matched -> report.feeDifference(matched.espRecord(), (FeeRecord) matched.record()));
+            report.endSection(ReportSink.Section.FEE_DIFFERENCES);
+            writeSection(report, ReportSink.Section.UNMATCHED_FEES, fees, report::unmatchedFeeRecord);
+            writeSection(report, ReportSink.Section.UNMATCHED_ESP_FEES, espFees, report::unmatchedESPFeeRecord);
+        }
+
+        private static <E> void writeSection(ReportSink report, ReportSink.Section name, Section<E> section, EntryConsumer<E> rows) throws IOException {
+            report.startSection(name);
+            section.forEach(rows);
+            report.endSection(name);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Section<?> section : sections) {
+                section.close();
+            }
+        }
+    }
+
+    /**
+     * Serializes the entries of a report section.
+     */
+    private interface EntryFormat<E> {
+        void write(DataOutputStream out, E entry) throws IOException;
+
+        E read(DataInputStream in) throws IOException;
+
+        static <R> EntryFormat<R> of(ExternalSorter.Codec<R> codec) {
+            return new EntryFormat<>() {
+                @Override
+                public void write(DataOutputStream out, R entry) throws IOException {
+                    codec.write(out, entry);
+                }
+
+                @Override
+                public R read(DataInputStream in) throws IOException {
+                    return codec.read(in);
+                }
+            };
+        }
+
+        /**
+         * Writes an ESP record followed by the record of the given type that it was matched with.
+         */
+        static <R extends Record> EntryFormat<MatchedRecord> matched(ExternalSorter.Codec<R> codec, Class<R> type) {
+            return new EntryFormat<>() {
+                @Override
+                public void write(DataOutputStream out, MatchedRecord entry) throws IOException {
+                    ESP_CODEC.write(out, entry.espRecord());
+                    codec.write(out, type.cast(entry.record()));
+                }
+
+                @Override
+                public MatchedRecord read(DataInputStream in) throws IOException {
+                    ESPRecord espRecord = ESP_CODEC.read(in);
+                    return new MatchedRecord(espRecord, codec.read(in));
+                }
+            };
+        }
+    }
+
+    private interface EntryConsumer<E> {
+        void accept(E entry) throws IOException;
+    }
+
+    /**
+     * The rows of one report section, buffered in a temporary file until the report can be written in section order.
+     */
+    private static class Section<E> implements Closeable {
+        private final Path file;
+        private final EntryFormat<E> format;
+        private final DataOutputStream out;
+        private long size;
+
+        Section(Path directory, EntryFormat<E> format) throws IOException {
+            this.file = Files.createTempFile(directory, "section", ".rows");
+            this.format = format;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), SECTION_BUFFER_BYTES));
+        }
+
+        void add(E entry) throws IOException {
+            format.write(out, entry);
+            size++;
+        }
+
+        /**
+         * Reads the entries back in the order they were added.
+         */
+        void forEach(EntryConsumer<E> consumer) throws IOException {
+            out.flush();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), SECTION_BUFFER_BYTES))) {
+                for (long i = 0; i < size; i++) {
+                    consumer.accept(format.read(in));
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, BookingKey key) throws IOException {
+        out.writeLong(key.number());
+        if (!key.isNumeric()) {
+            out.writeUTF(key.text());
+        }
+    }
+
+    /**
+     * Returns the estimated heap bytes of a booking key and of the booking number text, if the key does not share it.
+     */
+    private static long keyBytes(BookingKey key, String bookingNumber) {
+        long bytes = 32 + ExternalSorter.stringBytes(bookingNumber);
+        return key.text() == bookingNumber ? bytes : bytes + ExternalSorter.stringBytes(key.text());
+    }
+
+    private static BookingKey readKey(DataInputStream in) throws IOException {
+        long number = in.readLong();
+        return number != BookingKey.NOT_NUMERIC ? new BookingKey(Long.toString(number), number) : new BookingKey(in.readUTF(), BookingKey.NOT_NUMERIC);
+    }
+
+    private static final ExternalSorter.Codec<ESPRecord> ESP_CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public BookingKey key(ESPRecord record) {
+            return record.bookingKey();
+        }
+
+        @Override
+        public ESPRecord combine(ESPRecord first, ESPRecord second) {
+            // Same sums as EspColumns.addAmounts
+            return new ESPRecord(first.serialNumber(), first.bookingKey(), first.amount() + second.amount(),
+                    first.suplierMargin() + second.suplierMargin(), first.suplierMargin() + second.suplierMargin());
+        }
+
+        @Override
+        public long size(ESPRecord record) {
+            return 48 + keyBytes(record.bookingKey(), record.serialNumber());
+        }
+
+        @Override
+        public void write(DataOutputStream out, ESPRecord record) throws IOException {
+            writeKey(out, record.bookingKey());
+            out.writeUTF(record.serialNumber());
+            out.writeLong(record.amount());
+            out.writeLong(record.serviceFee());
+            out.writeLong(record.suplierMargin());
+        }
+
+        @Override
+        public ESPRecord read(DataInputStream in) throws IOException {
+            BookingKey key = readKey(in);
+            String serialNumber = in.readUTF();
+            return new ESPRecord(serialNumber, key, in.readLong(), in.readLong(), in.readLong());
+        }
+    };
+
+    private static final ExternalSorter.Codec<FlixBusRecord> FLIXBUS_CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public BookingKey key(FlixBusRecord record) {
+            return record.bookingKey();
+        }
+
+        @Override
+        public FlixBusRecord combine(FlixBusRecord first, FlixBusRecord second) {
+            return new FlixBusRecord(first.bookingNumber(), first.bookingKey(), first.tripServices(), first.cash() + second.cash(),
+                    first.voucher() + second.voucher(), first.comm_gross() + second.comm_gross(), first.totalAmount() + second.totalAmount());
+        }
+
+        @Override
+        public long size(FlixBusRecord record) {
+            return 64 + keyBytes(record.bookingKey(), record.bookingNumber()) + ExternalSorter.stringBytes(record.tripServices());
+        }
+
+        @Override
+        public void write(DataOutputStream out, FlixBusRecord record) throws IOException {
+            writeKey(out, record.bookingKey());
+            out.writeUTF(record.bookingNumber());
+            out.writeUTF(record.tripServices());
+            out.writeLong(record.cash());
+            out.writeLong(record.voucher());
+            out.writeLong(record.comm_gross());
+            out.writeLong(record.totalAmount());
+        }
+
+        @Override
+        public FlixBusRecord read(DataInputStream in) throws IOException {
+            BookingKey key = readKey(in);
+            String bookingNumber = in.readUTF();
+            String tripServices = in.readUTF();
+            return new FlixBusRecord(bookingNumber, key, tripServices, in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+    };
+
+    private static final ExternalSorter.Codec<VoucherFlixBusRecord> VOUCHER_CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public BookingKey key(VoucherFlixBusRecord record) {
+            return record.bookingKey();
+        }
+
+        @Override
+        public VoucherFlixBusRecord combine(VoucherFlixBusRecord first, VoucherFlixBusRecord second) {
+            return new VoucherFlixBusRecord(first.bookingNumber(), first.bookingKey(), first.tripServices(), first.voucher() + second.voucher(),
+                    first.comm_gross() + second.comm_gross(), first.totalAmount() + second.totalAmount());
+        }
+
+        @Override
+        public long size(VoucherFlixBusRecord record) {
+            return 56 + keyBytes(record.bookingKey(), record.bookingNumber()) + ExternalSorter.stringBytes(record.tripServices());
+        }
+
+        @Override
+        public void write(DataOutputStream out, VoucherFlixBusRecord record) throws IOException {
+            writeKey(out, record.bookingKey());
+            out.writeUTF(record.bookingNumber());
+            out.writeUTF(record.tripServices());
+            out.writeLong(record.voucher());
+            out.writeLong(record.comm_gross());
+            out.writeLong(record.totalAmount());
+        }
+
+        @Override
+        public VoucherFlixBusRecord read(DataInputStream in) throws IOException {
+            BookingKey key = readKey(in);
+            String bookingNumber = in.readUTF();
+            String tripServices = in.readUTF();
+            return new VoucherFlixBusRecord(bookingNumber, key, tripServices, in.readLong(), in.readLong(), in.readLong());
+        }
+    };
+
+    private static final ExternalSorter.Codec<FeeRecord> FEE_CODEC = new ExternalSorter.Codec<>() {
+        @Override
+        public BookingKey key(FeeRecord record) {
+            return record.bookingKey();
+        }
+
+        @Override
+        public FeeRecord combine(FeeRecord first, FeeRecord second) {
+            return new FeeRecord(first.bookingNumber(), first.bookingKey(), first.getFeeAmount() + second.getFeeAmount());
+        }
+
+        @Override
+        public long size(FeeRecord record) {
+            return 32 + keyBytes(record.bookingKey(), record.bookingNumber());
+        }
+
+        @Override
+        public void write(DataOutputStream out, FeeRecord record) throws IOException {
+            writeKey(out, record.bookingKey());
+            out.writeUTF(record.bookingNumber());
+            out.writeLong(record.getFeeAmount());
+        }
+
+        @Override
+        public FeeRecord read(DataInputStream in) throws IOException {
+            BookingKey key = readKey(in);
+            return new FeeRecord(in.readUTF(), key, in.readLong());
+        }
+    };
+}
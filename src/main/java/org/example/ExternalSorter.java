@@ -0,0 +1,357 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The ExternalSorter class sorts records by booking key with a bounded amount of memory and combines records
+ * with the same key. Sorters are created by the {@link Budget} they share with other sorters. Records are buffered
+ * until the budget is used up, then the largest buffer is sorted and written to a spill file.
+ * Reading merges all spill files, so only one record per file is in memory at a time. Records with the same key
+ * are combined in input order, so the first record of a booking keeps its booking number, as in
+ * {@link CombinedColumns}.
+ *
+ * @param <R> The record type.
+ */
+public class ExternalSorter<R> implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int REFERENCE_BYTES = 8;
+
+    /**
+     * Describes how records of one type are keyed, combined and written to spill files.
+     */
+    public interface Codec<R> {
+        BookingKey key(R record);
+
+        /**
+         * Combines two records with the same key. The first record comes first in the input.
+         */
+        R combine(R first, R second);
+
+        /**
+         * Returns an estimate of the heap bytes a buffered record uses, including its strings.
+         */
+        long size(R record);
+
+        void write(DataOutputStream out, R record) throws IOException;
+
+        R read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * The number of heap bytes that the buffers of several sorters may use together. When an added record takes
+     * the buffers over the budget, the sorter with the largest buffer spills, so a sorter whose input has ended
+     * gives its memory to the sorters that are still filling. A budget is not thread safe.
+     */
+    public static final class Budget {
+        private final long bytes;
+        private final List<ExternalSorter<?>> sorters = new ArrayList<>();
+        private long used;
+
+        /**
+         * Creates a budget.
+         *
+         * @param bytes Heap bytes the buffered records of all sorters may use.
+         */
+        public Budget(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Creates a sorter whose buffer shares this budget.
+         *
+         * @param codec Keys, combines and serializes the records.
+         * @param maxOpenRuns Number of spill files merged at once. More spill files are merged in several passes.
+         * @param tempDirectory Directory for the spill files.
+         */
+        public <R> ExternalSorter<R> newSorter(Codec<R> codec, int maxOpenRuns, Path tempDirectory) {
+            ExternalSorter<R> sorter = new ExternalSorter<>(codec, this, maxOpenRuns, tempDirectory);
+            sorters.add(sorter);
+            return sorter;
+        }
+
+        private void use(long size) throws IOException {
+            used += size;
+            while (used > bytes) {
+                ExternalSorter<?> largest = null;
+                for (ExternalSorter<?> sorter : sorters) {
+                    if (largest == null || sorter.bufferedBytes > largest.bufferedBytes) {
+                        largest = sorter;
+                    }
+                }
+                if (largest == null || largest.bufferedBytes == 0) {
+                    return;
+                }
+                largest.spill();
+            }
+        }
+    }
+
+    private final Codec<R> codec;
+    private final Budget budget;
+    private final int maxOpenRuns;
+    private final Path tempDirectory;
+    private final List<R> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long bufferedBytes;
+
+    private ExternalSorter(Codec<R> codec, Budget budget, int maxOpenRuns, Path tempDirectory) {
+        this.codec = codec;
+        this.budget = budget;
+        this.maxOpenRuns = Math.max(2, maxOpenRuns);
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Adds a record, spilling buffers to disk if the budget is used up.
+     */
+    public void add(R record) throws IOException {
+        buffer.add(record);
+        long size = codec.size(record) + REFERENCE_BYTES;
+        bufferedBytes += size;
+        budget.use(size);
+    }
+
+    /**
+     * Finishes the input and returns the combined records in key order.
+     * If nothing was spilled, the records are sorted in memory.
+     *
+     * @return A cursor over one combined record per booking key.
+     * @throws IOException If a spill file cannot be written or read.
+     */
+    public Cursor<R> sorted() throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(Comparator.comparing(codec::key));
+            Iterator<R> records = buffer.iterator();
+            return new Cursor<>(codec, records::hasNext, records::next);
+        }
+        spill();
+        while (runs.size() > maxOpenRuns) {
+            List<Path> batch = new ArrayList<>(runs.subList(0, maxOpenRuns));
+            runs.subList(0, maxOpenRuns).clear();
+            Path merged = Files.createTempFile(tempDirectory, "merge", ".run");
+            try (RunMerger<R> merger = new RunMerger<>(codec, batch);
+                 DataOutputStream out = openRun(merged)) {
+                Cursor<R> cursor = new Cursor<>(codec, merger::hasNext, merger::next);
+                while (cursor.hasNext()) {
+                    codec.write(out, cursor.next());
+                }
+            }
+            for (Path run : batch) {
+                Files.deleteIfExists(run);
+            }
+            runs.add(0, merged); // Keep earlier input first, so combining stays in input order
+        }
+        RunMerger<R> merger = new RunMerger<>(codec, runs);
+        return new Cursor<>(codec, merger::hasNext, merger::next, merger);
+    }
+
+    /**
+     * Deletes all spill files.
+     */
+    @Override
+    public void close() throws IOException {
+        clearBuffer();
+        budget.sorters.remove(this);
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        buffer.sort(Comparator.comparing(codec::key)); // Stable, so equal keys stay in input order
+        Path run = Files.createTempFile(tempDirectory, "spill", ".run");
+        runs.add(run);
+        try (DataOutputStream out = openRun(run)) {
+            Iterator<R> records = buffer.iterator();
+            Cursor<R> cursor = new Cursor<>(codec, records::hasNext, records::next);
+            while (cursor.hasNext()) {
+                codec.write(out, cursor.next());
+            }
+        }
+        clearBuffer();
+    }
+
+    private void clearBuffer() {
+        buffer.clear();
+        budget.used -= bufferedBytes;
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Returns the number of heap bytes every merged spill file needs for its read buffer.
+     */
+    public static int runBufferBytes() {
+        return BUFFER_SIZE;
+    }
+
+    /**
+     * Returns an estimate of the heap bytes a string uses: object header, fields and the array, with one byte
+     * per character for Latin-1 text and two otherwise.
+     */
+    public static long stringBytes(String value) {
+        long characters = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                characters = 2L * value.length();
+                break;
+            }
+        }
+        return 40 + ((characters + 7) & ~7L);
+    }
+
+    private static DataOutputStream openRun(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE));
+    }
+
+    /**
+     * Supplies the next record of a sorted source.
+     */
+    private interface Source<R> {
+        R next() throws IOException;
+    }
+
+    private interface HasNext {
+        boolean hasNext() throws IOException;
+    }
+
+    /**
+     * Reads combined records in key order: consecutive records of the underlying sorted source that have the
+     * same key are returned as one record.
+     */
+    public static class Cursor<R> implements Closeable {
+        private final Codec<R> codec;
+        private final HasNext hasNext;
+        private final Source<R> source;
+        private final Closeable resource;
+        private R pending;
+
+        private Cursor(Codec<R> codec, HasNext hasNext, Source<R> source) {
+            this(codec, hasNext, source, null);
+        }
+
+        private Cursor(Codec<R> codec, HasNext hasNext, Source<R> source, Closeable resource) {
+            this.codec = codec;
+            this.hasNext = hasNext;
+            this.source = source;
+            this.resource = resource;
+        }
+
+        public boolean hasNext() throws IOException {
+            return pending != null || hasNext.hasNext();
+        }
+
+        /**
+         * Returns the key of the next record without consuming it, or null at the end.
+         */
+        public BookingKey peekKey() throws IOException {
+            if (pending == null && hasNext.hasNext()) {
+                pending = source.next();
+            }
+            return pending == null ? null : codec.key(pending);
+        }
+
+        public R next() throws IOException {
+            R record = pending != null ? pending : source.next();
+            pending = null;
+            BookingKey key = codec.key(record);
+            while (hasNext.hasNext()) {
+                R following = source.next();
+                if (!codec.key(following).equals(key)) {
+                    pending = following;
+                    break;
+                }
+                record = codec.combine(record, following);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+
+    /**
+     * Merges sorted spill files. Records with equal keys come out in the order of the files, so earlier input
+     * comes first.
+     */
+    private static class RunMerger<R> implements Closeable {
+        private final Codec<R> codec;
+        private final List<DataInputStream> inputs = new ArrayList<>();
+        private final PriorityQueue<Head<R>> heads;
+
+        private record Head<R>(R record, BookingKey key, int run) {
+        }
+
+        RunMerger(Codec<R> codec, List<Path> runs) throws IOException {
+            this.codec = codec;
+            this.heads = new PriorityQueue<>(Math.max(1, runs.size()),
+                    Comparator.<Head<R>, BookingKey>comparing(Head::key).thenComparingInt(Head::run));
+            try {
+                for (Path run : runs) {
+                    inputs.add(new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE)));
+                }
+                for (int run = 0; run < inputs.size(); run++) {
+                    advance(run);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        R next() throws IOException {
+            Head<R> head = heads.poll();
+            advance(head.run());
+            return head.record();
+        }
+
+        private void advance(int run) throws IOException {
+            R record;
+            try {
+                record = codec.read(inputs.get(run));
+            } catch (EOFException e) {
+                return;
+            }
+            heads.add(new Head<>(record, codec.key(record), run));
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (DataInputStream input : inputs) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Column store for FlixBus platform fee rows. Fee amounts are in cents.
+ */
+public class FeeColumns extends ColumnStore<FeeColumns> {
+    private long[] feeAmounts = new long[0];
+
+    public void add(FeeRecord record) {
+        int row = addRow(record.bookingNumber(), record.bookingKey());
+        feeAmounts[row] = record.getFeeAmount();
+    }
+
+    /**
+     * Appends a fee row for the booking of a row in any column store.
+     */
+    public void add(ColumnStore<?> booking, int bookingRow, long feeAmount) {
+        int row = addRow(booking, bookingRow);
+        feeAmounts[row] = feeAmount;
+    }
+
+    public long feeAmount(int row) {
+        return feeAmounts[row];
+    }
+
+    public FeeRecord toRecord(int row) {
+        return new FeeRecord(bookingNumber(row), bookingKey(row), feeAmounts[row]);
+    }
+
+    @Override
+    public int addCopy(FeeColumns other, int otherRow) {
+        int row = addRow(other, otherRow);
+        feeAmounts[row] = other.feeAmounts[otherRow];
+        return row;
+    }
+
+    @Override
+    public void addAmounts(int row, FeeColumns other, int otherRow) {
+        feeAmounts[row] += other.feeAmounts[otherRow];
+    }
+
+    @Override
+    protected void writeAmounts(DataOutput out, int row) throws IOException {
+        out.writeLong(feeAmounts[row]);
+    }
+
+    @Override
+    protected void readAmounts(DataInput in, int row, int[] stringIds) throws IOException {
+        feeAmounts[row] = in.readLong();
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        feeAmounts = Arrays.copyOf(feeAmounts, capacity);
+    }
+}
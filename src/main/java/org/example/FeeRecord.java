@@ -1,15 +1,24 @@
 package org.example;
 
+/**
+ * A platform fee row of the FlixBus export. The fee amount is in cents.
+ */
 public class FeeRecord implements Record {
     private final String bookingNumber;
-    private final double feeAmount;
+    private final BookingKey bookingKey;
+    private final long feeAmount;
 
-    public FeeRecord(String serialNumber, double feeAmount) {
+    public FeeRecord(String serialNumber, long feeAmount) {
+        this(serialNumber, BookingKey.of(serialNumber), feeAmount);
+    }
+
+    public FeeRecord(String serialNumber, BookingKey bookingKey, long feeAmount) {
         this.bookingNumber = serialNumber;
+        this.bookingKey = bookingKey;
         this.feeAmount = feeAmount;
     }
 
-    public double getFeeAmount() {
+    public long getFeeAmount() {
         return feeAmount;
     }
 
@@ -17,4 +26,9 @@ public class FeeRecord implements Record {
     public String bookingNumber() {
         return bookingNumber;
     }
+
+    @Override
+    public BookingKey bookingKey() {
+        return bookingKey;
+    }
 }
\ No newline at end of file
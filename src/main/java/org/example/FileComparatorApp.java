@@ -12,18 +12,30 @@ import javafx.stage.Stage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class FileComparatorApp extends Application {
     private static final Logger logger = Logger.getLogger(FileComparatorApp.class.getName());
+    private final ParsedInputCache inputCache = ParsedInputCache.defaultCache();
 
     private TextField file1PathField;
     private TextField file2PathField;
     private TextArea resultArea;
+    private ResultTables resultTables;
     private ProgressBar progressBar;
+    private Label statusLabel;
+    private Button compareButton;
+    private Button cancelButton;
+    private Button exportButton;
+    private volatile ReconciliationResult lastResult;
+    private volatile List<NearMatchFinder.Suggestion> lastSuggestions;
 
     public static void main(String[] args) {
         launch(args);
@@ -44,18 +56,30 @@ public class FileComparatorApp extends Application {
         Button file2Button = new Button("Browse...");
         file2Button.setOnAction(e -> chooseFile(file2PathField));
 
-        Button compareButton = new Button("Compare");
+        compareButton = new Button("Compare");
         compareButton.setOnAction(e -> compareFiles());
 
+        cancelButton = new Button("Cancel");
+        cancelButton.setDisable(true);
+
+        exportButton = new Button("Export...");
+        exportButton.setDisable(true);
+        exportButton.setOnAction(e -> exportReport(primaryStage));
+
         resultArea = new TextArea();
         resultArea.setEditable(false);
+        resultArea.setPrefRowCount(5);
+
+        resultTables = new ResultTables();
 
         progressBar = new ProgressBar();
         progressBar.setVisible(false);
+        statusLabel = new Label();
 
-        VBox vbox = new VBox(10, file1Label, file1PathField, file1Button, file2Label, file2PathField, file2Button, compareButton, progressBar, resultArea);
+        VBox vbox = new VBox(10, file1Label, file1PathField, file1Button, file2Label, file2PathField, file2Button, compareButton, cancelButton, exportButton,
+                progressBar, statusLabel, resultArea, resultTables.getView());
         vbox.setPrefSize(500, 600); // Set preferred size for VBox
-        VBox.setVgrow(resultArea, Priority.ALWAYS); // Allow TextArea to grow
+        VBox.setVgrow(resultTables.getView(), Priority.ALWAYS); // Allow the tables to grow
 
         Scene scene = new Scene(vbox, 900, 800); // Increase the size of the Scene
         scene.getStylesheets().add(Objects.requireNonNull(getClass().getResource("/styles.css")).toExternalForm()); // Apply CSS
@@ -64,70 +88,183 @@ public class FileComparatorApp extends Application {
         primaryStage.show();
     }
 
+    /**
+     * Lets the user pick one or more files, such as all daily ESP exports of a month, and lists their paths in the
+     * text field separated by the platform's path separator.
+     */
     private void chooseFile(TextField textField) {
         FileChooser fileChooser = new FileChooser();
-        File selectedFile = fileChooser.showOpenDialog(null);
-        if (selectedFile != null) {
-            textField.setText(selectedFile.getAbsolutePath());
+        List<File> selectedFiles = fileChooser.showOpenMultipleDialog(null);
+        if (selectedFiles != null && !selectedFiles.isEmpty()) {
+            textField.setText(selectedFiles.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator)));
+        }
+    }
+
+    /**
+     * Returns the paths listed in both file fields.
+     */
+    private List<String> filePaths() {
+        List<String> paths = new ArrayList<>();
+        for (TextField field : List.of(file1PathField, file2PathField)) {
+            for (String path : field.getText().split(Pattern.quote(File.pathSeparator))) {
+                if (!path.isBlank()) {
+                    paths.add(path.strip());
+                }
+            }
         }
+        return paths;
     }
 
     private void compareFiles() {
-        String file1Path = file1PathField.getText();
-        String file2Path = file2PathField.getText();
+        ComparisonTask task = new ComparisonTask(filePaths());
 
-        Task<Void> task = new Task<>() {
-            @Override
-            protected Void call() {
-                try {
-                    List<ESPRecord> espRecords = null;
-                    List<Record> flixbusRecords = null;
-                    List<Record> flixbusFeeRecords = null;
-                    List<Record> voucherFlixbusRecords = null;
-                    String fileType1 = FileProcessor.determineFileType(file1Path);
-                    String fileType2 = FileProcessor.determineFileType(file2Path);
-
-                    if ("CSV".equals(fileType1)) {
-                        espRecords = FileProcessor.readESPFile(file1Path);
-                    } else if ("EXCEL".equals(fileType1)) {
-                        voucherFlixbusRecords = FileProcessor.readFlixBusFile(file1Path);
-                        flixbusRecords = FileProcessor.readFlixBusFile(file1Path);
-                        flixbusFeeRecords = FileProcessor.readFlixBusFile(file1Path);
-                    }
+        lastResult = null;
+        lastSuggestions = null;
+        resultTables.clear();
+        exportButton.setDisable(true);
+        compareButton.setDisable(true);
+        cancelButton.setDisable(false);
+        cancelButton.setOnAction(e -> task.cancel());
+        progressBar.progressProperty().bind(task.progressProperty());
+        statusLabel.textProperty().bind(task.titleProperty());
+        task.setOnRunning(e -> progressBar.setVisible(true));
+        task.setOnSucceeded(e -> {
+            finishComparison();
+            resultArea.setText(task.getMessage());
+            if (lastResult != null) {
+                resultTables.show(lastResult, lastSuggestions);
+                exportButton.setDisable(false);
+            }
+        });
+        task.setOnFailed(e -> {
+            finishComparison();
+            resultArea.setText("An error occurred while comparing files.");
+        });
+        task.setOnCancelled(e -> {
+            finishComparison();
+            lastResult = null;
+            lastSuggestions = null;
+            resultTables.clear();
+            resultArea.setText("Comparison cancelled.");
+        });
 
-                    if ("CSV".equals(fileType2)) {
-                        espRecords = FileProcessor.readESPFile(file2Path);
-                    } else if ("EXCEL".equals(fileType2)) {
-                        voucherFlixbusRecords = FileProcessor.readFlixBusFile(file2Path);
-                        flixbusRecords = FileProcessor.readFlixBusFile(file2Path);
-                        flixbusFeeRecords = FileProcessor.readFlixBusFile(file2Path);
-                    }
+        new Thread(task).start();
+    }
+
+    private void finishComparison() {
+        progressBar.progressProperty().unbind();
+        progressBar.setVisible(false);
+        statusLabel.textProperty().unbind();
+        statusLabel.setText("");
+        compareButton.setDisable(false);
+        cancelButton.setDisable(true);
+    }
+
+    /**
+     * The ComparisonTask class reads all files and compares them in the background. Every stage reports its progress
+     * through a {@link ProgressToken}; the progress of the task is the average progress of all stages, and its title
+     * names the stage that reported last. Cancelling the task cancels the token, so the parsers and the comparison
+     * stop at their next checkpoint and drop the rows read so far.
+     */
+    private class ComparisonTask extends Task<Void> {
+        private final List<String> filePaths;
+        private final ProgressToken token = new ProgressToken(this::reportProgress);
+        private final double[] stageProgress = new double[ProgressToken.Stage.values().length];
 
-                    if (espRecords != null && flixbusRecords != null) {
-                        String comparisonResult = ComparingFiles.compareFiles(espRecords, flixbusRecords, flixbusFeeRecords, voucherFlixbusRecords);
-                        String serviceFeeResult = ComparingFiles.printServiceFee(espRecords, flixbusFeeRecords, flixbusRecords, voucherFlixbusRecords);
-                        updateMessage(comparisonResult + "\n" + serviceFeeResult);
-                    } else {
-                        updateMessage("Please provide one ESP CSV file and one FlixBus Excel file.");
+        ComparisonTask(List<String> filePaths) {
+            this.filePaths = filePaths;
+        }
+
+        @Override
+        protected Void call() {
+            try {
+                InputFiles inputFiles = FileProcessor.readInputFiles(filePaths, inputCache, token);
+
+                if (inputFiles.isComplete()) {
+                    ReconciliationResult reconciliation = new ComparingFiles().compare(inputFiles.espRecords(), inputFiles.flixBusRecords(), token);
+                    StringWriter summary = new StringWriter();
+                    try (ReportSink screen = new TextReportSink(summary)) {
+                        screen.summary(reconciliation.summary());
+                        if (reconciliation.feeFallback()) {
+                            screen.feeFallback();
+                        }
+                    }
+                    List<NearMatchFinder.Suggestion> suggestions = new NearMatchFinder().suggest(reconciliation, token);
+                    if (!isCancelled()) {
+                        lastSuggestions = suggestions;
+                        lastResult = reconciliation;
                     }
-                } catch (IOException e) {
+                    updateMessage(summary.toString());
+                    StageTimer.logSummary();
+                } else {
+                    updateMessage("Please provide at least one ESP CSV file and one FlixBus Excel file.");
+                }
+            } catch (IOException e) {
+                // Cancelling interrupts the task, which can close a file channel under a parser.
+                if (!isCancelled()) {
                     logger.log(Level.SEVERE, "An error occurred while comparing files.", e);
                     updateMessage("An error occurred while comparing files.");
                 }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            token.cancel();
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        private synchronized void reportProgress(ProgressToken.Stage stage, long done, long total) {
+            if (total > 0) {
+                stageProgress[stage.ordinal()] = Math.min(1.0, (double) done / total);
+            }
+            double sum = 0;
+            for (double progress : stageProgress) {
+                sum += progress;
+            }
+            updateProgress(sum, stageProgress.length);
+            updateTitle(total < 0
+                    ? String.format("%s: %,d %s", stage.description(), done, stage.unit())
+                    : String.format("%s: %,d of %,d %s", stage.description(), done, total, stage.unit()));
+        }
+    }
+
+    /**
+     * Writes the last comparison to a text, CSV or Excel file, chosen by the extension of the selected file.
+     */
+    private void exportReport(Stage owner) {
+        ReconciliationResult reconciliation = lastResult;
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Excel workbook", "*.xlsx"),
+                new FileChooser.ExtensionFilter("CSV file", "*.csv"),
+                new FileChooser.ExtensionFilter("Text file", "*.txt"));
+        File selectedFile = fileChooser.showSaveDialog(owner);
+        if (reconciliation == null || selectedFile == null) {
+            return;
+        }
+
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws IOException {
+                try (ReportSink sink = ReportSink.open(selectedFile.toPath())) {
+                    ComparingFiles.writeReport(reconciliation, sink);
+                }
                 return null;
             }
         };
-
-        task.setOnRunning(e -> progressBar.setVisible(true));
-        task.setOnSucceeded(e -> {
-            progressBar.setVisible(false);
-            resultArea.setText(task.getMessage());
+        task.setOnRunning(e -> {
+            progressBar.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+            progressBar.setVisible(true);
         });
+        task.setOnSucceeded(e -> progressBar.setVisible(false));
         task.setOnFailed(e -> {
             progressBar.setVisible(false);
-            resultArea.setText("An error occurred while comparing files.");
+            logger.log(Level.SEVERE, "Could not export the report to " + selectedFile, task.getException());
+            resultArea.appendText("\nCould not export the report to " + selectedFile + ".\n");
         });
 
         new Thread(task).start();
     }
-}
\ No newline at end of file
+}
@@ -1,132 +1,300 @@
 package org.example;
 
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class FileProcessor {
 
-    public static List<ESPRecord> readESPFile(String filePath) throws IOException {
-        try (Stream<String> lines = Files.lines(Paths.get(filePath), StandardCharsets.UTF_8)) {
-            Iterator<String> iterator = lines.iterator();
-            if (!iterator.hasNext()) {
-                return Collections.emptyList();
-            }
+    /**
+     * Parses files at the same time on virtual threads under a child of the caller's token, and waits for them in
+     * the order they finish. The first failure cancels the child token, so the other parsers stop at their next
+     * checkpoint instead of running to the end, and is the exception that is rethrown.
+     */
+    private static final class ParseGroup implements AutoCloseable {
+        private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        private final BlockingQueue<Future<?>> finished = new LinkedBlockingQueue<>();
+        private final ProgressToken token;
+        private int pending;
 
-            // Read the header row
-            String headerLine = iterator.next();
-            String[] headers = headerLine.split(";");
-            Map<String, Integer> headerMap = new HashMap<>();
-            for (int i = 0; i < headers.length; i++) {
-                headerMap.put(headers[i], i);
-            }
+        ParseGroup(ProgressToken token) {
+            this.token = token.child();
+        }
 
-            // Get the indices for the required columns
-            int serialNumberIndex = headerMap.get("Serial Number");
-            int amountIndex = headerMap.get("Amount");
-            int serviceFeeIndex = headerMap.get("Flixbus Service Fee");
-            int supplierMarginIndex = headerMap.get("Supplier Margin (Inc. Tax)");
-
-            // Process the remaining lines
-            List<ESPRecord> records = new ArrayList<>();
-            while (iterator.hasNext()) {
-                String line = iterator.next();
-                String[] parts = line.split(";");
-                if (parts.length > Math.max(serviceFeeIndex, supplierMarginIndex)) {
-                    double value = parts.length > serviceFeeIndex ? Double.parseDouble(parts[serviceFeeIndex]) : Double.parseDouble(parts[supplierMarginIndex]);
-                    records.add(new ESPRecord(parts[serialNumberIndex], Double.parseDouble(parts[amountIndex]), value, Double.parseDouble(parts[supplierMarginIndex])));
-                }
-            }
-            return records;
+        /**
+         * Returns the token the parses of this group must use.
+         */
+        ProgressToken token() {
+            return token;
         }
-    }
 
+        <T> Future<T> submit(Callable<T> parse) {
+            FutureTask<T> task = new FutureTask<>(parse) {
+                @Override
+                protected void done() {
+                    finished.add(this);
+                }
+            };
+            executor.execute(task);
+            pending++;
+            return task;
+        }
 
-    static List<Record> readFlixBusFile(String filePath) throws IOException {
-        List<Record> records = new ArrayList<>();
-        try (FileInputStream fis = new FileInputStream(filePath);
-             Workbook workbook = new XSSFWorkbook(fis)) {
-            Sheet sheet = workbook.getSheetAt(0);
-            for (Row row : sheet) {
-                if (row.getRowNum() == 0 || containsTotal(row)) { // Skip header and total rows
-                    continue;
+        /**
+         * Waits until every parse has finished, in completion order.
+         *
+         * @throws IOException The first failure of a parse.
+         */
+        void awaitAll() throws IOException {
+            try {
+                for (; pending > 0; pending--) {
+                    join(finished.take());
                 }
-                Record record = parseFlixBusRow(row);
-                records.add(record);
+            } catch (InterruptedException e) {
+                token.cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading input files");
+            } catch (IOException | RuntimeException e) {
+                token.cancel();
+                throw e;
             }
         }
+
+        /**
+         * Waits for the parses that are still running, which stop early once the group's token is cancelled.
+         */
+        @Override
+        public void close() {
+            executor.close();
+        }
+    }
+
+    public static EspColumns readESPFile(String filePath) throws IOException {
+        return readESPFile(filePath, true, ProgressToken.NONE);
+    }
+
+    public static EspColumns readESPFile(String filePath, boolean parallel) throws IOException {
+        return readESPFile(filePath, parallel, ProgressToken.NONE);
+    }
+
+    public static EspColumns readESPFile(String filePath, ProgressToken token) throws IOException {
+        return readESPFile(filePath, true, token);
+    }
+
+    private static EspColumns readESPFile(String filePath, boolean parallel, ProgressToken token) throws IOException {
+        Path path = Paths.get(filePath);
+        StageTimer timer = StageTimer.start(StageTimer.Stage.READ_ESP);
+        EspColumns records = EspCsvParser.parse(path, parallel, token);
+        timer.stop(records.size(), path);
         return records;
     }
 
-    private static boolean containsTotal(Row row) {
-        for (Cell cell : row) {
-            if (getCellValue(cell).contains("Total")|| getCellValue(cell).contains("Summe")) {
-                return true;
-            }
-        }
-        return false;
+    static FlixBusRecordSet readFlixBusFile(String filePath) throws IOException {
+        return readFlixBusFile(filePath, ProgressToken.NONE);
     }
 
-    private static Record parseFlixBusRow(Row row) {
-        String bookingNumber = getCellValue(row.getCell(3));
-        String tripServices = getCellValue(row.getCell(10));
-        String totalAmountStr = getCellValue(row.getCell(14));
-        String cashStr = getCellValue(row.getCell(14));
-        String voucherStr = getCellValue(row.getCell(15));
-        String comGrossStr = getCellValue(row.getCell(16));
+    static FlixBusRecordSet readFlixBusFile(String filePath, ProgressToken token) throws IOException {
+        StageTimer timer = StageTimer.start(StageTimer.Stage.READ_FLIXBUS);
+        FlixBusRecordSet records = new FlixBusRecordSet();
+        FlixBusSheetReader.read(filePath, records, token);
+        timer.stop(records.size(), Paths.get(filePath));
+        return records;
+    }
 
+    /**
+     * Reads one ESP CSV file and one FlixBus Excel file, given in either order.
+     * The two files are parsed at the same time on virtual threads, so the load takes about as long as the slower parse.
+     * If a type is given twice, the later file is used.
+     *
+     * @param file1Path Path to the first file.
+     * @param file2Path Path to the second file.
+     * @return The parsed files. A side is null if no file of that type was given.
+     * @throws IOException If either file cannot be read. A failure of one parse cancels the other.
+     */
+    public static InputFiles readInputFiles(String file1Path, String file2Path) throws IOException {
+        return readInputFiles(file1Path, file2Path, null);
+    }
 
+    /**
+     * Reads one ESP CSV file and one FlixBus Excel file concurrently, like {@link #readInputFiles(String, String)},
+     * taking the rows of unchanged files from the cache.
+     *
+     * @param file1Path Path to the first file.
+     * @param file2Path Path to the second file.
+     * @param cache The parsed-input cache, or null to always parse.
+     * @return The parsed files. A side is null if no file of that type was given.
+     * @throws IOException If either file cannot be read.
+     */
+    public static InputFiles readInputFiles(String file1Path, String file2Path, ParsedInputCache cache) throws IOException {
+        return readInputFiles(file1Path, file2Path, cache, ProgressToken.NONE);
+    }
 
-        double totalAmount = totalAmountStr.isEmpty() ? 0.0 : Double.parseDouble(totalAmountStr);
-        double cash = cashStr.isEmpty() ? 0.0 : Double.parseDouble(cashStr);
-        double voucher = voucherStr.isEmpty() ? 0.0 : Double.parseDouble(voucherStr);
-        double comGross = comGrossStr.isEmpty() ? 0.0 : Double.parseDouble(comGrossStr);
+    /**
+     * Reads one ESP CSV file and one FlixBus Excel file concurrently, like {@link #readInputFiles(String, String, ParsedInputCache)},
+     * reporting the progress of both parses to a token.
+     *
+     * @param file1Path Path to the first file.
+     * @param file2Path Path to the second file.
+     * @param cache The parsed-input cache, or null to always parse.
+     * @param token Receives progress and stops both parses when cancelled.
+     * @return The parsed files. A side is null if no file of that type was given.
+     * @throws IOException If either file cannot be read.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public static InputFiles readInputFiles(String file1Path, String file2Path, ParsedInputCache cache, ProgressToken token) throws IOException {
+        String espPath = null;
+        String flixBusPath = null;
+        for (String filePath : new String[]{file1Path, file2Path}) {
+            String fileType = determineFileType(filePath);
+            if ("CSV".equals(fileType)) {
+                espPath = filePath;
+            } else if ("EXCEL".equals(fileType)) {
+                flixBusPath = filePath;
+            }
+        }
+        return readPair(espPath, flixBusPath, cache, token);
+    }
 
-        if (cash == 0.0) {
-            return new VoucherFlixBusRecord(bookingNumber, tripServices, voucher, comGross, totalAmount);
+    /**
+     * Reads any number of ESP CSV files and FlixBus Excel files, given in any order, as if all ESP files were one file
+     * and all FlixBus files were one workbook. All files are parsed at the same time on virtual threads, and each file
+     * is combined per booking and sorted by booking key as soon as it is parsed, so its raw rows can be dropped. The
+     * files of each type are then combined with a k-way merge of the sorted files ({@link ColumnMerger}) instead of
+     * concatenating their rows first. With at most one file of each type this is {@link #readInputFiles(String, String,
+     * ParsedInputCache, ProgressToken)}.
+     *
+     * @param filePaths Paths to the files. Files of other types are ignored.
+     * @param cache The parsed-input cache, or null to always parse.
+     * @param token Receives progress and stops all parses when cancelled.
+     * @return The parsed files. A side is null if no file of that type was given.
+     * @throws IOException If any file cannot be read. A failure of one parse cancels the others.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public static InputFiles readInputFiles(List<String> filePaths, ParsedInputCache cache, ProgressToken token) throws IOException {
+        List<String> espPaths = new ArrayList<>();
+        List<String> flixBusPaths = new ArrayList<>();
+        for (String filePath : filePaths) {
+            String fileType = determineFileType(filePath);
+            if ("CSV".equals(fileType)) {
+                espPaths.add(filePath);
+            } else if ("EXCEL".equals(fileType)) {
+                flixBusPaths.add(filePath);
+            }
         }
-        if ("PlatformFee".equals(tripServices)) {
-            return new FeeRecord(bookingNumber, cash);
-        } else {
-            return new FlixBusRecord(bookingNumber, tripServices, cash, voucher, comGross, totalAmount);
+        if (espPaths.size() <= 1 && flixBusPaths.size() <= 1) {
+            return readPair(espPaths.isEmpty() ? null : espPaths.getFirst(), flixBusPaths.isEmpty() ? null : flixBusPaths.getFirst(), cache, token);
+        }
+
+        List<EspColumns> espFiles = new ArrayList<>();
+        List<FlixBusRecordSet> flixBusFiles = new ArrayList<>();
+        try (ParseGroup parses = new ParseGroup(token)) {
+            // Each stage reports the progress of all its files together
+            ProgressToken[] espTokens = parses.token().parts(espPaths.size());
+            ProgressToken[] flixBusTokens = parses.token().parts(flixBusPaths.size());
+            List<Future<EspColumns>> espParses = new ArrayList<>();
+            for (int i = 0; i < espPaths.size(); i++) {
+                String espPath = espPaths.get(i);
+                ProgressToken espToken = espTokens[i];
+                espParses.add(parses.submit(() -> ColumnMerger.combineSorted(readESP(espPath, cache, espToken), EspColumns::new)));
+            }
+            List<Future<FlixBusRecordSet>> flixBusParses = new ArrayList<>();
+            for (int i = 0; i < flixBusPaths.size(); i++) {
+                String flixBusPath = flixBusPaths.get(i);
+                ProgressToken flixBusToken = flixBusTokens[i];
+                flixBusParses.add(parses.submit(() -> {
+                    FlixBusRecordSet records = readFlixBus(flixBusPath, cache, flixBusToken);
+                    return new FlixBusRecordSet(ColumnMerger.combineSorted(records.flixBusRecords(), FlixBusColumns::new),
+                            ColumnMerger.combineSorted(records.voucherRecords(), VoucherColumns::new),
+                            ColumnMerger.combineSorted(records.feeRecords(), FeeColumns::new));
+                }));
+            }
+            parses.awaitAll();
+            espParses.forEach(parse -> espFiles.add(parse.resultNow()));
+            flixBusParses.forEach(parse -> flixBusFiles.add(parse.resultNow()));
         }
 
+        token.checkCancelled();
+        StageTimer timer = StageTimer.start(StageTimer.Stage.MERGE_FILES);
+        EspColumns espRecords = espFiles.isEmpty() ? null : ColumnMerger.merge(espFiles, new EspColumns());
+        FlixBusRecordSet flixBusRecords = null;
+        if (!flixBusFiles.isEmpty()) {
+            List<FlixBusColumns> bookings = new ArrayList<>();
+            List<VoucherColumns> vouchers = new ArrayList<>();
+            List<FeeColumns> fees = new ArrayList<>();
+            for (FlixBusRecordSet file : flixBusFiles) {
+                bookings.add(file.flixBusRecords());
+                vouchers.add(file.voucherRecords());
+                fees.add(file.feeRecords());
+            }
+            flixBusRecords = new FlixBusRecordSet(ColumnMerger.merge(bookings, new FlixBusColumns()),
+                    ColumnMerger.merge(vouchers, new VoucherColumns()), ColumnMerger.merge(fees, new FeeColumns()));
+        }
+        timer.stop((espRecords == null ? 0 : espRecords.size()) + (flixBusRecords == null ? 0 : flixBusRecords.size()), 0);
+        return new InputFiles(espRecords, flixBusRecords);
     }
 
-    private static String getCellValue(Cell cell) {
-        if (cell == null) {
-            return "";
+    /**
+     * Parses one ESP file and one FlixBus file at the same time on virtual threads.
+     */
+    private static InputFiles readPair(String espPath, String flixBusPath, ParsedInputCache cache, ProgressToken token) throws IOException {
+        try (ParseGroup parses = new ParseGroup(token)) {
+            Future<EspColumns> espRecords = parses.submit(() -> espPath == null ? null : readESP(espPath, cache, parses.token()));
+            Future<FlixBusRecordSet> flixBusRecords = parses.submit(() -> flixBusPath == null ? null : readFlixBus(flixBusPath, cache, parses.token()));
+            parses.awaitAll();
+            return new InputFiles(espRecords.resultNow(), flixBusRecords.resultNow());
         }
-        switch (cell.getCellType()) {
-            case STRING:
-                return cell.getStringCellValue();
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue().toString();
-                } else {
-                    return String.valueOf(cell.getNumericCellValue());
-                }
-            case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                return cell.getCellFormula();
-            default:
-                return "";
+    }
+
+    private static EspColumns readESP(String filePath, ParsedInputCache cache, ProgressToken token) throws IOException {
+        return cache == null ? readESPFile(filePath, token) : cache.readESPFile(Paths.get(filePath), token);
+    }
+
+    private static FlixBusRecordSet readFlixBus(String filePath, ParsedInputCache cache, ProgressToken token) throws IOException {
+        return cache == null ? readFlixBusFile(filePath, token) : cache.readFlixBusFile(Paths.get(filePath), token);
+    }
+
+    /**
+     * Rethrows the failure of a finished parse as the exception the parser threw.
+     */
+    private static void join(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading input files");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Could not read input file", cause);
         }
     }
 
+    /**
+     * Returns the type of a file by its extension, in any case: "CSV" for ESP files, "EXCEL" for FlixBus workbooks,
+     * and "UNKNOWN" for anything else.
+     */
     public static String determineFileType(String filePath) {
-        if (filePath.endsWith(".csv")) {
+        String lowerCasePath = filePath.toLowerCase(Locale.ROOT);
+        if (lowerCasePath.endsWith(".csv")) {
             return "CSV";
-        } else if (filePath.endsWith(".xlsx")) {
+        } else if (lowerCasePath.endsWith(".xlsx")) {
             return "EXCEL";
         } else {
             return "UNKNOWN";
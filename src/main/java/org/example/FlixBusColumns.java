@@ -0,0 +1,96 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Column store for FlixBus booking rows. All amounts are in cents.
+ */
+public class FlixBusColumns extends ColumnStore<FlixBusColumns> {
+    private int[] tripServices = new int[0];
+    private long[] cash = new long[0];
+    private long[] vouchers = new long[0];
+    private long[] commGross = new long[0];
+    private long[] totalAmounts = new long[0];
+
+    public void add(FlixBusRecord record) {
+        int row = addRow(record.bookingNumber(), record.bookingKey());
+        tripServices[row] = strings.intern(record.tripServices());
+        cash[row] = record.cash();
+        vouchers[row] = record.voucher();
+        commGross[row] = record.comm_gross();
+        totalAmounts[row] = record.totalAmount();
+    }
+
+    public String tripServices(int row) {
+        return strings.get(tripServices[row]);
+    }
+
+    public long cash(int row) {
+        return cash[row];
+    }
+
+    public long voucher(int row) {
+        return vouchers[row];
+    }
+
+    public long commGross(int row) {
+        return commGross[row];
+    }
+
+    public long totalAmount(int row) {
+        return totalAmounts[row];
+    }
+
+    public FlixBusRecord toRecord(int row) {
+        return new FlixBusRecord(bookingNumber(row), bookingKey(row), tripServices(row), cash[row], vouchers[row], commGross[row], totalAmounts[row]);
+    }
+
+    @Override
+    public int addCopy(FlixBusColumns other, int otherRow) {
+        int row = addRow(other, otherRow);
+        tripServices[row] = strings.intern(other.tripServices(otherRow));
+        cash[row] = other.cash[otherRow];
+        vouchers[row] = other.vouchers[otherRow];
+        commGross[row] = other.commGross[otherRow];
+        totalAmounts[row] = other.totalAmounts[otherRow];
+        return row;
+    }
+
+    @Override
+    public void addAmounts(int row, FlixBusColumns other, int otherRow) {
+        cash[row] += other.cash[otherRow];
+        vouchers[row] += other.vouchers[otherRow];
+        commGross[row] += other.commGross[otherRow];
+        totalAmounts[row] += other.totalAmounts[otherRow];
+    }
+
+    @Override
+    protected void writeAmounts(DataOutput out, int row) throws IOException {
+        out.writeInt(tripServices[row]);
+        out.writeLong(cash[row]);
+        out.writeLong(vouchers[row]);
+        out.writeLong(commGross[row]);
+        out.writeLong(totalAmounts[row]);
+    }
+
+    @Override
+    protected void readAmounts(DataInput in, int row, int[] stringIds) throws IOException {
+        tripServices[row] = stringIds[in.readInt()];
+        cash[row] = in.readLong();
+        vouchers[row] = in.readLong();
+        commGross[row] = in.readLong();
+        totalAmounts[row] = in.readLong();
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        tripServices = Arrays.copyOf(tripServices, capacity);
+        cash = Arrays.copyOf(cash, capacity);
+        vouchers = Arrays.copyOf(vouchers, capacity);
+        commGross = Arrays.copyOf(commGross, capacity);
+        totalAmounts = Arrays.copyOf(totalAmounts, capacity);
+    }
+}
@@ -1,7 +1,13 @@
 package org.example;
 
-public record FlixBusRecord(String bookingNumber, String tripServices, double cash, double voucher,
-                            double comm_gross, double totalAmount) implements Record {
+/**
+ * A booking row of the FlixBus export. All amounts are in cents.
+ */
+public record FlixBusRecord(String bookingNumber, BookingKey bookingKey, String tripServices, long cash, long voucher,
+                            long comm_gross, long totalAmount) implements Record {
     // Constructor
-
-}
\ No newline at end of file
+    public FlixBusRecord(String bookingNumber, String tripServices, long cash, long voucher,
+                         long comm_gross, long totalAmount) {
+        this(bookingNumber, BookingKey.of(bookingNumber), tripServices, cash, voucher, comm_gross, totalAmount);
+    }
+}
@@ -0,0 +1,62 @@
+package org.example;
+
+import java.util.function.Consumer;
+
+/**
+ * The FlixBusRecordSet class holds the rows of one FlixBus workbook, partitioned by record type
+ * while the workbook is read, so that a single parse serves every comparison.
+ * Rows are kept in column stores rather than as record objects.
+ */
+public class FlixBusRecordSet implements Consumer<Record> {
+    private final FlixBusColumns flixBusRecords;
+    private final VoucherColumns voucherRecords;
+    private final FeeColumns feeRecords;
+
+    public FlixBusRecordSet() {
+        this(new FlixBusColumns(), new VoucherColumns(), new FeeColumns());
+    }
+
+    /**
+     * Creates a set over existing stores, such as the merged rows of several workbooks.
+     */
+    public FlixBusRecordSet(FlixBusColumns flixBusRecords, VoucherColumns voucherRecords, FeeColumns feeRecords) {
+        this.flixBusRecords = flixBusRecords;
+        this.voucherRecords = voucherRecords;
+        this.feeRecords = feeRecords;
+    }
+
+    /**
+     * Adds a parsed row to the store for its type.
+     *
+     * @param record A FlixBusRecord, VoucherFlixBusRecord or FeeRecord.
+     */
+    @Override
+    public void accept(Record record) {
+        if (record instanceof FlixBusRecord flixBusRecord) {
+            flixBusRecords.add(flixBusRecord);
+        } else if (record instanceof VoucherFlixBusRecord voucherRecord) {
+            voucherRecords.add(voucherRecord);
+        } else if (record instanceof FeeRecord feeRecord) {
+            feeRecords.add(feeRecord);
+        }
+    }
+
+    /**
+     * Returns the number of rows of all types.
+     */
+    public int size() {
+        return flixBusRecords.size() + voucherRecords.size() + feeRecords.size();
+    }
+
+    public FlixBusColumns flixBusRecords() {
+        return flixBusRecords;
+    }
+
+    public VoucherColumns voucherRecords() {
+        return voucherRecords;
+    }
+
+    public FeeColumns feeRecords() {
+        return feeRecords;
+    }
+}
@@ -0,0 +1,794 @@
+package org.example;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * The FlixBusSheetReader class streams the first sheet of a FlixBus workbook through POI's event model.
+ * Rows are parsed with a SAX handler and handed to the caller one at a time, and the shared strings are spilled to
+ * a temporary file by default, so memory use does not depend on the size of the sheet. Columns are found by the
+ * names in the header row.
+ */
+public class FlixBusSheetReader {
+    private static final Logger logger = Logger.getLogger(FlixBusSheetReader.class.getName());
+    private static final int PROGRESS_ROWS = 4096;
+
+    /**
+     * Reads the first sheet of the given workbook and passes every data row to the consumer.
+     * The header row and rows containing "Total" or "Summe" are skipped.
+     *
+     * @param filePath Path to the FlixBus .xlsx file.
+     * @param consumer Receives a FlixBusRecord, VoucherFlixBusRecord or FeeRecord for each data row.
+     * @throws IOException If the file cannot be opened or is not a valid workbook.
+     */
+    public static void read(String filePath, Consumer<Record> consumer) throws IOException {
+        read(filePath, consumer, ProgressToken.NONE);
+    }
+
+    /**
+     * Reads the first sheet of the given workbook like {@link #read(String, Consumer)}, reporting the rows read so far
+     * to a progress token. The total is taken from the sheet's dimension, if the workbook records one. The shared
+     * strings are spilled to the default temporary directory.
+     *
+     * @param filePath Path to the FlixBus .xlsx file.
+     * @param consumer Receives a FlixBusRecord, VoucherFlixBusRecord or FeeRecord for each data row.
+     * @param token Receives progress and stops the read when cancelled.
+     * @throws IOException If the file cannot be opened or is not a valid workbook.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public static void read(String filePath, Consumer<Record> consumer, ProgressToken token) throws IOException {
+        read(filePath, consumer, token, Path.of(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Reads the first sheet of the given workbook like {@link #read(String, Consumer, ProgressToken)}, keeping the
+     * shared strings of the workbook in a file instead of the heap if a spill directory is given. Every booking number
+     * of a sheet is usually a shared string, so this keeps the memory use of a read independent of the sheet size.
+     *
+     * @param filePath Path to the FlixBus .xlsx file.
+     * @param consumer Receives a FlixBusRecord, VoucherFlixBusRecord or FeeRecord for each data row.
+     * @param token Receives progress and stops the read when cancelled.
+     * @param spillDirectory Directory for the shared strings file, which is deleted before this method returns,
+     *                       or null to hold the shared strings in memory.
+     * @throws IOException If the file cannot be opened, is not a valid workbook or the shared strings cannot be spilled.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public static void read(String filePath, Consumer<Record> consumer, ProgressToken token, Path spillDirectory) throws IOException {
+        token.checkCancelled();
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(filePath, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Could not open FlixBus workbook " + filePath, e);
+        }
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            try (SharedStrings strings = spillDirectory == null ? new HeapSharedStrings(pkg) : SpilledSharedStrings.spill(pkg, spillDirectory);
+                 InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                SheetHandler handler = new SheetHandler(strings, reader.getStylesTable(), consumer, token);
+                parser.setContentHandler(handler);
+                parser.parse(new InputSource(sheet));
+                handler.finish();
+            }
+        } catch (SAXException e) {
+            if (e.getException() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException("Could not read FlixBus workbook " + filePath, e);
+        } catch (OpenXML4JException | ParserConfigurationException e) {
+            throw new IOException("Could not read FlixBus workbook " + filePath, e);
+        } finally {
+            pkg.revert(); // Read-only package, nothing to save
+        }
+    }
+
+    /**
+     * Converts a cell reference such as "AB12" into a zero-based column index.
+     */
+    private static int columnIndex(String cellReference) {
+        int column = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    /**
+     * Returns the last row number of a dimension reference such as "A1:Q1234", or -1 if it has none.
+     */
+    private static long lastRow(String reference) {
+        if (reference == null) {
+            return -1;
+        }
+        int start = reference.lastIndexOf(':') + 1;
+        while (start < reference.length() && !Character.isDigit(reference.charAt(start))) {
+            start++;
+        }
+        try {
+            return Long.parseLong(reference.substring(start));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the stored text of a numeric cell into cents. Excel stores some values with 17 significant digits,
+     * such as "0.10500000000000001"; those are rounded through a double first, like a spreadsheet displays them,
+     * so that only the common short values skip the double.
+     */
+    private static long numericCents(CharSequence value) {
+        int dot = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '.') {
+                dot = i;
+            } else if (c == 'E' || c == 'e') {
+                return Money.parseCents(String.valueOf(Double.parseDouble(value.toString())));
+            }
+        }
+        if (dot >= 0 && value.length() - dot - 1 > 3) {
+            return Money.parseCents(String.valueOf(Double.parseDouble(value.toString())));
+        }
+        return Money.parseCents(value);
+    }
+
+    private static long textCents(String value) {
+        return value.isEmpty() ? 0 : Money.parseCents(value);
+    }
+
+    private static boolean isTotalLabel(String value) {
+        return value.contains("Total") || value.contains("Summe");
+    }
+
+    /**
+     * Removes everything but letters and digits and lowercases the rest, so "Comm. Gross" matches "comm gross".
+     */
+    private static String normalize(String header) {
+        StringBuilder name = new StringBuilder(header.length());
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                name.append(Character.toLowerCase(c));
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * The values a FlixBus row is decoded into, with the header names they are found by and the column they were
+     * read from before the reader resolved headers, which remains the fallback.
+     */
+    private enum Field {
+        BOOKING_NUMBER(3, "Booking Number", "Booking No"),
+        TRIP_SERVICES(10, "Trip Services", "Trip Service"),
+        CASH(14, "Cash"),
+        VOUCHER(15, "Voucher"),
+        COMM_GROSS(16, "Comm Gross", "Commission Gross");
+
+        private final int defaultColumn;
+        private final String[] names;
+
+        Field(int defaultColumn, String... names) {
+            this.defaultColumn = defaultColumn;
+            this.names = names;
+        }
+    }
+
+    /**
+     * Maps columns to fields, resolved from the header row once per sheet.
+     */
+    private static final class Columns {
+        static final Columns DEFAULT = new Columns(defaultColumns());
+
+        private final int[] fieldByColumn;
+
+        private Columns(int[] columnByField) {
+            int last = 0;
+            for (int column : columnByField) {
+                last = Math.max(last, column);
+            }
+            fieldByColumn = new int[last + 1];
+            Arrays.fill(fieldByColumn, -1);
+            for (Field field : Field.values()) {
+                int column = columnByField[field.ordinal()];
+                if (column >= 0) {
+                    fieldByColumn[column] = field.ordinal();
+                }
+            }
+        }
+
+        /**
+         * Resolves the fields from the names of a header row. A field whose name is not found keeps its
+         * default column, unless the header gives that column to another field; then the field is not read.
+         *
+         * @param headers The text of the header cells by column; null for empty cells.
+         */
+        static Columns resolve(List<String> headers) {
+            int[] columnByField = defaultColumns();
+            boolean[] found = new boolean[columnByField.length];
+            for (int column = 0; column < headers.size(); column++) {
+                String header = headers.get(column);
+                if (header == null) {
+                    continue;
+                }
+                String name = normalize(header);
+                for (Field field : Field.values()) {
+                    if (!found[field.ordinal()] && matches(field, name)) {
+                        columnByField[field.ordinal()] = column;
+                        found[field.ordinal()] = true;
+                        break;
+                    }
+                }
+            }
+            StringBuilder missing = new StringBuilder();
+            for (Field field : Field.values()) {
+                if (!found[field.ordinal()]) {
+                    missing.append(missing.isEmpty() ? "" : ", ").append('\'').append(field.names[0]).append("' (column ")
+                            .append(field.defaultColumn + 1).append(')');
+                }
+            }
+            if (!missing.isEmpty()) {
+                logger.warning("FlixBus header has no column named " + missing + ", using the default columns");
+            }
+            for (Field field : Field.values()) {
+                for (Field other : Field.values()) {
+                    if (!found[field.ordinal()] && found[other.ordinal()] && columnByField[other.ordinal()] == field.defaultColumn) {
+                        logger.warning("FlixBus column " + (field.defaultColumn + 1) + " is named '" + other.names[0] + "', so no column is read as '"
+                                + field.names[0] + "'");
+                        columnByField[field.ordinal()] = -1;
+                    }
+                }
+            }
+            return new Columns(columnByField);
+        }
+
+        int field(int column) {
+            return column >= 0 && column < fieldByColumn.length ? fieldByColumn[column] : -1;
+        }
+
+        private static boolean matches(Field field, String name) {
+            for (String candidate : field.names) {
+                if (normalize(candidate).equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int[] defaultColumns() {
+            int[] columns = new int[Field.values().length];
+            for (Field field : Field.values()) {
+                columns[field.ordinal()] = field.defaultColumn;
+            }
+            return columns;
+        }
+    }
+
+    /**
+     * Decodes the sheet XML into records. Columns are resolved from the header row, and afterwards only the cells
+     * of the decoded columns are read: numeric amount cells are parsed from their stored text straight into cents,
+     * other numeric cells are formatted with the number or date format of their style, and shared strings are only
+     * looked up for text columns. A row counts as a total row if one of its text cells
+     * contains "Total" or "Summe"; numeric cells cannot, and the check is done once per shared string.
+     */
+    private static class SheetHandler extends DefaultHandler {
+        private static final int HEADER = -2;
+
+        private final SharedStrings strings;
+        private final StylesTable styles;
+        private final DataFormatter formatter = new DataFormatter();
+        private final Consumer<Record> consumer;
+        private final ProgressToken token;
+        private final StringBuilder value = new StringBuilder(32);
+        private final List<String> headers = new ArrayList<>();
+        private Columns columns = Columns.DEFAULT;
+        private long rowsRead;
+        private long expectedRows = -1;
+
+        private int rowNum = -1;
+        private int lastColumn;
+        private boolean totalRow;
+        private String bookingNumber;
+        private String tripServices;
+        private long cash;
+        private long voucher;
+        private long commGross;
+
+        private int field;
+        private CellType cellType;
+        private int style;
+        private boolean capturing;
+        private boolean hasValue;
+
+        /**
+         * @param styles The styles of the workbook, or null if it has none.
+         */
+        SheetHandler(SharedStrings strings, StylesTable styles, Consumer<Record> consumer, ProgressToken token) {
+            this.strings = strings;
+            this.styles = styles;
+            this.consumer = consumer;
+            this.token = token;
+        }
+
+        void finish() {
+            token.advance(ProgressToken.Stage.READING_FLIXBUS, rowsRead, rowsRead);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "dimension" -> expectedRows = lastRow(attributes.getValue("ref"));
+                case "row" -> startRow(attributes.getValue("r"));
+                case "c" -> startCell(attributes.getValue("r"), attributes.getValue("t"), attributes.getValue("s"));
+                case "v", "t" -> capturing = wanted();
+                default -> {
+                }
+            }
+            if (capturing && !hasValue) {
+                value.setLength(0);
+                hasValue = true;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (capturing) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v", "t" -> capturing = false;
+                case "c" -> {
+                    if (hasValue) {
+                        endCell();
+                    }
+                }
+                case "row" -> endRow();
+                default -> {
+                }
+            }
+        }
+
+        private void startRow(String reference) {
+            rowNum = reference == null ? rowNum + 1 : Integer.parseInt(reference) - 1;
+            lastColumn = -1;
+            totalRow = false;
+            bookingNumber = "";
+            tripServices = "";
+            cash = 0;
+            voucher = 0;
+            commGross = 0;
+        }
+
+        private void startCell(String reference, String type, String styleIndex) {
+            int column = reference == null ? lastColumn + 1 : columnIndex(reference);
+            lastColumn = column;
+            cellType = CellType.of(type);
+            style = styleIndex == null ? 0 : Integer.parseInt(styleIndex);
+            field = rowNum == 0 ? HEADER : columns.field(column);
+            capturing = false;
+            hasValue = false;
+            if (rowNum == 0) {
+                while (headers.size() <= column) {
+                    headers.add(null);
+                }
+            }
+        }
+
+        /**
+         * Returns whether the value of the current cell is needed: header cells, cells of decoded columns,
+         * and text cells, which can mark a total row.
+         */
+        private boolean wanted() {
+            return field != -1 || cellType != CellType.NUMBER;
+        }
+
+        private void endCell() throws SAXException {
+            if (cellType == CellType.NUMBER) {
+                if (field == Field.CASH.ordinal()) {
+                    cash = numericCents(value);
+                } else if (field == Field.VOUCHER.ordinal()) {
+                    voucher = numericCents(value);
+                } else if (field == Field.COMM_GROSS.ordinal()) {
+                    commGross = numericCents(value);
+                } else if (field >= 0) {
+                    setText(formatNumber(Double.parseDouble(value.toString())));
+                }
+                return;
+            }
+
+            String text;
+            if (cellType == CellType.SHARED_STRING) {
+                int index = Integer.parseInt(value, 0, value.length(), 10);
+                try {
+                    if (field == -1) {
+                        totalRow |= strings.isTotal(index);
+                        return;
+                    }
+                    text = strings.get(index);
+                } catch (IOException e) {
+                    throw new SAXException(e);
+                }
+            } else {
+                text = cellType.text(value.toString());
+            }
+            if (field == HEADER) {
+                headers.set(lastColumn, text);
+                return;
+            }
+            totalRow |= isTotalLabel(text);
+            if (field >= 0) {
+                setText(text);
+            }
+        }
+
+        /**
+         * Formats a numeric cell with the format of its style, like a spreadsheet displays it, so a booking number
+         * reads "12345" instead of "12345.0" and a date cell reads as a date. Cells without a style use the general
+         * format.
+         */
+        private String formatNumber(double number) {
+            XSSFCellStyle cellStyle = styles == null || style >= styles.getNumCellStyles() ? null : styles.getStyleAt(style);
+            int formatIndex = cellStyle == null ? 0 : cellStyle.getDataFormat();
+            String formatString = cellStyle == null ? null : cellStyle.getDataFormatString();
+            if (formatString == null) {
+                formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+            }
+            return formatter.formatRawCellContents(number, formatIndex, formatString == null ? "General" : formatString);
+        }
+
+        /**
+         * Stores the text of a decoded cell. Amounts stored as text are parsed like numeric cells.
+         */
+        private void setText(String text) {
+            if (field == Field.BOOKING_NUMBER.ordinal()) {
+                bookingNumber = text;
+            } else if (field == Field.TRIP_SERVICES.ordinal()) {
+                tripServices = text;
+            } else if (field == Field.CASH.ordinal()) {
+                cash = textCents(text);
+            } else if (field == Field.VOUCHER.ordinal()) {
+                voucher = textCents(text);
+            } else if (field == Field.COMM_GROSS.ordinal()) {
+                commGross = textCents(text);
+            }
+        }
+
+        private void endRow() {
+            if (++rowsRead % PROGRESS_ROWS == 0) {
+                token.advance(ProgressToken.Stage.READING_FLIXBUS, rowsRead, expectedRows < 0 ? -1 : Math.max(expectedRows, rowsRead));
+            }
+            if (rowNum == 0) {
+                columns = Columns.resolve(headers);
+                return;
+            }
+            if (totalRow) { // Skip total rows
+                return;
+            }
+            consumer.accept(toRecord());
+        }
+
+        /**
+         * Converts the decoded row into the matching record type.
+         * Rows without cash are vouchers, "PlatformFee" rows are fees, everything else is a regular booking.
+         */
+        private Record toRecord() {
+            if (cash == 0) {
+                return new VoucherFlixBusRecord(bookingNumber, tripServices, voucher, commGross, cash);
+            }
+            if ("PlatformFee".equals(tripServices)) {
+                return new FeeRecord(bookingNumber, cash);
+            } else {
+                return new FlixBusRecord(bookingNumber, tripServices, cash, voucher, commGross, cash);
+            }
+        }
+    }
+
+    /**
+     * The shared strings table of a workbook, looked up by index.
+     */
+    private interface SharedStrings extends Closeable {
+        String get(int index) throws IOException;
+
+        /**
+         * Returns whether a shared string marks a total row.
+         */
+        boolean isTotal(int index) throws IOException;
+    }
+
+    /**
+     * Holds the shared strings in POI's read-only table. Whether a string marks a total row is checked once per string.
+     */
+    private static final class HeapSharedStrings implements SharedStrings {
+        private static final byte UNCHECKED = 0;
+        private static final byte PLAIN = 1;
+        private static final byte TOTAL = 2;
+
+        private final ReadOnlySharedStringsTable strings;
+        private byte[] kinds = new byte[0];
+
+        HeapSharedStrings(OPCPackage pkg) throws IOException, SAXException {
+            this.strings = new ReadOnlySharedStringsTable(pkg);
+        }
+
+        @Override
+        public String get(int index) {
+            return strings.getItemAt(index).getString();
+        }
+
+        @Override
+        public boolean isTotal(int index) {
+            if (index >= kinds.length) {
+                kinds = Arrays.copyOf(kinds, Math.max(index + 1, kinds.length * 2));
+            }
+            if (kinds[index] == UNCHECKED) {
+                kinds[index] = isTotalLabel(get(index)) ? TOTAL : PLAIN;
+            }
+            return kinds[index] == TOTAL;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Keeps the shared strings in a temporary file: the UTF-8 text of every string, followed by the offset of
+     * each string as a long. The highest bit of an offset marks a string that contains a total label, so the total
+     * row check only reads the offsets. Recently used strings are kept in a small cache, which holds the few
+     * strings that repeat on every row, such as the trip services.
+     */
+    private static final class SpilledSharedStrings implements SharedStrings {
+        private static final long TOTAL = Long.MIN_VALUE;
+        private static final int CACHE_SIZE = 4096;
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final Path file;
+        private final FileChannel channel;
+        private final long offsetsStart;
+        private final int count;
+        private final ByteBuffer entry = ByteBuffer.allocate(2 * Long.BYTES);
+        private final int[] cachedIndexes = new int[CACHE_SIZE];
+        private final String[] cachedStrings = new String[CACHE_SIZE];
+        private ByteBuffer text = ByteBuffer.allocate(256);
+
+        private SpilledSharedStrings(Path file, long offsetsStart, int count) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.offsetsStart = offsetsStart;
+            this.count = count;
+            Arrays.fill(cachedIndexes, -1);
+        }
+
+        /**
+         * Streams the shared strings part of a workbook into a file. Like POI's read-only table, the text of all runs
+         * of a string is joined, phonetic runs included.
+         */
+        static SpilledSharedStrings spill(OPCPackage pkg, Path directory) throws IOException, SAXException, ParserConfigurationException {
+            Path file = Files.createTempFile(directory, "strings", ".txt");
+            try {
+                Path offsets = Files.createTempFile(directory, "strings", ".offsets");
+                try {
+                    long textBytes;
+                    int count;
+                    try (DataOutputStream textOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+                         DataOutputStream offsetOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(offsets), BUFFER_SIZE))) {
+                        SharedStringsHandler handler = new SharedStringsHandler(textOut, offsetOut);
+                        List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+                        if (!parts.isEmpty()) {
+                            try (InputStream in = parts.get(0).getInputStream()) {
+                                XMLReader parser = XMLHelper.newXMLReader();
+                                parser.setContentHandler(handler);
+                                parser.parse(new InputSource(in));
+                            }
+                        }
+                        textBytes = textOut.size();
+                        count = handler.count;
+                        offsetOut.writeLong(textBytes);
+                    }
+                    try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+                        Files.copy(offsets, out);
+                    }
+                    return new SpilledSharedStrings(file, textBytes, count);
+                } finally {
+                    Files.deleteIfExists(offsets);
+                }
+            } catch (IOException | SAXException | ParserConfigurationException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        @Override
+        public String get(int index) throws IOException {
+            int slot = index & (CACHE_SIZE - 1);
+            if (cachedIndexes[slot] == index) {
+                return cachedStrings[slot];
+            }
+            readEntry(index, 2 * Long.BYTES);
+            long start = entry.getLong(0) & ~TOTAL;
+            int length = Math.toIntExact((entry.getLong(Long.BYTES) & ~TOTAL) - start);
+            if (text.capacity() < length) {
+                text = ByteBuffer.allocate(Math.max(length, 2 * text.capacity()));
+            }
+            text.clear().limit(length);
+            readFully(text, start);
+            String string = new String(text.array(), 0, length, StandardCharsets.UTF_8);
+            cachedIndexes[slot] = index;
+            cachedStrings[slot] = string;
+            return string;
+        }
+
+        @Override
+        public boolean isTotal(int index) throws IOException {
+            int slot = index & (CACHE_SIZE - 1);
+            if (cachedIndexes[slot] == index) {
+                return isTotalLabel(cachedStrings[slot]);
+            }
+            readEntry(index, Long.BYTES);
+            return (entry.getLong(0) & TOTAL) != 0;
+        }
+
+        private void readEntry(int index, int bytes) throws IOException {
+            if (index < 0 || index >= count) {
+                throw new IOException("Shared string " + index + " does not exist, the workbook has " + count);
+            }
+            entry.clear().limit(bytes);
+            readFully(entry, offsetsStart + (long) index * Long.BYTES);
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Shared strings file " + file + " is truncated");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Writes every shared string of the shared strings XML as it is parsed, see {@link SpilledSharedStrings}.
+     */
+    private static final class SharedStringsHandler extends DefaultHandler {
+        private final DataOutputStream textOut;
+        private final DataOutputStream offsetOut;
+        private final StringBuilder value = new StringBuilder(64);
+        private boolean capturing;
+        private int count;
+
+        SharedStringsHandler(DataOutputStream textOut, DataOutputStream offsetOut) {
+            this.textOut = textOut;
+            this.offsetOut = offsetOut;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "si" -> value.setLength(0);
+                case "t" -> capturing = true;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (capturing) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "t" -> capturing = false;
+                case "si" -> write();
+                default -> {
+                }
+            }
+        }
+
+        private void write() throws SAXException {
+            String string = value.toString();
+            if (string.contains("_x")) {
+                string = new XSSFRichTextString(string).getString(); // Decodes escapes such as _x000D_, like POI's table
+            }
+            try {
+                long offset = textOut.size();
+                offsetOut.writeLong(isTotalLabel(string) ? offset | SpilledSharedStrings.TOTAL : offset);
+                textOut.write(string.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            count++;
+        }
+    }
+
+    /**
+     * The type attribute of a cell. Numeric cells have none.
+     */
+    private enum CellType {
+        NUMBER, SHARED_STRING, TEXT, BOOLEAN, ERROR;
+
+        static CellType of(String type) {
+            if (type == null || type.equals("n")) {
+                return NUMBER;
+            }
+            return switch (type) {
+                case "s" -> SHARED_STRING;
+                case "b" -> BOOLEAN;
+                case "e" -> ERROR;
+                default -> TEXT; // "str" for formula results, "inlineStr"
+            };
+        }
+
+        /**
+         * Returns the text of a cell value as POI's sheet handler reported it.
+         */
+        String text(String value) {
+            return switch (this) {
+                case BOOLEAN -> "0".equals(value) ? "FALSE" : "TRUE";
+                case ERROR -> "ERROR:" + value;
+                default -> value;
+            };
+        }
+    }
+}
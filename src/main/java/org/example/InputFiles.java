@@ -0,0 +1,15 @@
+package org.example;
+
+/**
+ * The InputFiles record holds the parsed contents of the two files of one reconciliation.
+ * Either side is null if no file of that type was given.
+ *
+ * @param espRecords ESP rows read from the ESP CSV file.
+ * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus Excel file.
+ */
+public record InputFiles(EspColumns espRecords, FlixBusRecordSet flixBusRecords) {
+
+    public boolean isComplete() {
+        return espRecords != null && flixBusRecords != null;
+    }
+}
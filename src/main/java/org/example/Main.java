@@ -1,7 +1,15 @@
 package org.example;
 
+import java.util.Arrays;
+
 public class Main {
     public static void main(String[] args) {
-        FileComparatorApp.main(args);
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            System.exit(BatchReconciler.run(Arrays.copyOfRange(args, 1, args.length))); // Headless, no JavaFX toolkit
+        } else if (args.length > 0 && "--watch".equals(args[0])) {
+            System.exit(WatchFolderDaemon.run(Arrays.copyOfRange(args, 1, args.length))); // Runs until stopped, no JavaFX toolkit
+        } else {
+            FileComparatorApp.main(args);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Money class converts between decimal text and the long cent values that all records carry.
+ * Amounts are rounded half-up to two decimal places once, when they are parsed; after that every sum and
+ * comparison is exact integer arithmetic.
+ */
+public final class Money {
+    private static final int SCALE = 2;
+    private static final int MAX_FAST_INTEGER_DIGITS = 16;
+
+    private Money() {
+    }
+
+    /**
+     * Parses a decimal amount such as "-12.345" into cents, rounding half-up.
+     *
+     * @param value The amount as text.
+     * @return The amount in cents.
+     * @throws NumberFormatException If the value is not a number.
+     */
+    public static long parseCents(CharSequence value) {
+        int end = value.length();
+        int pos = 0;
+        boolean negative = false;
+        if (pos < end && (value.charAt(pos) == '-' || value.charAt(pos) == '+')) {
+            negative = value.charAt(pos) == '-';
+            pos++;
+        }
+
+        long units = 0;
+        int integerDigits = 0;
+        int fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        boolean seenDot = false;
+        for (; pos < end; pos++) {
+            char c = value.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (!seenDot) {
+                    if (++integerDigits > MAX_FAST_INTEGER_DIGITS) {
+                        return parseCentsSlow(value.toString());
+                    }
+                    units = units * 10 + (c - '0');
+                } else if (++fractionDigits <= SCALE) {
+                    fraction = fraction * 10 + (c - '0');
+                } else if (fractionDigits == SCALE + 1) {
+                    roundUp = c >= '5';
+                }
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                return parseCentsSlow(value.toString());
+            }
+        }
+        if (integerDigits == 0 && fractionDigits == 0) {
+            return parseCentsSlow(value.toString());
+        }
+        return toCents(negative, units, fraction, fractionDigits, roundUp);
+    }
+
+    /**
+     * Parses a decimal amount from a range of ASCII bytes without creating a String on the common path.
+     *
+     * @param buffer The buffer holding the text.
+     * @param start Index of the first byte.
+     * @param end Index after the last byte.
+     * @return The amount in cents.
+     * @throws NumberFormatException If the value is not a number.
+     */
+    public static long parseCents(ByteBuffer buffer, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+
+        long units = 0;
+        int integerDigits = 0;
+        int fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        boolean seenDot = false;
+        for (; pos < end; pos++) {
+            byte b = buffer.get(pos);
+            if (b >= '0' && b <= '9') {
+                if (!seenDot) {
+                    if (++integerDigits > MAX_FAST_INTEGER_DIGITS) {
+                        return parseCentsSlow(buffer, start, end);
+                    }
+                    units = units * 10 + (b - '0');
+                } else if (++fractionDigits <= SCALE) {
+                    fraction = fraction * 10 + (b - '0');
+                } else if (fractionDigits == SCALE + 1) {
+                    roundUp = b >= '5';
+                }
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                return parseCentsSlow(buffer, start, end);
+            }
+        }
+        if (integerDigits == 0 && fractionDigits == 0) {
+            return parseCentsSlow(buffer, start, end);
+        }
+        return toCents(negative, units, fraction, fractionDigits, roundUp);
+    }
+
+    private static long toCents(boolean negative, long units, int fraction, int fractionDigits, boolean roundUp) {
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+        long cents = units * 100 + fraction + (roundUp ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    private static long parseCentsSlow(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return parseCentsSlow(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Handles exponents, surrounding whitespace and very long values.
+     */
+    private static long parseCentsSlow(String value) {
+        return toCents(new BigDecimal(value.strip()));
+    }
+
+    /**
+     * Converts a decimal amount into cents, rounding half-up.
+     *
+     * @param value The amount.
+     * @return The amount in cents.
+     */
+    public static long toCents(BigDecimal value) {
+        return value.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Formats cents as a plain decimal with two places, such as "-0.05".
+     *
+     * @param cents The amount in cents.
+     * @return The formatted amount.
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Appends cents in the format of {@link #format(long)}, without creating a String.
+     *
+     * @param text Receives the formatted amount.
+     * @param cents The amount in cents.
+     * @return The given builder.
+     */
+    public static StringBuilder appendTo(StringBuilder text, long cents) {
+        long abs = Math.abs(cents);
+        long fraction = abs % 100;
+        if (cents < 0) {
+            text.append('-');
+        }
+        text.append(abs / 100).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction);
+    }
+}
@@ -0,0 +1,319 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The NearMatchFinder class suggests pairs of unmatched ESP and unmatched FlixBus records that are probably the same
+ * booking: booking numbers one typo apart, or amounts that agree, possibly after adding the ESP service fee.
+ * Nothing is compared pairwise. Amounts are looked up in a sorted amount index, and booking numbers in a deletion
+ * index that holds every FlixBus booking number and each of its variants with one character left out; two numbers
+ * are one insertion, deletion, substitution or swap of neighbours apart only if they share such a variant. Variants
+ * are stored as hashes next to the record they belong to in one sorted array, and every candidate is verified.
+ */
+public class NearMatchFinder {
+    /**
+     * The default tolerance of amount comparisons, which covers rounding differences of one cent.
+     */
+    public static final long DEFAULT_AMOUNT_TOLERANCE = 1;
+    public static final int DEFAULT_MAX_SUGGESTIONS = 3;
+
+    private static final int PROGRESS_ROWS = 4096;
+    private static final int OWNER_BITS = 24;
+    private static final long OWNER_MASK = (1L << OWNER_BITS) - 1;
+
+    private final long amountTolerance;
+    private final int maxSuggestions;
+
+    /**
+     * How the FlixBus cash of a suggested pair compares with the ESP amount.
+     */
+    public enum AmountMatch {
+        SAME("same amount"),
+        PLUS_FEE("amount plus service fee"),
+        DIFFERENT("different amount");
+
+        private final String description;
+
+        AmountMatch(String description) {
+            this.description = description;
+        }
+
+        public String description() {
+            return description;
+        }
+    }
+
+    /**
+     * A suggested pair, ranked by how much of it agrees.
+     *
+     * @param espRecord The unmatched ESP record.
+     * @param flixBusRecord The unmatched FlixBus record suggested for it.
+     * @param similarBookingNumber True if the booking numbers are one typo apart.
+     * @param amountMatch How the FlixBus cash compares with the ESP amount.
+     */
+    public record Suggestion(ESPRecord espRecord, FlixBusRecord flixBusRecord, boolean similarBookingNumber, AmountMatch amountMatch) {
+
+        /**
+         * Returns the FlixBus cash minus the ESP amount, in cents.
+         */
+        public long amountDifference() {
+            return flixBusRecord.cash() - espRecord.amount();
+        }
+
+        /**
+         * Returns the rank of the suggestion, lower is better: a typo with the same amount, a typo with the amount
+         * plus fee, a typo alone, the same amount alone, and the amount plus fee alone.
+         */
+        public int rank() {
+            return (similarBookingNumber ? 0 : 3) + amountMatch.ordinal();
+        }
+
+        /**
+         * Returns a short description of what the two records have in common.
+         */
+        public String reason() {
+            if (!similarBookingNumber) {
+                return amountMatch.description();
+            }
+            return amountMatch == AmountMatch.DIFFERENT ? "booking number typo" : "booking number typo, " + amountMatch.description();
+        }
+    }
+
+    public NearMatchFinder() {
+        this(DEFAULT_AMOUNT_TOLERANCE, DEFAULT_MAX_SUGGESTIONS);
+    }
+
+    /**
+     * Creates a finder.
+     *
+     * @param amountTolerance How many cents two amounts may differ and still count as the same amount.
+     * @param maxSuggestions How many FlixBus records to suggest at most for one ESP record.
+     */
+    public NearMatchFinder(long amountTolerance, int maxSuggestions) {
+        this.amountTolerance = amountTolerance;
+        this.maxSuggestions = maxSuggestions;
+    }
+
+    /**
+     * Suggests FlixBus records for the unmatched ESP records of a comparison.
+     *
+     * @param result The result of a comparison.
+     * @return The suggestions, grouped by ESP record in the order of the unmatched ESP records, best first.
+     */
+    public List<Suggestion> suggest(ReconciliationResult result) {
+        return suggest(result, ProgressToken.NONE);
+    }
+
+    /**
+     * Suggests FlixBus records for the unmatched ESP records of a comparison, reporting the ESP records done so far
+     * to a progress token.
+     *
+     * @param result The result of a comparison.
+     * @param token Receives progress and stops the search when cancelled.
+     * @return The suggestions, grouped by ESP record in the order of the unmatched ESP records, best first.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public List<Suggestion> suggest(ReconciliationResult result, ProgressToken token) {
+        return suggest(result.unmatchedESPRecords(), result.unmatchedFlixBusRecords(), token);
+    }
+
+    /**
+     * Suggests FlixBus records for ESP records.
+     *
+     * @param espRecords The unmatched ESP records.
+     * @param flixBusRecords The unmatched FlixBus records, fewer than 16,777,216.
+     * @return The suggestions, grouped by ESP record in the order given, best first.
+     */
+    public List<Suggestion> suggest(List<ESPRecord> espRecords, List<FlixBusRecord> flixBusRecords) {
+        return suggest(espRecords, flixBusRecords, ProgressToken.NONE);
+    }
+
+    /**
+     * Suggests FlixBus records for ESP records like {@link #suggest(List, List)}, reporting the ESP records done so
+     * far to a progress token.
+     *
+     * @param espRecords The unmatched ESP records.
+     * @param flixBusRecords The unmatched FlixBus records, fewer than 16,777,216.
+     * @param token Receives progress and stops the search when cancelled.
+     * @return The suggestions, grouped by ESP record in the order given, best first.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public List<Suggestion> suggest(List<ESPRecord> espRecords, List<FlixBusRecord> flixBusRecords, ProgressToken token) {
+        token.advance(ProgressToken.Stage.SUGGESTING, 0, espRecords.size());
+        if (flixBusRecords.size() > OWNER_MASK) {
+            throw new IllegalArgumentException("Too many unmatched FlixBus records for suggestions: " + flixBusRecords.size());
+        }
+        StageTimer timer = StageTimer.start(StageTimer.Stage.SUGGEST_MATCHES);
+        List<FlixBusRecord> byAmount = new ArrayList<>(flixBusRecords);
+        byAmount.sort(Comparator.comparingLong(FlixBusRecord::cash));
+        long[] amounts = new long[byAmount.size()];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = byAmount.get(i).cash();
+        }
+        long[] variants = indexVariants(byAmount);
+
+        List<Suggestion> suggestions = new ArrayList<>();
+        List<Suggestion> candidates = new ArrayList<>();
+        int[] seenBy = new int[byAmount.size()];
+        int query = 0;
+        for (ESPRecord espRecord : espRecords) {
+            if (query % PROGRESS_ROWS == 0 && query > 0) {
+                token.advance(ProgressToken.Stage.SUGGESTING, query, espRecords.size());
+            }
+            query++;
+            candidates.clear();
+            findTypos(espRecord, byAmount, variants, seenBy, query, candidates);
+            findAmount(espRecord, espRecord.amount(), byAmount, amounts, seenBy, query, candidates);
+            if (espRecord.serviceFee() != 0) {
+                findAmount(espRecord, espRecord.getTotalAmount(), byAmount, amounts, seenBy, query, candidates);
+            }
+            candidates.sort(Comparator.comparingInt(Suggestion::rank)
+                    .thenComparingLong(suggestion -> Math.abs(suggestion.amountDifference()))
+                    .thenComparing(suggestion -> suggestion.flixBusRecord().bookingKey()));
+            suggestions.addAll(candidates.subList(0, Math.min(maxSuggestions, candidates.size())));
+        }
+        timer.stop(espRecords.size() + flixBusRecords.size(), 0);
+        token.advance(ProgressToken.Stage.SUGGESTING, espRecords.size(), espRecords.size());
+        return suggestions;
+    }
+
+    /**
+     * Adds the FlixBus records whose booking number shares a variant with the ESP booking number and is one edit
+     * away from it.
+     */
+    private void findTypos(ESPRecord espRecord, List<FlixBusRecord> flixBusRecords, long[] variants, int[] seenBy, int query,
+                           List<Suggestion> candidates) {
+        String key = espRecord.bookingKey().text();
+        if (key.isEmpty()) {
+            return;
+        }
+        for (int skip = -1; skip < key.length(); skip++) {
+            long hash = variantHash(key, skip) << OWNER_BITS;
+            int i = lowerBound(variants, hash);
+            for (; i < variants.length && (variants[i] & ~OWNER_MASK) == hash; i++) {
+                int owner = (int) (variants[i] & OWNER_MASK);
+                if (seenBy[owner] == query) {
+                    continue;
+                }
+                FlixBusRecord flixBusRecord = flixBusRecords.get(owner);
+                if (isOneEditApart(key, flixBusRecord.bookingKey().text())) {
+                    seenBy[owner] = query;
+                    candidates.add(suggestion(espRecord, flixBusRecord, true));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the FlixBus records whose cash is within the tolerance of an amount. Common amounts, such as a standard
+     * fare that more records have than could be suggested, say nothing about the booking and are skipped.
+     */
+    private void findAmount(ESPRecord espRecord, long amount, List<FlixBusRecord> flixBusRecords, long[] amounts,
+                            int[] seenBy, int query, List<Suggestion> candidates) {
+        int from = lowerBound(amounts, amount - amountTolerance);
+        int to = lowerBound(amounts, amount + amountTolerance + 1);
+        if (to - from > maxSuggestions) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            if (seenBy[i] != query) {
+                seenBy[i] = query;
+                candidates.add(suggestion(espRecord, flixBusRecords.get(i), false));
+            }
+        }
+    }
+
+    private Suggestion suggestion(ESPRecord espRecord, FlixBusRecord flixBusRecord, boolean similarBookingNumber) {
+        AmountMatch amountMatch;
+        if (Math.abs(flixBusRecord.cash() - espRecord.amount()) <= amountTolerance) {
+            amountMatch = AmountMatch.SAME;
+        } else if (espRecord.serviceFee() != 0 && Math.abs(flixBusRecord.cash() - espRecord.getTotalAmount()) <= amountTolerance) {
+            amountMatch = AmountMatch.PLUS_FEE;
+        } else {
+            amountMatch = AmountMatch.DIFFERENT;
+        }
+        return new Suggestion(espRecord, flixBusRecord, similarBookingNumber, amountMatch);
+    }
+
+    /**
+     * Builds the deletion index: one entry per FlixBus booking number and per variant with one character left out,
+     * each holding the variant's hash in the upper bits and the record's position in the lower bits, sorted.
+     */
+    private static long[] indexVariants(List<FlixBusRecord> flixBusRecords) {
+        int count = 0;
+        for (FlixBusRecord record : flixBusRecords) {
+            count += record.bookingKey().text().length() + 1;
+        }
+        long[] variants = new long[count];
+        int next = 0;
+        for (int owner = 0; owner < flixBusRecords.size(); owner++) {
+            String key = flixBusRecords.get(owner).bookingKey().text();
+            for (int skip = -1; skip < key.length(); skip++) {
+                variants[next++] = variantHash(key, skip) << OWNER_BITS | owner;
+            }
+        }
+        Arrays.sort(variants);
+        return variants;
+    }
+
+    /**
+     * Hashes a key with the character at one position left out, or the whole key if the position is -1,
+     * into 40 bits. Collisions only cost a verification.
+     */
+    private static long variantHash(String key, int skip) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            if (i != skip) {
+                hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return hash >>> OWNER_BITS;
+    }
+
+    /**
+     * Returns whether two different keys are one insertion, deletion, substitution or swap of neighbours apart.
+     */
+    static boolean isOneEditApart(String a, String b) {
+        int lengthDifference = a.length() - b.length();
+        if (lengthDifference < -1 || lengthDifference > 1 || a.equals(b)) {
+            return false;
+        }
+        int start = 0;
+        while (start < a.length() && start < b.length() && a.charAt(start) == b.charAt(start)) {
+            start++;
+        }
+        int endA = a.length();
+        int endB = b.length();
+        while (endA > start && endB > start && a.charAt(endA - 1) == b.charAt(endB - 1)) {
+            endA--;
+            endB--;
+        }
+        int differentA = endA - start;
+        int differentB = endB - start;
+        if (differentA <= 1 && differentB <= 1) {
+            return true; // One substitution, insertion or deletion
+        }
+        return differentA == 2 && differentB == 2
+                && a.charAt(start) == b.charAt(start + 1) && a.charAt(start + 1) == b.charAt(start);
+    }
+
+    /**
+     * Returns the first position in a sorted array whose value is not less than the given value.
+     */
+    private static int lowerBound(long[] values, long value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
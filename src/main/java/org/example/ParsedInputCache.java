@@ -0,0 +1,277 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The ParsedInputCache class keeps the parsed rows of ESP and FlixBus files on disk, so that opening an unchanged
+ * file again skips the CSV or workbook parser. Entries are keyed by a hash of the file's absolute path, size and
+ * modification time and the parser version, stored in the binary layout of {@link ColumnStore#write} and read back
+ * through a plain buffered stream, so an entry can always be replaced or evicted while it is read.
+ * The least recently used entries are deleted when the cache grows beyond its size cap.
+ */
+public class ParsedInputCache {
+    private static final Logger logger = Logger.getLogger(ParsedInputCache.class.getName());
+    public static final long DEFAULT_MAX_BYTES = 512L << 20;
+    private static final int MAGIC = 0x44465043; // "DFPC"
+    private static final int VERSION = 2;
+    /**
+     * The version of what the parsers read from a file, such as the columns they resolve and how amounts are
+     * rounded. It is part of every entry's key and of every {@link ReconciliationSnapshot}; increase it when a parser
+     * change gives other rows for the same file.
+     */
+    static final int PARSER_VERSION = 1;
+    private static final byte ESP = 1;
+    private static final byte FLIXBUS = 2;
+    private static final String ENTRY_SUFFIX = ".rows";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * Creates a cache in the given directory. The directory is created when the first entry is written.
+     *
+     * @param directory The cache directory.
+     * @param maxBytes The size cap of all entries together.
+     */
+    public ParsedInputCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache in ".differencefinder/cache" in the user's home directory, capped at {@link #DEFAULT_MAX_BYTES}.
+     */
+    public static ParsedInputCache defaultCache() {
+        return new ParsedInputCache(Paths.get(System.getProperty("user.home"), ".differencefinder", "cache"), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Returns the rows of an ESP file from the cache, or parses the file and caches them.
+     *
+     * @param file The ESP CSV file.
+     * @return The ESP rows in file order.
+     * @throws IOException If the file cannot be parsed.
+     */
+    public EspColumns readESPFile(Path file) throws IOException {
+        return readESPFile(file, ProgressToken.NONE);
+    }
+
+    /**
+     * Returns the rows of an ESP file like {@link #readESPFile(Path)}, reporting the progress of a parse to a token.
+     * A cancelled parse leaves no cache entry behind.
+     *
+     * @param file The ESP CSV file.
+     * @param token Receives progress and stops the parse when cancelled.
+     * @return The ESP rows in file order.
+     * @throws IOException If the file cannot be parsed.
+     */
+    public EspColumns readESPFile(Path file, ProgressToken token) throws IOException {
+        token.checkCancelled();
+        Path entry = entryFor(file);
+        DataInputStream cached = open(entry, ESP);
+        if (cached != null) {
+            try (cached) {
+                EspColumns records = new EspColumns();
+                records.read(cached);
+                return records;
+            } catch (IOException e) {
+                discard(entry, e);
+            }
+        }
+
+        EspColumns records = FileProcessor.readESPFile(file.toString(), token);
+        store(entry, ESP, records::write);
+        return records;
+    }
+
+    /**
+     * Returns the rows of a FlixBus workbook from the cache, or parses the workbook and caches them.
+     *
+     * @param file The FlixBus Excel file.
+     * @return The FlixBus, voucher and fee rows.
+     * @throws IOException If the workbook cannot be parsed.
+     */
+    public FlixBusRecordSet readFlixBusFile(Path file) throws IOException {
+        return readFlixBusFile(file, ProgressToken.NONE);
+    }
+
+    /**
+     * Returns the rows of a FlixBus workbook like {@link #readFlixBusFile(Path)}, reporting the progress of a parse
+     * to a token. A cancelled parse leaves no cache entry behind.
+     *
+     * @param file The FlixBus Excel file.
+     * @param token Receives progress and stops the parse when cancelled.
+     * @return The FlixBus, voucher and fee rows.
+     * @throws IOException If the workbook cannot be parsed.
+     */
+    public FlixBusRecordSet readFlixBusFile(Path file, ProgressToken token) throws IOException {
+        token.checkCancelled();
+        Path entry = entryFor(file);
+        DataInputStream cached = open(entry, FLIXBUS);
+        if (cached != null) {
+            try (cached) {
+                FlixBusRecordSet records = new FlixBusRecordSet();
+                records.flixBusRecords().read(cached);
+                records.voucherRecords().read(cached);
+                records.feeRecords().read(cached);
+                return records;
+            } catch (IOException e) {
+                discard(entry, e);
+            }
+        }
+
+        FlixBusRecordSet records = FileProcessor.readFlixBusFile(file.toString(), token);
+        store(entry, FLIXBUS, out -> {
+            records.flixBusRecords().write(out);
+            records.voucherRecords().write(out);
+            records.feeRecords().write(out);
+        });
+        return records;
+    }
+
+    /**
+     * Names the entry of a file after a SHA-256 hash of its absolute path, size, modification time and the parser
+     * version, so neither a changed file nor a changed parser hits a stale entry.
+     */
+    private Path entryFor(Path file) throws IOException {
+        String identity = file.toAbsolutePath().normalize() + "\n" + Files.size(file) + "\n" + Files.getLastModifiedTime(file).toMillis()
+                + "\n" + PARSER_VERSION;
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + ENTRY_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Opens an entry and checks its header, or returns null if there is no usable entry.
+     * A hit marks the entry as recently used.
+     */
+    private DataInputStream open(Path entry, byte kind) {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry), 1 << 16));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read cache entry " + entry, e);
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readByte() != kind) {
+                close(in);
+                discard(entry, null);
+                return null;
+            }
+        } catch (IOException e) {
+            close(in);
+            discard(entry, e);
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not touch cache entry " + entry, e);
+        }
+        return in;
+    }
+
+    private static void close(DataInputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not close cache entry", e);
+        }
+    }
+
+    private interface RowWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes an entry through a temporary file and evicts old entries. A failure only costs the cache entry.
+     */
+    private void store(Path entry, byte kind, RowWriter rows) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(kind);
+                rows.write(out);
+            }
+            Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write cache entry " + entry, e);
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Could not delete " + temporary, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until all entries together fit under the size cap.
+     */
+    private synchronized void evict() throws IOException {
+        record Entry(Path path, long size, long lastUsed) {
+        }
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(ENTRY_SUFFIX)) {
+                    try {
+                        Entry entry = new Entry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                        entries.add(entry);
+                        total += entry.size();
+                    } catch (NoSuchFileException e) {
+                        // Evicted by another thread in the meantime
+                    }
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+            Files.deleteIfExists(entries.get(i).path());
+            total -= entries.get(i).size();
+        }
+    }
+
+    private void discard(Path entry, IOException cause) {
+        logger.log(Level.WARNING, "Discarding unusable cache entry " + entry, cause);
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not delete " + entry, e);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.example;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * The ProgressToken class carries progress reports out of a comparison and a cancellation request into it.
+ * Parsers and comparison stages call {@link #advance} every few thousand rows; once the token is cancelled,
+ * that call throws a {@link CancellationException}, so the work stops at the next checkpoint and everything it
+ * has built so far becomes garbage.
+ */
+public class ProgressToken {
+    /**
+     * A token that reports nowhere and cannot be cancelled, for callers that do not track progress.
+     * Cancelling it has no effect, since every such caller shares it.
+     */
+    public static final ProgressToken NONE = new ProgressToken(null);
+
+    /**
+     * The stages of a comparison. The two reading stages run at the same time.
+     */
+    public enum Stage {
+        READING_ESP("Reading ESP file", "bytes"),
+        READING_FLIXBUS("Reading FlixBus file", "rows"),
+        COMBINING("Combining bookings", "steps"),
+        MATCHING("Matching bookings", "rows"),
+        MATCHING_FEES("Matching fees", "rows"),
+        SUGGESTING("Suggesting matches", "rows");
+
+        private final String description;
+        private final String unit;
+
+        Stage(String description, String unit) {
+            this.description = description;
+            this.unit = unit;
+        }
+
+        public String description() {
+            return description;
+        }
+
+        /**
+         * Returns what the done and total counts of this stage measure, such as "bytes" or "rows".
+         */
+        public String unit() {
+            return unit;
+        }
+    }
+
+    /**
+     * Receives progress reports. Reports can come from several threads at once.
+     */
+    public interface Listener {
+        /**
+         * @param stage The stage that made progress.
+         * @param done The bytes or rows processed so far in this stage.
+         * @param total The bytes or rows of the whole stage, or -1 if not known.
+         */
+        void progress(Stage stage, long done, long total);
+    }
+
+    private final Listener listener;
+    private final ProgressToken parent;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token.
+     *
+     * @param listener Receives progress reports, or null to only support cancellation.
+     */
+    public ProgressToken(Listener listener) {
+        this(listener, null);
+    }
+
+    private ProgressToken(Listener listener, ProgressToken parent) {
+        this.listener = listener;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a token for a group of tasks inside the work that holds this token. The child reports to the same
+     * listener and is cancelled with this token, but cancelling the child, for example because one task of the
+     * group failed, stops only the group.
+     *
+     * @return A new child token.
+     */
+    public ProgressToken child() {
+        return new ProgressToken(listener, this);
+    }
+
+    /**
+     * Creates child tokens for tasks that share the stages they report, such as the parses of several files.
+     * The listener receives the progress of all parts added up, so the progress of a stage does not jump between
+     * the counts of single files. A part that has not reported yet does not count towards the total, and the total
+     * is unknown while any part does not know its own.
+     *
+     * @param count The number of parts.
+     * @return One child token per part.
+     */
+    public ProgressToken[] parts(int count) {
+        PartProgress progress = new PartProgress(count);
+        ProgressToken[] parts = new ProgressToken[count];
+        for (int i = 0; i < count; i++) {
+            int part = i;
+            parts[i] = new ProgressToken(listener == null ? null : (stage, done, total) -> progress.report(part, stage, done, total), this);
+        }
+        return parts;
+    }
+
+    /**
+     * Asks the work that holds this token to stop at its next checkpoint. Does nothing for {@link #NONE}.
+     */
+    public void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Throws if the token was cancelled.
+     *
+     * @throws CancellationException If {@link #cancel()} was called.
+     */
+    public void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("The comparison was cancelled");
+        }
+    }
+
+    /**
+     * Reports progress of a stage and checks for cancellation.
+     *
+     * @param stage The stage that made progress.
+     * @param done The bytes or rows processed so far in this stage.
+     * @param total The bytes or rows of the whole stage, or -1 if not known.
+     * @throws CancellationException If {@link #cancel()} was called.
+     */
+    public void advance(Stage stage, long done, long total) {
+        checkCancelled();
+        if (listener != null) {
+            listener.progress(stage, done, total);
+        }
+    }
+
+    /**
+     * Adds up the progress of the parts created by {@link #parts}, per stage.
+     */
+    private final class PartProgress {
+        private final long[][] done;
+        private final long[][] totals;
+        private final boolean[][] reported;
+
+        PartProgress(int count) {
+            int stages = Stage.values().length;
+            done = new long[stages][count];
+            totals = new long[stages][count];
+            reported = new boolean[stages][count];
+        }
+
+        synchronized void report(int part, Stage stage, long partDone, long partTotal) {
+            int index = stage.ordinal();
+            done[index][part] = partDone;
+            totals[index][part] = partTotal;
+            reported[index][part] = true;
+            long sumDone = 0;
+            long sumTotal = 0;
+            for (int i = 0; i < done[index].length; i++) {
+                if (reported[index][i]) {
+                    sumDone += done[index][i];
+                    sumTotal = sumTotal < 0 || totals[index][i] < 0 ? -1 : sumTotal + totals[index][i];
+                }
+            }
+            listener.progress(stage, sumDone, sumTotal);
+        }
+    }
+}
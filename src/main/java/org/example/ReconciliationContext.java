@@ -0,0 +1,142 @@
+package org.example;
+
+/**
+ * The ReconciliationContext class holds the combined rows of one ESP file and one FlixBus file.
+ * Every row type is combined per booking and put in booking number order exactly once, and the ESP rows are indexed
+ * by booking key, so the amount comparison and the service fee comparison share the same work.
+ * Rows stay in their column stores; the orders are arrays of row numbers.
+ * A context is not modified after it is built and can be read by several threads.
+ */
+public final class ReconciliationContext {
+    private static final int COMBINING_STEPS = 4;
+
+    private final EspColumns espRows;
+    private final BookingIndex espIndex;
+    private final int[] sortedESPRows;
+    private final FlixBusColumns flixBusRows;
+    private final int[] sortedFlixBusRows;
+    private final VoucherColumns voucherRows;
+    private final FeeColumns feeRows;
+    private final int[] sortedFeeRows;
+
+    /**
+     * Combines the rows of both files.
+     *
+     * @param espRecords ESP rows read from the ESP file.
+     * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus file.
+     */
+    public ReconciliationContext(EspColumns espRecords, FlixBusRecordSet flixBusRecords) {
+        this(espRecords, flixBusRecords, ProgressToken.NONE);
+    }
+
+    /**
+     * Combines the rows of both files, reporting each combined row type as one step to a progress token.
+     *
+     * @param espRecords ESP rows read from the ESP file.
+     * @param flixBusRecords FlixBus, voucher and fee records read from the FlixBus file.
+     * @param token Receives progress and stops the work when cancelled.
+     * @throws java.util.concurrent.CancellationException If the token was cancelled.
+     */
+    public ReconciliationContext(EspColumns espRecords, FlixBusRecordSet flixBusRecords, ProgressToken token) {
+        token.advance(ProgressToken.Stage.COMBINING, 0, COMBINING_STEPS);
+        StageTimer timer = StageTimer.start(StageTimer.Stage.COMBINE_ESP);
+        CombinedColumns<EspColumns> combinedESPRows = CombinedColumns.combine(espRecords, new EspColumns());
+        this.espRows = combinedESPRows.rows();
+        this.espIndex = combinedESPRows.index();
+        this.sortedESPRows = espRows.rowsByBookingNumber();
+        timer.stop(espRows.size(), 0);
+        token.advance(ProgressToken.Stage.COMBINING, 1, COMBINING_STEPS);
+
+        timer = StageTimer.start(StageTimer.Stage.COMBINE_FLIXBUS);
+        this.flixBusRows = CombinedColumns.combine(flixBusRecords.flixBusRecords(), new FlixBusColumns()).rows();
+        this.sortedFlixBusRows = flixBusRows.rowsByBookingNumber();
+        timer.stop(flixBusRows.size(), 0);
+        token.advance(ProgressToken.Stage.COMBINING, 2, COMBINING_STEPS);
+
+        timer = StageTimer.start(StageTimer.Stage.COMBINE_VOUCHERS);
+        // Only vouchers with an ESP booking are kept
+        this.voucherRows = CombinedColumns.combine(flixBusRecords.voucherRecords(), new VoucherColumns(), espIndex).rows();
+        timer.stop(voucherRows.size(), 0);
+        token.advance(ProgressToken.Stage.COMBINING, 3, COMBINING_STEPS);
+
+        timer = StageTimer.start(StageTimer.Stage.COMBINE_FEES);
+        this.feeRows = combineFees(flixBusRecords.feeRecords());
+        this.sortedFeeRows = feeRows.rowsByBookingNumber();
+        timer.stop(feeRows.size(), 0);
+        token.advance(ProgressToken.Stage.COMBINING, COMBINING_STEPS, COMBINING_STEPS);
+    }
+
+    /**
+     * Returns the row of the combined ESP rows for a booking key, or -1 if the ESP file has no such booking.
+     * Rows run from 0 to the size of {@link #espRows()} and can be used to track matches in a plain array.
+     */
+    public int espRow(BookingKey bookingKey) {
+        return espIndex.find(bookingKey);
+    }
+
+    /**
+     * Returns the row of the combined ESP rows for the booking of a row in any column store, or -1.
+     */
+    public int espRow(ColumnStore<?> store, int row) {
+        return espIndex.find(store, row);
+    }
+
+    /**
+     * Returns the combined ESP rows, one per booking.
+     */
+    public EspColumns espRows() {
+        return espRows;
+    }
+
+    /**
+     * Returns the ESP row at a position in serial number order.
+     */
+    public int sortedESPRow(int position) {
+        return sortedESPRows[position];
+    }
+
+    /**
+     * Returns the combined FlixBus rows, one per booking.
+     */
+    public FlixBusColumns flixBusRows() {
+        return flixBusRows;
+    }
+
+    /**
+     * Returns the FlixBus row at a position in booking number order.
+     */
+    public int sortedFlixBusRow(int position) {
+        return sortedFlixBusRows[position];
+    }
+
+    /**
+     * Returns the combined voucher rows that have a matching ESP row.
+     */
+    public VoucherColumns voucherRows() {
+        return voucherRows;
+    }
+
+    /**
+     * Returns the combined fee rows, one per booking.
+     */
+    public FeeColumns feeRows() {
+        return feeRows;
+    }
+
+    /**
+     * Returns the fee row at a position in booking number order.
+     */
+    public int sortedFeeRow(int position) {
+        return sortedFeeRows[position];
+    }
+
+    /**
+     * Combines FlixBus fee rows per booking, in the order their bookings first appear.
+     *
+     * @param feeRecords Fee rows.
+     * @return The combined fee rows.
+     */
+    static FeeColumns combineFees(FeeColumns feeRecords) {
+        return CombinedColumns.combine(feeRecords, new FeeColumns()).rows();
+    }
+}
@@ -0,0 +1,77 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * The ReconciliationResult record holds everything one comparison of an ESP file with a FlixBus file produced:
+ * the totals, the matched and unmatched bookings and the matched and unmatched service fees.
+ * All lists are unmodifiable, so a result can be shared between threads and formatted more than once.
+ * The lists built by {@link ComparingFiles} create their records when they are read, so a result of a large comparison
+ * holds row numbers rather than a record object per booking.
+ *
+ * @param summary Totals of both files.
+ * @param matchedRecords ESP records paired with a FlixBus or voucher record.
+ * @param priceDifferences The matched records whose amount or commission differs, in the same order.
+ * @param unmatchedFlixBusRecords FlixBus records without an ESP record.
+ * @param unmatchedESPRecords ESP records without a FlixBus or voucher record.
+ * @param feeFallback True if no fee matched and every FlixBus booking was compared with a fee of 0.00 instead.
+ * @param matchedFeeRecords ESP records paired with a fee record.
+ * @param feeDifferences The matched fee records whose fee differs from the ESP service fee, in the same order.
+ * @param unmatchedFeeRecords Fee records without an ESP record.
+ * @param unmatchedESPFeeRecords ESP records without a fee record.
+ */
+public record ReconciliationResult(Summary summary,
+                                   List<MatchedRecord> matchedRecords,
+                                   List<MatchedRecord> priceDifferences,
+                                   List<FlixBusRecord> unmatchedFlixBusRecords,
+                                   List<ESPRecord> unmatchedESPRecords,
+                                   boolean feeFallback,
+                                   List<MatchedRecord> matchedFeeRecords,
+                                   List<MatchedRecord> feeDifferences,
+                                   List<FeeRecord> unmatchedFeeRecords,
+                                   List<ESPRecord> unmatchedESPFeeRecords) {
+
+    public ReconciliationResult {
+        matchedRecords = unmodifiable(matchedRecords);
+        priceDifferences = unmodifiable(priceDifferences);
+        unmatchedFlixBusRecords = unmodifiable(unmatchedFlixBusRecords);
+        unmatchedESPRecords = unmodifiable(unmatchedESPRecords);
+        matchedFeeRecords = unmodifiable(matchedFeeRecords);
+        feeDifferences = unmodifiable(feeDifferences);
+        unmatchedFeeRecords = unmodifiable(unmatchedFeeRecords);
+        unmatchedESPFeeRecords = unmodifiable(unmatchedESPFeeRecords);
+    }
+
+    /**
+     * Keeps row views as they are, since copying them would create every record, and copies other lists.
+     */
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list instanceof RowView<T> ? list : List.copyOf(list);
+    }
+
+    /**
+     * Totals of the combined records of both files. All amounts are in cents.
+     *
+     * @param espAmount Sum of the ESP amounts.
+     * @param suplierMargin Sum of the ESP supplier margins.
+     * @param espTotalAmount Sum of the ESP amounts including service fees.
+     * @param flixBusCash Sum of the FlixBus cash amounts.
+     * @param commGross Sum of the FlixBus gross commissions.
+     * @param flixBusTotalAmount Sum of the FlixBus total amounts including platform fees.
+     */
+    public record Summary(long espAmount, long suplierMargin, long espTotalAmount,
+                          long flixBusCash, long commGross, long flixBusTotalAmount) {
+
+        public long amountDifference() {
+            return Math.abs(espAmount - flixBusCash);
+        }
+
+        public long commissionDifference() {
+            return Math.abs(commGross - suplierMargin);
+        }
+
+        public long totalAmountDifference() {
+            return Math.abs(espTotalAmount - flixBusTotalAmount);
+        }
+    }
+}
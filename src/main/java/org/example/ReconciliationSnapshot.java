@@ -0,0 +1,168 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ReconciliationSnapshot class persists the combined per-booking state of one ESP/FlixBus file pair,
+ * together with the size and modification time of both files. When the same pair is reconciled again,
+ * only a file that changed since the snapshot is parsed; the other side is read back from the snapshot,
+ * which takes a fraction of the time of parsing a CSV or workbook.
+ *
+ * <p>The snapshot format is private to this class: a header with the format and parser versions, the two file
+ * fingerprints and the rows of the four combined column stores, written with {@link ColumnStore#write}. A snapshot
+ * written by another parser version is treated as missing, since the parsers could read other rows from the same
+ * files.
+ */
+public class ReconciliationSnapshot {
+    private static final Logger logger = Logger.getLogger(ReconciliationSnapshot.class.getName());
+    private static final int MAGIC = 0x44465350; // "DFSP"
+    private static final int VERSION = 3;
+
+    /**
+     * Identifies the version of an input file that a snapshot was built from.
+     *
+     * @param size The file size in bytes.
+     * @param lastModified The modification time in milliseconds.
+     */
+    public record Fingerprint(long size, long lastModified) {
+        public static Fingerprint of(Path file) throws IOException {
+            return new Fingerprint(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        }
+    }
+
+    private final Fingerprint espFingerprint;
+    private final Fingerprint flixBusFingerprint;
+    private final EspColumns espRecords;
+    private final FlixBusRecordSet flixBusRecords;
+
+    private ReconciliationSnapshot(Fingerprint espFingerprint, Fingerprint flixBusFingerprint, EspColumns espRecords, FlixBusRecordSet flixBusRecords) {
+        this.espFingerprint = espFingerprint;
+        this.flixBusFingerprint = flixBusFingerprint;
+        this.espRecords = espRecords;
+        this.flixBusRecords = flixBusRecords;
+    }
+
+    /**
+     * Loads a file pair, parsing only the files that changed since the snapshot, and updates the snapshot.
+     * The returned rows are already combined per booking, which does not change the comparison result.
+     *
+     * @param espFile The ESP CSV file.
+     * @param flixBusFile The FlixBus Excel file.
+     * @param snapshotFile The snapshot of the previous run. It is created if it does not exist.
+     * @return The combined rows of both files.
+     * @throws IOException If a changed file cannot be parsed or the snapshot cannot be written.
+     */
+    public static InputFiles load(Path espFile, Path flixBusFile, Path snapshotFile) throws IOException {
+        Fingerprint espFingerprint = Fingerprint.of(espFile);
+        Fingerprint flixBusFingerprint = Fingerprint.of(flixBusFile);
+        ReconciliationSnapshot previous = readIfValid(snapshotFile);
+        boolean espChanged = previous == null || !previous.espFingerprint.equals(espFingerprint);
+        boolean flixBusChanged = previous == null || !previous.flixBusFingerprint.equals(flixBusFingerprint);
+        if (!espChanged && !flixBusChanged) {
+            return new InputFiles(previous.espRecords, previous.flixBusRecords);
+        }
+
+        EspColumns espRecords;
+        FlixBusRecordSet flixBusRecords;
+        if (espChanged && flixBusChanged) {
+            InputFiles inputFiles = FileProcessor.readInputFiles(espFile.toString(), flixBusFile.toString());
+            espRecords = combine(inputFiles.espRecords());
+            flixBusRecords = combine(inputFiles.flixBusRecords());
+        } else if (espChanged) {
+            espRecords = combine(FileProcessor.readESPFile(espFile.toString()));
+            flixBusRecords = previous.flixBusRecords;
+        } else {
+            espRecords = previous.espRecords;
+            flixBusRecords = combine(FileProcessor.readFlixBusFile(flixBusFile.toString()));
+        }
+
+        new ReconciliationSnapshot(espFingerprint, flixBusFingerprint, espRecords, flixBusRecords).write(snapshotFile);
+        return new InputFiles(espRecords, flixBusRecords);
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first and then replaces the old snapshot, so that a failed write
+     * never leaves a truncated snapshot behind.
+     */
+    private void write(Path snapshotFile) throws IOException {
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ParsedInputCache.PARSER_VERSION);
+                writeFingerprint(out, espFingerprint);
+                writeFingerprint(out, flixBusFingerprint);
+                espRecords.write(out);
+                flixBusRecords.flixBusRecords().write(out);
+                flixBusRecords.voucherRecords().write(out);
+                flixBusRecords.feeRecords().write(out);
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads a snapshot, or returns null if there is none or it cannot be used.
+     */
+    private static ReconciliationSnapshot readIfValid(Path snapshotFile) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warning("Ignoring snapshot " + snapshotFile + " written by another version");
+                return null;
+            }
+            if (in.readInt() != ParsedInputCache.PARSER_VERSION) {
+                logger.info("Ignoring snapshot " + snapshotFile + " of another parser version");
+                return null;
+            }
+            Fingerprint espFingerprint = readFingerprint(in);
+            Fingerprint flixBusFingerprint = readFingerprint(in);
+            EspColumns espRecords = new EspColumns();
+            espRecords.read(in);
+            FlixBusRecordSet flixBusRecords = new FlixBusRecordSet();
+            flixBusRecords.flixBusRecords().read(in);
+            flixBusRecords.voucherRecords().read(in);
+            flixBusRecords.feeRecords().read(in);
+            return new ReconciliationSnapshot(espFingerprint, flixBusFingerprint, espRecords, flixBusRecords);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable snapshot " + snapshotFile, e);
+            return null;
+        }
+    }
+
+    private static void writeFingerprint(DataOutputStream out, Fingerprint fingerprint) throws IOException {
+        out.writeLong(fingerprint.size());
+        out.writeLong(fingerprint.lastModified());
+    }
+
+    private static Fingerprint readFingerprint(DataInputStream in) throws IOException {
+        return new Fingerprint(in.readLong(), in.readLong());
+    }
+
+    private static EspColumns combine(EspColumns espRecords) {
+        return CombinedColumns.combine(espRecords, new EspColumns()).rows();
+    }
+
+    private static FlixBusRecordSet combine(FlixBusRecordSet flixBusRecords) {
+        FlixBusRecordSet combined = new FlixBusRecordSet();
+        CombinedColumns.combine(flixBusRecords.flixBusRecords(), combined.flixBusRecords());
+        CombinedColumns.combine(flixBusRecords.voucherRecords(), combined.voucherRecords());
+        CombinedColumns.combine(flixBusRecords.feeRecords(), combined.feeRecords());
+        return combined;
+    }
+}
@@ -2,4 +2,6 @@ package org.example;
 
 public interface Record {
     String bookingNumber();
+
+    BookingKey bookingKey();
 }
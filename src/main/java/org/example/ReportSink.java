@@ -0,0 +1,80 @@
+package org.example;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * The ReportSink interface receives the rows of a reconciliation report one at a time, in report order, so that
+ * a report can be written while it is produced instead of being built as one string first.
+ * A report starts with the summary, followed by every {@link Section} in declaration order; each section is
+ * opened with {@link #startSection}, receives only the rows of that section, and is closed with {@link #endSection}.
+ */
+public interface ReportSink extends Closeable {
+
+    /**
+     * The sections of a report, in the order they are written.
+     */
+    enum Section {
+        PRICE_DIFFERENCES,
+        UNMATCHED_FLIXBUS,
+        UNMATCHED_ESP,
+        FEE_DIFFERENCES,
+        UNMATCHED_FEES,
+        UNMATCHED_ESP_FEES
+    }
+
+    void summary(ReconciliationResult.Summary summary) throws IOException;
+
+    void startSection(Section section) throws IOException;
+
+    void endSection(Section section) throws IOException;
+
+    /**
+     * A matched FlixBus booking whose amount or commission differs from the ESP record.
+     */
+    void priceDifference(ESPRecord espRecord, FlixBusRecord flixBusRecord) throws IOException;
+
+    /**
+     * A matched voucher booking whose amount or commission differs from the ESP record.
+     * Voucher differences follow all FlixBus differences of the section.
+     */
+    void priceDifference(ESPRecord espRecord, VoucherFlixBusRecord voucherRecord) throws IOException;
+
+    void unmatchedFlixBusRecord(FlixBusRecord record) throws IOException;
+
+    void unmatchedESPRecord(ESPRecord record) throws IOException;
+
+    /**
+     * Signals, before any fee row, that no platform fee matched and every booking was compared with a fee of 0.00.
+     */
+    void feeFallback() throws IOException;
+
+    void feeDifference(ESPRecord espRecord, FeeRecord fee) throws IOException;
+
+    void unmatchedFeeRecord(FeeRecord record) throws IOException;
+
+    void unmatchedESPFeeRecord(ESPRecord record) throws IOException;
+
+    /**
+     * Opens a sink for a report file, choosing the format by extension: ".csv" for CSV, ".xlsx" for a workbook
+     * and plain text for anything else.
+     *
+     * @param file The report file. It is replaced if it exists.
+     * @return A sink that writes the file when it is closed.
+     * @throws IOException If the file cannot be created.
+     */
+    static ReportSink open(Path file) throws IOException {
+        String fileName = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (fileName.endsWith(".csv")) {
+            return new CsvReportSink(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+        } else if (fileName.endsWith(".xlsx")) {
+            return new XlsxReportSink(new BufferedOutputStream(Files.newOutputStream(file)));
+        }
+        return new TextReportSink(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,354 @@
+package org.example;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ObservableListBase;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.ToLongFunction;
+
+/**
+ * The ResultTables class shows the records of a comparison in one sortable table per section.
+ * The tables are virtualized, so only the rows on screen get cells. A table's items are positions in a list of the
+ * {@link ReconciliationResult}, held in an int array that sorting and filtering rearrange; a record is only built
+ * from the column stores when a visible cell reads it, and sorting and filtering keep just the compared values.
+ * A quick filter above the tables narrows every table to the bookings whose number contains the filter text.
+ */
+public class ResultTables {
+    private final TextField filterField = new TextField();
+    private final TabPane tabPane = new TabPane();
+    private final VBox view;
+    private final List<Section<?>> sections = new ArrayList<>();
+
+    public ResultTables() {
+        filterField.setPromptText("Filter by booking number");
+        filterField.textProperty().addListener((observable, oldText, newText) -> applyFilter(newText));
+        view = new VBox(5, filterField, tabPane);
+        VBox.setVgrow(tabPane, Priority.ALWAYS);
+    }
+
+    /**
+     * Returns the node that holds the filter field and the tables.
+     */
+    public Node getView() {
+        return view;
+    }
+
+    /**
+     * Replaces the tables with the records of a comparison.
+     *
+     * @param result The result of a comparison.
+     * @param suggestions The suggested matches for its unmatched records, from {@link NearMatchFinder}.
+     */
+    public void show(ReconciliationResult result, List<NearMatchFinder.Suggestion> suggestions) {
+        sections.clear();
+        List<MatchedRecord> differentPrices = result.priceDifferences();
+        List<MatchedRecord> differentFees = result.feeDifferences();
+
+        Section<MatchedRecord> matched = new Section<>("Matched", result.matchedRecords(), record -> record.record().bookingKey());
+        addMatchedPriceColumns(matched);
+        Section<MatchedRecord> prices = new Section<>("Different prices", differentPrices, record -> record.record().bookingKey());
+        addMatchedPriceColumns(prices);
+
+        Section<FlixBusRecord> unmatchedFlixBus = new Section<>("Unmatched FlixBus", result.unmatchedFlixBusRecords(), FlixBusRecord::bookingKey);
+        unmatchedFlixBus.keyColumn("Booking Number");
+        unmatchedFlixBus.amountColumn("Cash", FlixBusRecord::cash);
+        unmatchedFlixBus.amountColumn("Comm Gross", FlixBusRecord::comm_gross);
+
+        Section<ESPRecord> unmatchedESP = new Section<>("Unmatched ESP", result.unmatchedESPRecords(), ESPRecord::bookingKey);
+        unmatchedESP.textColumn("ESP Serial", ESPRecord::serialNumber);
+        unmatchedESP.amountColumn("ESP Amount", ESPRecord::amount);
+        unmatchedESP.amountColumn("ESP Supp Margin", ESPRecord::suplierMargin);
+
+        Section<MatchedRecord> fees = new Section<>(result.feeFallback() ? "Fee differences (fee 0.00)" : "Fee differences", differentFees,
+                record -> record.record().bookingKey());
+        fees.textColumn("ESP Serial", record -> record.espRecord().serialNumber());
+        fees.amountColumn("ESP Service Fee", record -> record.espRecord().serviceFee());
+        fees.keyColumn("Booking Number");
+        fees.amountColumn("Fee Amount", record -> ((FeeRecord) record.record()).getFeeAmount());
+
+        Section<FeeRecord> unmatchedFees = new Section<>("Unmatched fees", result.unmatchedFeeRecords(), FeeRecord::bookingKey);
+        unmatchedFees.keyColumn("Booking Number");
+        unmatchedFees.amountColumn("Fee Amount", FeeRecord::getFeeAmount);
+
+        Section<ESPRecord> unmatchedESPFees = new Section<>("Unmatched ESP fees", result.unmatchedESPFeeRecords(), ESPRecord::bookingKey);
+        unmatchedESPFees.textColumn("ESP Serial", ESPRecord::serialNumber);
+        unmatchedESPFees.amountColumn("ESP Service Fee", ESPRecord::serviceFee);
+
+        Section<NearMatchFinder.Suggestion> suggested = new Section<>("Suggested matches", suggestions,
+                suggestion -> suggestion.espRecord().bookingKey());
+        suggested.textColumn("ESP Serial", suggestion -> suggestion.espRecord().serialNumber());
+        suggested.amountColumn("ESP Amount", suggestion -> suggestion.espRecord().amount());
+        suggested.textColumn("FlixBus Booking Number", suggestion -> suggestion.flixBusRecord().bookingKey().text());
+        suggested.amountColumn("Cash", suggestion -> suggestion.flixBusRecord().cash());
+        suggested.amountColumn("Difference", NearMatchFinder.Suggestion::amountDifference);
+        suggested.textColumn("Reason", NearMatchFinder.Suggestion::reason);
+
+        List<Tab> tabs = new ArrayList<>();
+        for (Section<?> section : sections) {
+            tabs.add(section.tab);
+        }
+        tabPane.getTabs().setAll(tabs);
+        applyFilter(filterField.getText());
+    }
+
+    /**
+     * Removes all tables, so the records of the previous comparison can be garbage collected.
+     */
+    public void clear() {
+        sections.clear();
+        tabPane.getTabs().setAll(List.of());
+    }
+
+    private void applyFilter(String text) {
+        String filter = text == null ? "" : text.strip();
+        for (Section<?> section : sections) {
+            section.filter(filter);
+        }
+    }
+
+    private static void addMatchedPriceColumns(Section<MatchedRecord> section) {
+        section.textColumn("ESP Serial", record -> record.espRecord().serialNumber());
+        section.amountColumn("ESP Amount", record -> record.espRecord().amount());
+        section.amountColumn("ESP Supp Margin", record -> record.espRecord().suplierMargin());
+        section.keyColumn("Booking Number");
+        section.textColumn("Source", record -> record.record() instanceof VoucherFlixBusRecord ? "Voucher" : "FlixBus");
+        section.amountColumn("Amount", record -> amount(record.record()));
+        section.amountColumn("Comm Gross", record -> commission(record.record()));
+    }
+
+    private static long amount(Record record) {
+        return switch (record) {
+            case FlixBusRecord flixBusRecord -> flixBusRecord.cash();
+            case VoucherFlixBusRecord voucherRecord -> voucherRecord.voucher();
+            default -> 0;
+        };
+    }
+
+    private static long commission(Record record) {
+        return switch (record) {
+            case FlixBusRecord flixBusRecord -> flixBusRecord.comm_gross();
+            case VoucherFlixBusRecord voucherRecord -> voucherRecord.comm_gross();
+            default -> 0;
+        };
+    }
+
+    /**
+     * Merge sorts {@code rows[from, to)} by an order of two rows; {@code buffer} holds the same rows on entry.
+     */
+    private static void sort(int[] rows, int[] buffer, int from, int to, IntBinaryOperator order) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i;
+                while (j > from && order.applyAsInt(rows[j - 1], row) > 0) {
+                    rows[j] = rows[j - 1];
+                    j--;
+                }
+                rows[j] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(buffer, rows, from, middle, order);
+        sort(buffer, rows, middle, to, order);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && order.applyAsInt(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Reads the values of one column for some positions of a result list and orders positions by them.
+     */
+    private interface ColumnValues {
+        IntBinaryOperator order(int[] positions, int count);
+    }
+
+    /**
+     * The items of a table: positions in its result list, in display order.
+     */
+    private static final class Positions extends ObservableListBase<Integer> {
+        private int[] positions = new int[0];
+        private int size;
+
+        @Override
+        public Integer get(int index) {
+            Objects.checkIndex(index, size);
+            return positions[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        int[] copy() {
+            return Arrays.copyOf(positions, size);
+        }
+
+        /**
+         * Replaces all positions and tells the table that every row changed.
+         */
+        void replace(int[] newPositions, int newSize) {
+            int[] oldPositions = positions;
+            int oldSize = size;
+            positions = newPositions;
+            size = newSize;
+            if (oldSize == 0 && newSize == 0) {
+                return;
+            }
+            beginChange();
+            if (oldSize > 0) {
+                nextRemove(0, new AbstractList<Integer>() {
+                    @Override
+                    public Integer get(int index) {
+                        return oldPositions[index];
+                    }
+
+                    @Override
+                    public int size() {
+                        return oldSize;
+                    }
+                });
+            }
+            if (newSize > 0) {
+                nextAdd(0, newSize);
+            }
+            endChange();
+        }
+    }
+
+    /**
+     * One tab with a table over a result list. The table's items are positions in the list; filtering and sorting
+     * rearrange them, and the cells read their record from the list.
+     */
+    private final class Section<R> {
+        private final String title;
+        private final List<R> records;
+        private final Function<R, BookingKey> bookingKey;
+        private final Map<TableColumn<Integer, ?>, ColumnValues> columnValues = new HashMap<>();
+        private final Positions rows = new Positions();
+        private final TableView<Integer> table = new TableView<>();
+        private final Tab tab;
+
+        Section(String title, List<R> records, Function<R, BookingKey> bookingKey) {
+            this.title = title;
+            this.records = records;
+            this.bookingKey = bookingKey;
+            table.setItems(rows);
+            table.setSortPolicy(sortedTable -> {
+                int[] positions = rows.copy();
+                sortPositions(positions, positions.length);
+                rows.replace(positions, positions.length);
+                return true;
+            });
+            table.setPlaceholder(new Label("No records."));
+            tab = new Tab(title, table);
+            tab.setClosable(false);
+            sections.add(this);
+        }
+
+        void textColumn(String title, Function<R, String> value) {
+            column(title, value);
+        }
+
+        /**
+         * Adds the booking number column, which sorts numeric booking numbers by value.
+         */
+        void keyColumn(String title) {
+            column(title, bookingKey);
+        }
+
+        void amountColumn(String title, ToLongFunction<R> cents) {
+            TableColumn<Integer, Long> column = new TableColumn<>(title);
+            column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cents.applyAsLong(records.get(cell.getValue()))));
+            column.setCellFactory(c -> new TableCell<>() {
+                @Override
+                protected void updateItem(Long item, boolean empty) {
+                    super.updateItem(item, empty);
+                    setText(empty || item == null ? null : Money.format(item));
+                }
+            });
+            column.setStyle("-fx-alignment: CENTER-RIGHT;");
+            columnValues.put(column, (positions, count) -> {
+                long[] values = new long[records.size()];
+                for (int i = 0; i < count; i++) {
+                    values[positions[i]] = cents.applyAsLong(records.get(positions[i]));
+                }
+                return (a, b) -> Long.compare(values[a], values[b]);
+            });
+            table.getColumns().add(column);
+        }
+
+        private <T extends Comparable<? super T>> void column(String title, Function<R, T> value) {
+            TableColumn<Integer, T> column = new TableColumn<>(title);
+            column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(records.get(cell.getValue()))));
+            Comparator<T> comparator = Comparator.nullsFirst(Comparator.naturalOrder());
+            columnValues.put(column, (positions, count) -> {
+                List<T> values = new ArrayList<>(Collections.nCopies(records.size(), null));
+                for (int i = 0; i < count; i++) {
+                    values.set(positions[i], value.apply(records.get(positions[i])));
+                }
+                return (a, b) -> comparator.compare(values.get(a), values.get(b));
+            });
+            table.getColumns().add(column);
+        }
+
+        void filter(String text) {
+            int[] positions = new int[records.size()];
+            int count = 0;
+            for (int position = 0; position < records.size(); position++) {
+                if (text.isEmpty() || bookingKey.apply(records.get(position)).text().contains(text)) {
+                    positions[count++] = position;
+                }
+            }
+            sortPositions(positions, count);
+            rows.replace(positions, count);
+            tab.setText(title + " (" + count + ")");
+        }
+
+        /**
+         * Sorts positions by the table's sort columns, and by list position where they are equal or unsorted.
+         */
+        private void sortPositions(int[] positions, int count) {
+            IntBinaryOperator order = Integer::compare;
+            List<TableColumn<Integer, ?>> sortOrder = table.getSortOrder();
+            for (int i = sortOrder.size() - 1; i >= 0; i--) {
+                TableColumn<Integer, ?> column = sortOrder.get(i);
+                IntBinaryOperator columnOrder = columnValues.get(column).order(positions, count);
+                boolean descending = column.getSortType() == TableColumn.SortType.DESCENDING;
+                IntBinaryOperator next = order;
+                order = (a, b) -> {
+                    int comparison = descending ? columnOrder.applyAsInt(b, a) : columnOrder.applyAsInt(a, b);
+                    return comparison != 0 ? comparison : next.applyAsInt(a, b);
+                };
+            }
+            sort(positions, Arrays.copyOf(positions, count), 0, count, order);
+        }
+    }
+}
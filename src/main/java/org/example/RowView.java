@@ -0,0 +1,37 @@
+package org.example;
+
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+
+/**
+ * The RowView class is an unmodifiable list whose elements are created from column store rows when they are read.
+ * A comparison result keeps its matched and unmatched rows as row numbers, so only the rows that end up in a report
+ * or on screen become record objects.
+ */
+final class RowView<T> extends AbstractList<T> implements RandomAccess {
+    private final int size;
+    private final IntFunction<T> element;
+
+    /**
+     * Creates a view of the given size.
+     *
+     * @param size The number of elements.
+     * @param element Creates the element at an index.
+     */
+    RowView(int size, IntFunction<T> element) {
+        this.size = size;
+        this.element = element;
+    }
+
+    @Override
+    public T get(int index) {
+        return element.apply(Objects.checkIndex(index, size));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
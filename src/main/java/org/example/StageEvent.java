@@ -0,0 +1,31 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The StageEvent class is the Flight Recorder event of one pipeline stage, recorded by {@link StageTimer}.
+ * The event is disabled unless a recording enables it, for example with
+ * {@code -XX:StartFlightRecording:settings=profile} or by enabling "org.example.ReconciliationStage" in JMC.
+ */
+@Name("org.example.ReconciliationStage")
+@Label("Reconciliation Stage")
+@Category({"DifferenceFinder", "Reconciliation"})
+@Description("Reading, combining, matching or reporting one part of an ESP/FlixBus comparison")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,171 @@
+package org.example;
+
+import jdk.jfr.EventType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * The StageTimer class measures one run of a pipeline stage. Each run is committed as a {@link StageEvent} to
+ * Flight Recorder and, if the system property "differencefinder.stageTimings" is true, added to a summary that
+ * {@link #logSummary()} writes to the log. When neither is enabled, {@link #start} returns a shared timer that
+ * records nothing, so instrumented code does not allocate or read the clock.
+ */
+public final class StageTimer {
+    private static final Logger logger = Logger.getLogger(StageTimer.class.getName());
+    private static final boolean SUMMARY = Boolean.getBoolean("differencefinder.stageTimings");
+    private static final EventType EVENT_TYPE = EventType.getEventType(StageEvent.class);
+    private static final StageTimer DISABLED = new StageTimer(null, null, 0);
+    private static final Totals[] TOTALS = new Totals[Stage.values().length];
+
+    static {
+        for (int i = 0; i < TOTALS.length; i++) {
+            TOTALS[i] = new Totals();
+        }
+    }
+
+    /**
+     * The timed stages of a comparison.
+     */
+    public enum Stage {
+        READ_ESP("Read ESP file"),
+        READ_FLIXBUS("Read FlixBus file"),
+        MERGE_FILES("Merge input files"),
+        COMBINE_ESP("Combine ESP records"),
+        COMBINE_FLIXBUS("Combine FlixBus records"),
+        COMBINE_VOUCHERS("Combine voucher records"),
+        COMBINE_FEES("Combine fee records"),
+        MATCH_BOOKINGS("Match bookings"),
+        MATCH_FEES("Match fees"),
+        SUGGEST_MATCHES("Suggest near matches"),
+        WRITE_REPORT("Write report");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+
+        public String description() {
+            return description;
+        }
+    }
+
+    private final Stage stage;
+    private final StageEvent event;
+    private final long startNanos;
+
+    private StageTimer(Stage stage, StageEvent event, long startNanos) {
+        this.stage = stage;
+        this.event = event;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Starts timing a stage.
+     *
+     * @param stage The stage that starts.
+     * @return A timer to stop when the stage ends.
+     */
+    public static StageTimer start(Stage stage) {
+        if (!SUMMARY && !EVENT_TYPE.isEnabled()) {
+            return DISABLED;
+        }
+        StageEvent event = new StageEvent();
+        event.begin();
+        return new StageTimer(stage, event, System.nanoTime());
+    }
+
+    /**
+     * Ends the stage.
+     *
+     * @param rows The rows the stage produced or processed.
+     * @param bytes The bytes the stage read, or 0 if it read none.
+     */
+    public void stop(long rows, long bytes) {
+        if (this == DISABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage.description();
+            event.rows = rows;
+            event.bytes = bytes;
+            event.commit();
+        }
+        if (SUMMARY) {
+            TOTALS[stage.ordinal()].add(nanos, rows, bytes);
+        }
+    }
+
+    /**
+     * Ends a stage that read a file, using the size of the file as its bytes. The size is only looked up if the
+     * stage is recorded.
+     *
+     * @param rows The rows read from the file.
+     * @param file The file the stage read.
+     */
+    public void stop(long rows, Path file) {
+        if (this == DISABLED) {
+            return;
+        }
+        long bytes;
+        try {
+            bytes = Files.size(file);
+        } catch (IOException e) {
+            bytes = 0;
+        }
+        stop(rows, bytes);
+    }
+
+    /**
+     * Writes the time, rows and throughput of every stage that ran since the last summary to the log, and starts
+     * a new summary. Does nothing unless "differencefinder.stageTimings" is true. Stages that ran at the same time,
+     * such as the two file reads or several batch pairs, are added up, so the times can exceed the wall clock time.
+     */
+    public static void logSummary() {
+        if (!SUMMARY) {
+            return;
+        }
+        StringBuilder text = new StringBuilder("Stage timings:");
+        for (Stage stage : Stage.values()) {
+            Totals totals = TOTALS[stage.ordinal()];
+            long runs = totals.runs.sumThenReset();
+            long nanos = totals.nanos.sumThenReset();
+            long rows = totals.rows.sumThenReset();
+            long bytes = totals.bytes.sumThenReset();
+            if (runs == 0) {
+                continue;
+            }
+            double seconds = Math.max(nanos, 1) / 1e9;
+            text.append(String.format(Locale.ROOT, "%n  %-24s %4d x %10.1f ms %,12d rows %,14.0f rows/s",
+                    stage.description(), runs, nanos / 1e6, rows, rows / seconds));
+            if (bytes > 0) {
+                text.append(String.format(Locale.ROOT, " %,10.1f MB/s", bytes / seconds / (1 << 20)));
+            }
+        }
+        logger.info(text.toString());
+    }
+
+    /**
+     * The summed runs of one stage.
+     */
+    private static final class Totals {
+        final LongAdder runs = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        void add(long nanos, long rows, long bytes) {
+            this.runs.increment();
+            this.nanos.add(nanos);
+            this.rows.add(rows);
+            this.bytes.add(bytes);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * The StringPool class stores each distinct string once and refers to it by a dense int id.
+ * Column stores keep these ids instead of one String reference per row.
+ *
+ * <p>Ids are found through an open-addressing table of ints with linear probing, so the pool costs one
+ * String reference and one or two table slots per distinct string, and no boxed entries.
+ */
+public class StringPool {
+    private static final int EMPTY = -1;
+
+    private String[] values = new String[64];
+    private int[] slots = emptySlots(128);
+    private int size;
+
+    /**
+     * Returns the id of the given string, adding it to the pool if it is new.
+     *
+     * @param value The string to intern.
+     * @return The id of the string.
+     */
+    public int intern(String value) {
+        int mask = slots.length - 1;
+        int slot = mix(value.hashCode()) & mask;
+        while (slots[slot] != EMPTY) {
+            int id = slots[slot];
+            if (values[id].equals(value)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        slots[slot] = size;
+        if (++size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return size - 1;
+    }
+
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        slots = emptySlots(capacity);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(values[id].hashCode()) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int[] emptySlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    /**
+     * Spreads the high bits of a hash code so that strings with similar hashes do not cluster.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,220 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The TextReportSink class writes a report in the plain text layout that is shown on screen.
+ * Rows are formatted into one reused buffer with hand-written padding instead of {@code String.format},
+ * so writing a row creates no strings; only the summary, written once per report, goes through a formatter.
+ * Section titles are written with the first row of a section, and a "No ..." line is written for empty sections.
+ */
+public class TextReportSink implements ReportSink {
+    private static final String NEWLINE = System.lineSeparator();
+    private static final String FLIXBUS_PRICE_DIFFERENCES_HEADER = "Matched Records with Different Prices:\n" + String.format("%-18s| %-12s | %-10s | %-20s | %-10s | %-10s%n",
+            "ESP Serial", "ESP Amount", "ESP Supp Margin", "Flixbus Booking Number", "Cash", "Flixbus Comm Gross");
+    private static final String VOUCHER_PRICE_DIFFERENCES_HEADER = "Matched Records with Different Prices:\n" + String.format("%-18s| %-12s | %-10s | %-20s | %-10s | %-10s%n",
+            "ESP Serial", "ESP Amount", "ESP Supp Margin", "Voucher Booking Number", "Voucher", "Voucher Comm Gross");
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(160);
+    private char[] chars = new char[160];
+    private boolean sectionHasRows;
+    private boolean hasFlixBusPriceDifferences;
+    private boolean comparisonWritten;
+
+    /**
+     * Creates a sink that writes to the given writer. Closing the sink closes the writer.
+     *
+     * @param out Receives the report text.
+     */
+    public TextReportSink(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void summary(ReconciliationResult.Summary summary) throws IOException {
+        out.write(String.format("ESP summary:     %s  |   Suplier Margin:   %14s  |   ESP Total Amount: %10s%n" +
+                        "Flixbus summary: %s  |   Total Comm Gross: %9s  |  Flixbus Total Amount: %s%n" +
+                        "Difference:      %12s    |   Difference:       %18s  |   Difference: %24s%n%n",
+                Money.format(summary.espAmount()), Money.format(summary.suplierMargin()), Money.format(summary.espTotalAmount()),
+                Money.format(summary.flixBusCash()), Money.format(summary.commGross()), Money.format(summary.flixBusTotalAmount()),
+                Money.format(summary.amountDifference()), Money.format(summary.commissionDifference()), Money.format(summary.totalAmountDifference())));
+    }
+
+    @Override
+    public void startSection(Section section) throws IOException {
+        sectionHasRows = false;
+        if (section == Section.PRICE_DIFFERENCES) {
+            hasFlixBusPriceDifferences = false;
+        } else if (section == Section.FEE_DIFFERENCES && comparisonWritten) {
+            out.write('\n');
+        }
+    }
+
+    @Override
+    public void endSection(Section section) throws IOException {
+        switch (section) {
+            case PRICE_DIFFERENCES -> {
+                if (!hasFlixBusPriceDifferences) {
+                    out.write("All matched records have the same price.\n");
+                }
+            }
+            case UNMATCHED_FLIXBUS -> writeIfEmpty("\nNo unmatched FlixBus records.\n");
+            case UNMATCHED_ESP -> {
+                writeIfEmpty("\nNo unmatched ESP records.\n");
+                comparisonWritten = true;
+            }
+            case FEE_DIFFERENCES -> writeIfEmpty("No matched fees with different amounts.\n");
+            case UNMATCHED_FEES -> writeIfEmpty("\nNo unmatched FlixBus Fee records.\n");
+            case UNMATCHED_ESP_FEES -> writeIfEmpty("\nNo unmatched ESP Fee records.\n");
+        }
+    }
+
+    @Override
+    public void priceDifference(ESPRecord espRecord, FlixBusRecord flixBusRecord) throws IOException {
+        if (!hasFlixBusPriceDifferences) {
+            out.write(FLIXBUS_PRICE_DIFFERENCES_HEADER);
+            hasFlixBusPriceDifferences = true;
+        }
+        line.setLength(0);
+        pad(espRecord.serialNumber(), 14).append(" | ");
+        pad(espRecord.amount(), 19).append(" | ");
+        pad(espRecord.suplierMargin(), 26).append(" | ");
+        pad(flixBusRecord.bookingKey().text(), 30).append(" | ");
+        pad(flixBusRecord.cash(), 10).append(" | ");
+        pad(flixBusRecord.comm_gross(), 10).append(NEWLINE);
+        writeLine();
+    }
+
+    /**
+     * As in the original report, the voucher header is repeated before every voucher difference,
+     * but only if FlixBus differences were written.
+     */
+    @Override
+    public void priceDifference(ESPRecord espRecord, VoucherFlixBusRecord voucherRecord) throws IOException {
+        if (hasFlixBusPriceDifferences) {
+            out.write(VOUCHER_PRICE_DIFFERENCES_HEADER);
+        }
+        line.setLength(0);
+        pad(espRecord.serialNumber(), 13).append(" | ");
+        pad(espRecord.amount(), 18).append(" | ");
+        pad(espRecord.suplierMargin(), 25).append(" | ");
+        pad(voucherRecord.bookingKey().text(), 30).append(" | ");
+        pad(voucherRecord.voucher(), 10).append(" | ");
+        pad(voucherRecord.comm_gross(), 10).append(NEWLINE);
+        writeLine();
+    }
+
+    /**
+     * Rows without a booking number open the section but are not written.
+     */
+    @Override
+    public void unmatchedFlixBusRecord(FlixBusRecord record) throws IOException {
+        writeTitle("\nUnmatched FlixBus Records:\n");
+        if (record.bookingKey().text().isEmpty()) {
+            return;
+        }
+        line.setLength(0);
+        pad(record.bookingKey().text(), 20).append(" | ");
+        pad(record.cash(), 10).append(" | ");
+        pad(record.comm_gross(), 10).append(NEWLINE);
+        writeLine();
+    }
+
+    @Override
+    public void unmatchedESPRecord(ESPRecord record) throws IOException {
+        writeTitle("\nUnmatched ESP Records:\n");
+        line.setLength(0);
+        pad(record.serialNumber(), 20).append(" | ");
+        pad(record.amount(), 10).append(" | ");
+        pad(record.suplierMargin(), 10).append(NEWLINE);
+        writeLine();
+    }
+
+    @Override
+    public void feeFallback() throws IOException {
+        out.write("No matched fees found combing esp fee with flixbus record and putting feeAmount to 0.00.\n");
+    }
+
+    @Override
+    public void feeDifference(ESPRecord espRecord, FeeRecord fee) throws IOException {
+        writeTitle("\nMatched Fee Records with Different Amounts:\n");
+        line.setLength(0);
+        pad(espRecord.serialNumber(), 20).append(" | ");
+        pad(espRecord.serviceFee(), 10).append(" | ");
+        pad(fee.bookingKey().text(), 20).append(" | ");
+        pad(fee.getFeeAmount(), 10).append(NEWLINE);
+        writeLine();
+    }
+
+    @Override
+    public void unmatchedFeeRecord(FeeRecord record) throws IOException {
+        writeTitle("\nUnmatched FlixBus Fee Records:\n");
+        line.setLength(0);
+        pad(record.bookingKey().text(), 21).append(" | ");
+        Money.appendTo(line, record.getFeeAmount()).append(NEWLINE);
+        writeLine();
+    }
+
+    @Override
+    public void unmatchedESPFeeRecord(ESPRecord record) throws IOException {
+        writeTitle("\nUnmatched ESP Fee Records:\n");
+        line.setLength(0);
+        pad(record.serialNumber(), 20).append(" | ");
+        pad(record.serviceFee(), 10).append(NEWLINE);
+        writeLine();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeTitle(String title) throws IOException {
+        if (!sectionHasRows) {
+            out.write(title);
+            sectionHasRows = true;
+        }
+    }
+
+    private void writeIfEmpty(String text) throws IOException {
+        if (!sectionHasRows) {
+            out.write(text);
+        }
+    }
+
+    /**
+     * Appends a value left-aligned in a column of the given width, like "%-Ns". Longer values are not cut.
+     */
+    private StringBuilder pad(String value, int width) {
+        int start = line.length();
+        line.append(value);
+        return padFrom(start, width);
+    }
+
+    private StringBuilder pad(long cents, int width) {
+        int start = line.length();
+        Money.appendTo(line, cents);
+        return padFrom(start, width);
+    }
+
+    private StringBuilder padFrom(int start, int width) {
+        for (int i = line.length() - start; i < width; i++) {
+            line.append(' ');
+        }
+        return line;
+    }
+
+    /**
+     * Copies the line buffer into a reused char array, since {@link Writer#append(CharSequence)} would create a String.
+     */
+    private void writeLine() throws IOException {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+    }
+}
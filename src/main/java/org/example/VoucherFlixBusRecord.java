@@ -1,15 +1,24 @@
 package org.example;
 
+/**
+ * A voucher-paid row of the FlixBus export. All amounts are in cents.
+ */
 public class VoucherFlixBusRecord implements Record {
     private final String bookingNumber;
+    private final BookingKey bookingKey;
     private final String tripServices;
-    private final double voucher;
+    private final long voucher;
 
-    private final double commGross;
-    private final double totalAmount;
+    private final long commGross;
+    private final long totalAmount;
 
-    public VoucherFlixBusRecord(String bookingNumber, String tripServices,  double voucher, double commGross, double totalAmount) {
+    public VoucherFlixBusRecord(String bookingNumber, String tripServices,  long voucher, long commGross, long totalAmount) {
+        this(bookingNumber, BookingKey.of(bookingNumber), tripServices, voucher, commGross, totalAmount);
+    }
+
+    public VoucherFlixBusRecord(String bookingNumber, BookingKey bookingKey, String tripServices, long voucher, long commGross, long totalAmount) {
         this.bookingNumber = bookingNumber;
+        this.bookingKey = bookingKey;
         this.tripServices = tripServices;
         this.voucher = voucher;
         this.commGross = commGross;
@@ -21,22 +30,27 @@ public class VoucherFlixBusRecord implements Record {
         return bookingNumber;
     }
 
+    @Override
+    public BookingKey bookingKey() {
+        return bookingKey;
+    }
+
     public String tripServices() {
         return tripServices;
     }
 
 
-    public double voucher() {
+    public long voucher() {
         return voucher;
     }
 
 
 
-    public double comm_gross() {
+    public long comm_gross() {
         return commGross;
     }
 
-    public double totalAmount() {
+    public long totalAmount() {
         return totalAmount;
     }
 }
@@ -0,0 +1,362 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The WatchFolderDaemon class keeps one JVM running and reconciles every ESP/FlixBus pair dropped into a directory,
+ * so only the first pair pays for class loading and JIT warm-up. As in {@link BatchReconciler}, an ESP CSV file and a
+ * FlixBus workbook with the same base name form a pair, and its report is written next to them as
+ * "name.report.txt" (or .csv, .xlsx). A report only appears once it is complete, so it never looks done early.
+ * <p>
+ * A file counts as complete once its size and modification time have not changed for the debounce interval, so
+ * files that are still being copied are not read. A pair is reconciled when both files are complete and its report
+ * is missing or older than either file; a pair that failed waits until one of its files changes. Complete pairs
+ * wait in a bounded queue for a fixed number of workers. Only the workers hold parsed rows, and while the queue is
+ * full further pairs stay on disk and are offered again on the next tick, so a burst of drops cannot exhaust the heap.
+ */
+public class WatchFolderDaemon implements Closeable {
+    private static final Logger logger = Logger.getLogger(WatchFolderDaemon.class.getName());
+    private static final String USAGE = "Usage: --watch <directory> [--threads <count>] [--queue <pairs>] [--debounce <milliseconds>] [--format text|csv|xlsx]";
+    private static final String REPORT_MARKER = ".report.";
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private final Path directory;
+    private final String reportExtension;
+    private final long debounceNanos;
+    private final long tickMillis;
+    private final int threads;
+    private final WatchService watchService;
+    private final BlockingQueue<BatchReconciler.Pair> queue;
+    private final ExecutorService workers;
+    private final ComparingFiles engine = new ComparingFiles();
+    // Cancelled by close(), which stops the parses and comparisons of the workers
+    private final ProgressToken cancellation = new ProgressToken(null);
+    private final Set<String> queuedNames = ConcurrentHashMap.newKeySet();
+    // When the last failed reconciliation of a pair read its files
+    private final Map<String, Long> failures = new ConcurrentHashMap<>();
+    // Files that changed recently, only used by the watching thread
+    private final Map<Path, FileState> pending = new HashMap<>();
+
+    /**
+     * The size and modification time of a file when it was last seen to change.
+     */
+    private record FileState(long size, long modified, long changedAt) {
+    }
+
+    /**
+     * Creates a daemon. Its workers are started by {@link #watch()}, so nothing is reconciled before that.
+     *
+     * @param directory The drop directory.
+     * @param threads Number of pairs reconciled at the same time.
+     * @param queueCapacity Number of complete pairs that may wait for a worker.
+     * @param debounceMillis How long a file must stay unchanged before it is read.
+     * @param reportExtension Extension of the report files, which selects their format: "txt", "csv" or "xlsx".
+     * @throws IOException If the directory cannot be watched.
+     */
+    public WatchFolderDaemon(Path directory, int threads, int queueCapacity, long debounceMillis, String reportExtension) throws IOException {
+        this.directory = directory.toAbsolutePath();
+        this.reportExtension = reportExtension;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.tickMillis = Math.max(50, debounceMillis / 4);
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.watchService = this.directory.getFileSystem().newWatchService();
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Runs the daemon from command line arguments until the JVM is stopped.
+     *
+     * @param args The arguments following "--watch".
+     * @return The process exit code: 1 if the directory cannot be watched, 2 for invalid arguments.
+     */
+    public static int run(String[] args) {
+        Path directory = null;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+        String format = "txt";
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--queue" -> queueCapacity = Integer.parseInt(args[++i]);
+                    case "--debounce" -> debounceMillis = Long.parseLong(args[++i]);
+                    case "--format" -> format = BatchReconciler.reportExtension(args[++i]);
+                    default -> directory = Paths.get(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (directory == null || !Files.isDirectory(directory) || threads < 1 || queueCapacity < 1 || debounceMillis < 0) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        try (WatchFolderDaemon daemon = new WatchFolderDaemon(directory, threads, queueCapacity, debounceMillis, format)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+            daemon.watch();
+            return 0;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not watch " + directory, e);
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * Starts the workers and watches the directory until the daemon is closed. Pairs already in the directory are
+     * picked up first. A daemon is watched once.
+     *
+     * @throws IOException If the directory cannot be read or is removed.
+     * @throws InterruptedException If the watching thread is interrupted.
+     */
+    public void watch() throws IOException, InterruptedException {
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            logger.info(() -> "Watching " + directory + " for ESP/FlixBus pairs");
+            scan(System.nanoTime());
+            while (true) {
+                WatchKey key = watchService.poll(tickMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(System.nanoTime()); // Events were lost, so look at every file again
+                        } else {
+                            track(directory.resolve((Path) event.context()), System.nanoTime());
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("The drop directory is no longer accessible: " + directory);
+                    }
+                }
+                dispatchCompleteFiles(System.nanoTime());
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close(), normally from the shutdown hook
+        }
+    }
+
+    /**
+     * Stops watching and stops the workers. A pair that is being reconciled stops at the next progress checkpoint of
+     * its parses or comparison and leaves its report as it was.
+     */
+    @Override
+    public void close() {
+        cancellation.cancel();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not close the watch service", e);
+        }
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the debounce interval of every input file in the directory.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    void scan(long now) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                track(file, now);
+            }
+        }
+    }
+
+    /**
+     * Starts or restarts the debounce interval of an input file.
+     */
+    private void track(Path file, long now) {
+        if (!isInputFile(file.getFileName().toString())) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            pending.put(file, new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), now));
+        } catch (NoSuchFileException e) {
+            pending.remove(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read the attributes of " + file, e);
+        }
+    }
+
+    /**
+     * Queues the pairs of files whose debounce interval has passed without a change.
+     * A file that is still changing starts a new interval.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    void dispatchCompleteFiles(long now) {
+        Iterator<Map.Entry<Path, FileState>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, FileState> entry = entries.next();
+            FileState state = entry.getValue();
+            if (now - state.changedAt() < debounceNanos) {
+                continue;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                entries.remove(); // Deleted or renamed while it was being written
+                continue;
+            }
+            if (attributes.size() != state.size() || attributes.lastModifiedTime().toMillis() != state.modified()) {
+                entry.setValue(new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), now));
+            } else if (offerPair(entry.getKey())) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Queues the pair of a complete file if its partner is complete too and the pair has changed since it was last
+     * read: its report is missing or older than either file, and it did not fail with the same files before.
+     *
+     * @return False if the pair should be offered again on the next tick, because it is still queued or running,
+     *         or because the queue is full.
+     */
+    private boolean offerPair(Path file) {
+        String name = BatchReconciler.baseName(file.getFileName().toString());
+        List<BatchReconciler.Pair> pairs;
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> namesakes = files.filter(other -> isInputFile(other.getFileName().toString())
+                    && BatchReconciler.baseName(other.getFileName().toString()).equals(name)).toList();
+            pairs = BatchReconciler.pairFiles(namesakes, new ArrayList<>());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not look for the partner of " + file, e);
+            return true;
+        }
+        if (pairs.isEmpty()) {
+            return true; // The partner is offered once it exists and is complete
+        }
+        Path espFile = pairs.getFirst().espFile();
+        Path flixBusFile = pairs.getFirst().flixBusFile();
+        if (pending.containsKey(file.equals(espFile) ? flixBusFile : espFile)) {
+            return true; // The partner is offered once it is complete
+        }
+        if (queuedNames.contains(name)) {
+            return false; // Decide once the running reconciliation has written its report
+        }
+        try {
+            long lastChange = Math.max(Files.getLastModifiedTime(espFile).toMillis(), Files.getLastModifiedTime(flixBusFile).toMillis());
+            Long failedAt = failures.get(name);
+            if (failedAt != null && lastChange <= failedAt) {
+                return true;
+            }
+            Path report = reportFile(name);
+            if (Files.exists(report) && Files.getLastModifiedTime(report).toMillis() > lastChange) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not compare the files of " + name + " with its report", e);
+            return true;
+        }
+        queuedNames.add(name);
+        if (!queue.offer(new BatchReconciler.Pair(name, espFile, flixBusFile))) {
+            queuedNames.remove(name);
+            logger.fine(() -> "Queue full, " + name + " waits on disk");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes pairs from the queue and reconciles them until the daemon is closed.
+     */
+    private void work() {
+        try {
+            while (true) {
+                reconcile(queue.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the next queued pair without waiting, or null, for a caller that reconciles pairs itself instead of
+     * calling {@link #watch()}.
+     */
+    BatchReconciler.Pair nextQueuedPair() {
+        return queue.poll();
+    }
+
+    /**
+     * Reconciles a queued pair and writes its report. A report is dated to when its files were read, so a file that
+     * changes while the pair is reconciled is newer than the report and gets read again.
+     */
+    void reconcile(BatchReconciler.Pair pair) {
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            long rows = BatchReconciler.reconcile(engine, pair, reportFile(pair.name()), directory, false, cancellation,
+                    FileTime.fromMillis(startMillis));
+            failures.remove(pair.name());
+            logger.info(() -> "Reconciled " + pair.name() + ", " + rows + " rows in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (CancellationException e) {
+            logger.info(() -> "Stopped reconciling " + pair.name() + ", the daemon is closing");
+        } catch (IOException | RuntimeException e) {
+            failures.put(pair.name(), startMillis);
+            logger.log(Level.SEVERE, "Could not reconcile " + pair.name() + ", waiting for its files to change", e);
+        } finally {
+            queuedNames.remove(pair.name());
+        }
+    }
+
+    private Path reportFile(String name) {
+        return directory.resolve(name + REPORT_MARKER + reportExtension);
+    }
+
+    /**
+     * Returns whether a file name is an ESP or FlixBus input rather than a report, a hidden file or an Excel lock file.
+     */
+    private static boolean isInputFile(String fileName) {
+        return !fileName.contains(REPORT_MARKER) && !fileName.startsWith(".") && !fileName.startsWith("~$")
+                && !"UNKNOWN".equals(FileProcessor.determineFileType(fileName));
+    }
+}
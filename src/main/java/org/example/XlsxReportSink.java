@@ -0,0 +1,232 @@
+package org.example;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The XlsxReportSink class writes a report as an Excel workbook with a summary sheet and one sheet per section.
+ * It uses POI's streaming SXSSF workbook, which keeps only a small window of rows in memory and flushes older rows
+ * to a temporary file, so large reports do not need a heap-sized workbook. Amounts are numeric cells.
+ * A section with more rows than a sheet can hold continues on further sheets, such as "Unmatched ESP (2)",
+ * each with the section's header row.
+ */
+public class XlsxReportSink implements ReportSink {
+    private static final int ROW_WINDOW = 100;
+
+    private final OutputStream out;
+    private final int rowsPerSheet;
+    private final SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+    private final CellStyle amountStyle;
+    private final CellStyle headerStyle;
+    private final Sheet summarySheet;
+    private Sheet sheet;
+    private int rowIndex;
+    private String sheetName;
+    private String[] headerTitles;
+    private int sheetCount;
+
+    /**
+     * Creates a sink that writes the workbook to the given stream when it is closed. Closing the sink closes the stream.
+     *
+     * @param out Receives the workbook.
+     */
+    public XlsxReportSink(OutputStream out) {
+        this(out, SpreadsheetVersion.EXCEL2007.getMaxRows());
+    }
+
+    /**
+     * Creates a sink whose sheets hold at most the given number of rows, header included.
+     */
+    XlsxReportSink(OutputStream out, int rowsPerSheet) {
+        this.out = out;
+        this.rowsPerSheet = rowsPerSheet;
+        amountStyle = workbook.createCellStyle();
+        amountStyle.setDataFormat(workbook.createDataFormat().getFormat("0.00"));
+        Font bold = workbook.createFont();
+        bold.setBold(true);
+        headerStyle = workbook.createCellStyle();
+        headerStyle.setFont(bold);
+        summarySheet = workbook.createSheet("Summary");
+    }
+
+    @Override
+    public void summary(ReconciliationResult.Summary summary) {
+        sheet = summarySheet;
+        rowIndex = 0;
+        header("", "ESP", "FlixBus", "Difference");
+        summaryRow("Amount", summary.espAmount(), summary.flixBusCash(), summary.amountDifference());
+        summaryRow("Commission", summary.suplierMargin(), summary.commGross(), summary.commissionDifference());
+        summaryRow("Total amount", summary.espTotalAmount(), summary.flixBusTotalAmount(), summary.totalAmountDifference());
+    }
+
+    @Override
+    public void startSection(Section section) {
+        switch (section) {
+            case PRICE_DIFFERENCES -> {
+                startSection("Price differences", "ESP Serial", "ESP Amount", "ESP Supp Margin", "Booking Number", "Source", "Amount", "Comm Gross");
+            }
+            case UNMATCHED_FLIXBUS -> {
+                startSection("Unmatched FlixBus", "Booking Number", "Cash", "Comm Gross");
+            }
+            case UNMATCHED_ESP -> {
+                startSection("Unmatched ESP", "ESP Serial", "ESP Amount", "ESP Supp Margin");
+            }
+            case FEE_DIFFERENCES -> {
+                startSection("Fee differences", "ESP Serial", "ESP Service Fee", "Booking Number", "Fee Amount");
+            }
+            case UNMATCHED_FEES -> {
+                startSection("Unmatched fees", "Booking Number", "Fee Amount");
+            }
+            case UNMATCHED_ESP_FEES -> {
+                startSection("Unmatched ESP fees", "ESP Serial", "ESP Service Fee");
+            }
+        }
+    }
+
+    @Override
+    public void endSection(Section section) {
+    }
+
+    @Override
+    public void priceDifference(ESPRecord espRecord, FlixBusRecord flixBusRecord) {
+        Row row = nextRow();
+        text(row, 0, espRecord.serialNumber());
+        amount(row, 1, espRecord.amount());
+        amount(row, 2, espRecord.suplierMargin());
+        text(row, 3, flixBusRecord.bookingKey().text());
+        text(row, 4, "FlixBus");
+        amount(row, 5, flixBusRecord.cash());
+        amount(row, 6, flixBusRecord.comm_gross());
+    }
+
+    @Override
+    public void priceDifference(ESPRecord espRecord, VoucherFlixBusRecord voucherRecord) {
+        Row row = nextRow();
+        text(row, 0, espRecord.serialNumber());
+        amount(row, 1, espRecord.amount());
+        amount(row, 2, espRecord.suplierMargin());
+        text(row, 3, voucherRecord.bookingKey().text());
+        text(row, 4, "Voucher");
+        amount(row, 5, voucherRecord.voucher());
+        amount(row, 6, voucherRecord.comm_gross());
+    }
+
+    @Override
+    public void unmatchedFlixBusRecord(FlixBusRecord record) {
+        Row row = nextRow();
+        text(row, 0, record.bookingKey().text());
+        amount(row, 1, record.cash());
+        amount(row, 2, record.comm_gross());
+    }
+
+    @Override
+    public void unmatchedESPRecord(ESPRecord record) {
+        Row row = nextRow();
+        text(row, 0, record.serialNumber());
+        amount(row, 1, record.amount());
+        amount(row, 2, record.suplierMargin());
+    }
+
+    /**
+     * Notes the fallback on the summary sheet, below the totals.
+     */
+    @Override
+    public void feeFallback() {
+        Row row = summarySheet.createRow(5);
+        text(row, 0, "No matched fees found, every FlixBus booking was compared with a fee of 0.00.");
+    }
+
+    @Override
+    public void feeDifference(ESPRecord espRecord, FeeRecord fee) {
+        Row row = nextRow();
+        text(row, 0, espRecord.serialNumber());
+        amount(row, 1, espRecord.serviceFee());
+        text(row, 2, fee.bookingKey().text());
+        amount(row, 3, fee.getFeeAmount());
+    }
+
+    @Override
+    public void unmatchedFeeRecord(FeeRecord record) {
+        Row row = nextRow();
+        text(row, 0, record.bookingKey().text());
+        amount(row, 1, record.getFeeAmount());
+    }
+
+    @Override
+    public void unmatchedESPFeeRecord(ESPRecord record) {
+        Row row = nextRow();
+        text(row, 0, record.serialNumber());
+        amount(row, 1, record.serviceFee());
+    }
+
+    /**
+     * Writes the workbook and deletes the temporary files of the streamed rows.
+     */
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            workbook.write(out);
+        } finally {
+            workbook.close();
+        }
+    }
+
+    private void startSection(String name, String... titles) {
+        sheetName = name;
+        headerTitles = titles;
+        sheetCount = 1;
+        startSheet(name);
+    }
+
+    private void startSheet(String name) {
+        sheet = workbook.createSheet(name);
+        sheet.createFreezePane(0, 1);
+        rowIndex = 0;
+        header(headerTitles);
+    }
+
+    /**
+     * Creates the next row of the current section, continuing on a new sheet when the current one is full.
+     */
+    private Row nextRow() {
+        if (rowIndex >= rowsPerSheet) {
+            startSheet(sheetName + " (" + ++sheetCount + ")");
+        }
+        return sheet.createRow(rowIndex++);
+    }
+
+    private void header(String... titles) {
+        Row row = sheet.createRow(rowIndex++);
+        for (int column = 0; column < titles.length; column++) {
+            Cell cell = row.createCell(column);
+            cell.setCellValue(titles[column]);
+            cell.setCellStyle(headerStyle);
+        }
+    }
+
+    private void summaryRow(String title, long esp, long flixBus, long difference) {
+        Row row = sheet.createRow(rowIndex++);
+        text(row, 0, title);
+        amount(row, 1, esp);
+        amount(row, 2, flixBus);
+        amount(row, 3, difference);
+    }
+
+    private static void text(Row row, int column, String value) {
+        row.createCell(column).setCellValue(value);
+    }
+
+    private void amount(Row row, int column, long cents) {
+        Cell cell = row.createCell(column);
+        cell.setCellValue(cents / 100.0);
+        cell.setCellStyle(amountStyle);
+    }
+}
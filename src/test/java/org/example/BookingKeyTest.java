@@ -0,0 +1,59 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookingKeyTest {
+
+    @Test
+    void canonicalizesNumbersLikeBigDecimal() {
+        assertEquals("123", BookingKey.of("00123").text());
+        assertEquals("123", BookingKey.of("1.23E2").text());
+        assertEquals("123.0", BookingKey.of("123.0").text());
+        assertEquals("0", BookingKey.of("0000").text());
+        assertEquals("-5", BookingKey.of("-5").text());
+        assertEquals("ABC-7", BookingKey.of("ABC-7").text());
+        assertEquals("12-34", BookingKey.of("12-34").text()); // looks numeric but is not a number
+        assertEquals("", BookingKey.of("").text());
+    }
+
+    @Test
+    void packsUpToEighteenDigits() {
+        assertEquals(123, BookingKey.of("00123").number());
+        assertEquals(999_999_999_999_999_999L, BookingKey.of("999999999999999999").number());
+        assertFalse(BookingKey.of("1000000000000000000").isNumeric());
+        assertFalse(BookingKey.of("123.0").isNumeric());
+        assertFalse(BookingKey.of("-5").isNumeric());
+        assertFalse(BookingKey.of("").isNumeric());
+    }
+
+    @Test
+    void equalsAndHashCodeFollowTheCanonicalForm() {
+        assertEquals(BookingKey.of("00123"), BookingKey.of("1.23E2"));
+        assertEquals(BookingKey.of("00123").hashCode(), BookingKey.of("1.23E2").hashCode());
+        assertEquals(BookingKey.of("ABC"), BookingKey.of("ABC"));
+        assertNotEquals(BookingKey.of("123"), BookingKey.of("123.0"));
+        assertNotEquals(BookingKey.of("abc"), BookingKey.of("ABC"));
+    }
+
+    @Test
+    void sortsNumericKeysByValueBeforeTextKeys() {
+        List<BookingKey> keys = new ArrayList<>();
+        for (String raw : new String[]{"B", "100", "9", "A", "1000000000000000000", "010"}) {
+            keys.add(BookingKey.of(raw));
+        }
+        Collections.sort(keys);
+
+        List<String> texts = keys.stream().map(BookingKey::text).toList();
+        assertEquals(List.of("9", "10", "100", "1000000000000000000", "A", "B"), texts);
+        assertTrue(BookingKey.of("999999999999999999").compareTo(BookingKey.of("1000000000000000000")) < 0);
+    }
+}
@@ -0,0 +1,92 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ColumnMergerTest {
+
+    @Test
+    void sumsRowsWithEqualKeysAcrossFiles() {
+        FlixBusColumns first = new FlixBusColumns();
+        first.add(new FlixBusRecord("B7", "Ticket", 100, 10, 1, 100));
+        first.add(new FlixBusRecord("20", "Ticket", 200, 20, 2, 200));
+        first.add(new FlixBusRecord("020", "Ticket", 300, 30, 3, 300));
+        FlixBusColumns second = new FlixBusColumns();
+        second.add(new FlixBusRecord("20", "Ticket", 400, 40, 4, 400));
+        second.add(new FlixBusRecord("3", "Ticket", 500, 50, 5, 500));
+
+        FlixBusColumns merged = ColumnMerger.merge(List.of(
+                ColumnMerger.combineSorted(first, FlixBusColumns::new),
+                ColumnMerger.combineSorted(second, FlixBusColumns::new)), new FlixBusColumns());
+
+        // Numeric keys come first in value order; the first file keeps its booking number
+        assertEquals(List.of("3", "20", "B7"), bookingNumbers(merged));
+        assertEquals(900, merged.cash(1));
+        assertEquals(90, merged.voucher(1));
+        assertEquals(9, merged.commGross(1));
+        assertEquals(500, merged.cash(0));
+        assertEquals(100, merged.cash(2));
+    }
+
+    @Test
+    void combinedEspRowsCarryTheSummedSupplierMarginAsServiceFee() {
+        EspColumns first = new EspColumns();
+        first.add("5", 1000, 99, 10);
+        first.add("6", 2000, 99, 20);
+        EspColumns second = new EspColumns();
+        second.add("005", 500, 50, 30);
+
+        EspColumns merged = ColumnMerger.merge(List.of(
+                ColumnMerger.combineSorted(first, EspColumns::new),
+                ColumnMerger.combineSorted(second, EspColumns::new)), new EspColumns());
+
+        assertEquals(List.of("5", "6"), bookingNumbers(merged));
+        assertEquals(1500, merged.amount(0));
+        assertEquals(40, merged.serviceFee(0)); // Not 149: the combined row takes the supplier margins
+        assertEquals(40, merged.suplierMargin(0));
+        assertEquals(99, merged.serviceFee(1)); // A booking found once keeps its service fee
+    }
+
+    @Test
+    void mergesLikeTheConcatenatedFilesCombined() {
+        SplittableRandom random = new SplittableRandom(5);
+        List<EspColumns> files = new ArrayList<>();
+        EspColumns concatenated = new EspColumns();
+        for (int file = 0; file < 4; file++) {
+            EspColumns rows = new EspColumns();
+            for (int i = 0; i < 200; i++) {
+                int booking = random.nextInt(150);
+                String serial = switch (random.nextInt(3)) {
+                    case 0 -> Integer.toString(booking);
+                    case 1 -> "00" + booking;
+                    default -> "X" + booking;
+                };
+                long serviceFee = random.nextInt(2) == 0 ? 0 : 99;
+                rows.add(serial, random.nextInt(10_000), serviceFee, random.nextInt(500));
+            }
+            files.add(ColumnMerger.combineSorted(rows, EspColumns::new));
+            concatenated.addAll(rows);
+        }
+
+        EspColumns merged = ColumnMerger.merge(files, new EspColumns());
+        EspColumns expected = ColumnMerger.combineSorted(concatenated, EspColumns::new);
+
+        assertEquals(expected.size(), merged.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.toRecord(row), merged.toRecord(row));
+        }
+    }
+
+    private static List<String> bookingNumbers(ColumnStore<?> rows) {
+        List<String> bookingNumbers = new ArrayList<>();
+        for (int row = 0; row < rows.size(); row++) {
+            bookingNumbers.add(rows.bookingNumber(row));
+        }
+        return bookingNumbers;
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnStoreTest {
+    private static final List<String> BOOKING_NUMBERS = List.of("123", "00123", "1.23E2", "ABC-7", "", "0");
+
+    @Test
+    void keepsBookingNumbersAsWrittenNextToTheirKeys() {
+        EspColumns columns = columns();
+
+        for (int row = 0; row < BOOKING_NUMBERS.size(); row++) {
+            assertEquals(BOOKING_NUMBERS.get(row), columns.bookingNumber(row));
+            assertEquals(BookingKey.of(BOOKING_NUMBERS.get(row)), columns.bookingKey(row));
+        }
+        assertEquals(columns.key(0), columns.key(1));
+        assertEquals(columns.key(0), columns.key(2));
+        assertEquals("123", columns.keyText(1));
+    }
+
+    @Test
+    void copiesAndRoundTripsBookingNumbers() throws IOException {
+        EspColumns columns = columns();
+        EspColumns copy = new EspColumns();
+        copy.addAll(columns);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        columns.write(new DataOutputStream(bytes));
+        EspColumns read = new EspColumns();
+        read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        for (EspColumns store : List.of(copy, read)) {
+            assertEquals(columns.size(), store.size());
+            for (int row = 0; row < columns.size(); row++) {
+                assertEquals(columns.bookingNumber(row), store.bookingNumber(row));
+                assertEquals(columns.bookingKey(row), store.bookingKey(row));
+                assertEquals(row, store.amount(row));
+            }
+        }
+    }
+
+    @Test
+    void readsRowsIntoAStoreWithOtherStrings() throws IOException {
+        FlixBusColumns written = new FlixBusColumns();
+        written.add(new FlixBusRecord("B-2", "Ticket", 100, 0, 10, 100));
+        written.add(new FlixBusRecord("0042", "Seat", 200, 0, 20, 200));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        written.write(new DataOutputStream(bytes));
+
+        FlixBusColumns read = new FlixBusColumns();
+        read.add(new FlixBusRecord("A-1", "Seat", 1, 0, 0, 1));
+        read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(3, read.size());
+        assertEquals(List.of("A-1", "B-2", "0042"), List.of(read.bookingNumber(0), read.bookingNumber(1), read.bookingNumber(2)));
+        assertEquals(List.of("Seat", "Ticket", "Seat"), List.of(read.tripServices(0), read.tripServices(1), read.tripServices(2)));
+        assertEquals("B-2", read.keyText(1));
+        assertEquals(200, read.cash(2));
+    }
+
+    @Test
+    void appendsStoresWithTheirOwnStringIds() {
+        EspColumns first = new EspColumns();
+        first.add("X-1", 1, 2, 3);
+        first.add("007", 4, 5, 6);
+        EspColumns second = new EspColumns();
+        second.add("00042", 7, 8, 9);
+        second.add("X-1", 10, 11, 12);
+        second.add("Y-2", 13, 14, 15);
+
+        EspColumns all = new EspColumns();
+        all.addAll(first);
+        all.addAll(second);
+
+        assertEquals(5, all.size());
+        assertEquals(List.of("X-1", "007", "00042", "X-1", "Y-2"),
+                List.of(all.bookingNumber(0), all.bookingNumber(1), all.bookingNumber(2), all.bookingNumber(3), all.bookingNumber(4)));
+        assertEquals(all.key(0), all.key(3));
+        assertEquals("42", all.keyText(2));
+        assertEquals(13, all.amount(4));
+        assertEquals(14, all.serviceFee(4));
+        assertEquals(15, all.suplierMargin(4));
+    }
+
+    @Test
+    void ordersRowsByBookingNumberText() {
+        SplittableRandom random = new SplittableRandom(3);
+        EspColumns columns = new EspColumns();
+        List<String> bookingNumbers = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            String bookingNumber = switch (random.nextInt(5)) {
+                case 0 -> Long.toString(random.nextLong(1_000_000_000_000_000_000L));
+                case 1 -> Long.toString(random.nextLong(1_000));
+                case 2 -> "0" + random.nextInt(100);
+                case 3 -> "X" + random.nextInt(100);
+                default -> Long.toString(random.nextLong(10_000_000));
+            };
+            bookingNumbers.add(bookingNumber);
+            columns.add(bookingNumber, i, 0, 0);
+        }
+
+        int[] rows = columns.rowsByBookingNumber();
+
+        List<String> sorted = new ArrayList<>(bookingNumbers);
+        Collections.sort(sorted);
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(sorted.get(i), columns.bookingNumber(rows[i]));
+            if (i > 0 && sorted.get(i).equals(sorted.get(i - 1))) {
+                assertTrue(rows[i - 1] < rows[i], "equal booking numbers keep their order");
+            }
+        }
+        for (int i = 0; i < 1_000; i++) {
+            int a = random.nextInt(columns.size());
+            int b = random.nextInt(columns.size());
+            assertEquals(Integer.signum(bookingNumbers.get(a).compareTo(bookingNumbers.get(b))),
+                    Integer.signum(columns.compareBookingNumbers(a, b)));
+        }
+    }
+
+    @Test
+    void stringPoolReturnsOneIdPerDistinctString() {
+        StringPool pool = new StringPool();
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, pool.intern("value" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, pool.intern(new String("value" + i)));
+            assertEquals("value" + i, pool.get(i));
+        }
+        assertEquals(10_000, pool.size());
+        // "Aa" and "BB" have the same hash code
+        assertNotEquals(pool.intern("Aa"), pool.intern("BB"));
+    }
+
+    private static EspColumns columns() {
+        EspColumns columns = new EspColumns();
+        for (int row = 0; row < BOOKING_NUMBERS.size(); row++) {
+            columns.add(BOOKING_NUMBERS.get(row), row, 0, 0);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComparingFilesTest {
+
+    @Test
+    void combinesRowsPerBookingBeforeMatching() {
+        EspColumns esp = new EspColumns();
+        esp.add("100", 1000, 0, 100);
+        esp.add("100", 500, 0, 50);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FlixBusRecord("100", "Ticket", 700, 0, 60, 700));
+        flixBus.accept(new FlixBusRecord("100", "Ticket", 800, 0, 90, 800));
+
+        ReconciliationResult result = new ComparingFiles().compare(esp, flixBus);
+
+        assertEquals(1, result.matchedRecords().size());
+        MatchedRecord matched = result.matchedRecords().get(0);
+        assertEquals(1500, matched.espRecord().amount());
+        assertEquals(1500, ((FlixBusRecord) matched.record()).cash());
+        assertTrue(result.priceDifferences().isEmpty());
+        assertTrue(result.unmatchedFlixBusRecords().isEmpty());
+        assertTrue(result.unmatchedESPRecords().isEmpty());
+    }
+
+    @Test
+    void reportsDifferencesAndUnmatchedRowsInBookingNumberOrder() {
+        EspColumns esp = new EspColumns();
+        esp.add("9", 100, 0, 10);
+        esp.add("00123", 200, 0, 20);
+        esp.add("10", 300, 0, 30);
+        esp.add("X1", 400, 0, 40);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FlixBusRecord("X1", "Ticket", 450, 0, 40, 450));
+        flixBus.accept(new FlixBusRecord("123", "Ticket", 200, 0, 20, 200));
+        flixBus.accept(new FlixBusRecord("8", "Ticket", 10, 0, 1, 10));
+        flixBus.accept(new FlixBusRecord("70", "Ticket", 10, 0, 1, 10));
+
+        ReconciliationResult result = new ComparingFiles().compare(esp, flixBus);
+
+        // FlixBus rows are matched in booking number order: "123", "70", "8", "X1"
+        assertEquals(List.of("00123", "X1"), result.matchedRecords().stream().map(record -> record.espRecord().serialNumber()).toList());
+        assertEquals(1, result.priceDifferences().size());
+        assertEquals("X1", result.priceDifferences().get(0).record().bookingNumber());
+        assertEquals(List.of("70", "8"), result.unmatchedFlixBusRecords().stream().map(FlixBusRecord::bookingNumber).toList());
+        assertEquals(List.of("10", "9"), result.unmatchedESPRecords().stream().map(ESPRecord::serialNumber).toList());
+    }
+
+    @Test
+    void vouchersOnlyMatchBookingsLeftUnmatched() {
+        EspColumns esp = new EspColumns();
+        esp.add("1", 100, 0, 10);
+        esp.add("2", 200, 0, 20);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FlixBusRecord("1", "Ticket", 100, 0, 10, 100));
+        flixBus.accept(new VoucherFlixBusRecord("1", "Ticket", 100, 10, 0));
+        flixBus.accept(new VoucherFlixBusRecord("2", "Ticket", 150, 20, 0));
+        flixBus.accept(new VoucherFlixBusRecord("3", "Ticket", 300, 30, 0));
+
+        ReconciliationResult result = new ComparingFiles().compare(esp, flixBus);
+
+        assertEquals(2, result.matchedRecords().size());
+        assertTrue(result.matchedRecords().get(0).record() instanceof FlixBusRecord);
+        assertTrue(result.matchedRecords().get(1).record() instanceof VoucherFlixBusRecord voucher && voucher.voucher() == 150);
+        assertEquals(1, result.priceDifferences().size());
+        assertEquals("2", result.priceDifferences().get(0).espRecord().serialNumber());
+        assertTrue(result.unmatchedESPRecords().isEmpty());
+        assertTrue(result.unmatchedFlixBusRecords().isEmpty()); // Vouchers are never reported as unmatched
+    }
+
+    @Test
+    void matchesServiceFeesWithPlatformFees() {
+        EspColumns esp = new EspColumns();
+        esp.add("1", 100, 99, 10);
+        esp.add("2", 200, 150, 20);
+        esp.add("3", 300, 0, 30);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FeeRecord("1", 99));
+        flixBus.accept(new FeeRecord("2", 99));
+        flixBus.accept(new FeeRecord("4", 150));
+
+        ReconciliationResult result = new ComparingFiles().compare(esp, flixBus);
+
+        assertFalse(result.feeFallback());
+        assertEquals(2, result.matchedFeeRecords().size());
+        assertEquals(1, result.feeDifferences().size());
+        assertEquals("2", result.feeDifferences().get(0).espRecord().serialNumber());
+        assertEquals(List.of("4"), result.unmatchedFeeRecords().stream().map(FeeRecord::bookingNumber).toList());
+        assertEquals(List.of("3"), result.unmatchedESPFeeRecords().stream().map(ESPRecord::serialNumber).toList());
+    }
+
+    @Test
+    void comparesEveryBookingWithAZeroFeeWhenNoFeeMatches() {
+        EspColumns esp = new EspColumns();
+        esp.add("1", 100, 99, 10);
+        esp.add("2", 200, 0, 20);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FlixBusRecord("2", "Ticket", 200, 0, 20, 200));
+        flixBus.accept(new VoucherFlixBusRecord("1", "Ticket", 100, 10, 0));
+        flixBus.accept(new FeeRecord("5", 99));
+
+        ReconciliationResult result = new ComparingFiles().compare(esp, flixBus);
+
+        assertTrue(result.feeFallback());
+        assertEquals(List.of("2", "1"), result.matchedFeeRecords().stream().map(record -> record.record().bookingNumber()).toList());
+        assertEquals(1, result.feeDifferences().size());
+        assertEquals(0, ((FeeRecord) result.feeDifferences().get(0).record()).getFeeAmount());
+        assertEquals("1", result.feeDifferences().get(0).espRecord().serialNumber());
+        assertEquals(List.of("5"), result.unmatchedFeeRecords().stream().map(FeeRecord::bookingNumber).toList());
+        assertTrue(result.unmatchedESPFeeRecords().isEmpty());
+    }
+
+    @Test
+    void summarizesTheCombinedRows() {
+        EspColumns esp = new EspColumns();
+        esp.add("1", 1000, 99, 100);
+        esp.add("2", 2000, 0, 200);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FlixBusRecord("1", "Ticket", 1000, 0, 110, 1000));
+        flixBus.accept(new FeeRecord("1", 99));
+
+        ReconciliationResult.Summary summary = new ComparingFiles().compare(esp, flixBus).summary();
+
+        assertEquals(new ReconciliationResult.Summary(3000, 300, 3099, 1000, 110, 1099), summary);
+        assertEquals(2000, summary.amountDifference());
+        assertEquals(190, summary.commissionDifference());
+    }
+
+    @Test
+    void resultListsAreUnmodifiableAndStable() {
+        EspColumns esp = new EspColumns();
+        esp.add("1", 100, 0, 10);
+        FlixBusRecordSet flixBus = new FlixBusRecordSet();
+        flixBus.accept(new FlixBusRecord("2", "Ticket", 100, 0, 10, 100));
+
+        ReconciliationResult result = new ComparingFiles().compare(esp, flixBus);
+
+        assertEquals(result.unmatchedESPRecords().get(0), result.unmatchedESPRecords().get(0));
+        assertThrows(UnsupportedOperationException.class, () -> result.unmatchedESPRecords().clear());
+        assertThrows(IndexOutOfBoundsException.class, () -> result.unmatchedFlixBusRecords().get(1));
+    }
+}
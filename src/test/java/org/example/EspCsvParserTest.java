@@ -0,0 +1,109 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EspCsvParserTest {
+    private static final String HEADER = "Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void parsesProjectedColumnsInFileOrder() throws IOException {
+        Path file = write("Id;" + HEADER + ";Note\n"
+                + "1;100;12.50;0.99;1.5;x\n"
+                + "2;ABC-7;3;0;0;\n");
+
+        assertEquals(List.of("100|1250|99|150", "ABC-7|300|0|0"), rows(EspCsvParser.parse(file, false)));
+    }
+
+    @Test
+    void skipsLinesShorterThanTheLastRequiredColumn() throws IOException {
+        // Trailing empty fields do not count, as with String.split
+        Path file = write(HEADER + "\n"
+                + "100;1;2;\n"
+                + "101;1;2\n"
+                + "102;1;2;3\n");
+
+        assertEquals(List.of("102|100|200|300"), rows(EspCsvParser.parse(file, false)));
+    }
+
+    @Test
+    void handlesByteOrderMarkCarriageReturnsAndMissingFinalNewline() throws IOException {
+        Path file = write("\uFEFF" + HEADER + "\r\n"
+                + "100;1;2;3\r\n"
+                + "101;4;5;6");
+
+        assertEquals(List.of("100|100|200|300", "101|400|500|600"), rows(EspCsvParser.parse(file, false)));
+    }
+
+    @Test
+    void readsQuotedFieldsAndHeaders() throws IOException {
+        Path file = write("\"Serial Number\";\"Amount\";\"Flixbus Service Fee\";\"Supplier Margin (Inc. Tax)\";\"A;B\"\n"
+                + "\"100\";\"1.25\";2;3;\"x;y\"\n"
+                + "\"AB;\"\"7\"\"\";1;2;3;\n"
+                + "\"\";1;2;3\n");
+
+        assertEquals(List.of("100|125|200|300", "AB;\"7\"|100|200|300", "|100|200|300"),
+                rows(EspCsvParser.parse(file, false)));
+    }
+
+    @Test
+    void chunkBoundariesDoNotChangeTheRows() throws IOException {
+        StringBuilder content = new StringBuilder(HEADER).append("\r\n");
+        for (int i = 0; i < 500; i++) {
+            content.append('"').append(1000 + i).append('"').append(';')
+                    .append(i).append('.').append(i % 100).append(";\"")
+                    .append(i % 7).append("\";").append(i % 3).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        content.append("9999;1;2;3"); // no newline after the last line
+        Path file = write(content.toString());
+
+        List<String> expected = rows(EspCsvParser.parse(file, false));
+        assertEquals(501, expected.size());
+        for (long chunkSize : new long[]{1, 2, 7, 13, 64, 1000, 1 << 20}) {
+            List<String> actual = new ArrayList<>();
+            EspCsvParser.parse(file, chunkSize, chunk -> actual.addAll(rows(chunk)));
+            assertEquals(expected, actual, "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    void rejectsMissingColumns() throws IOException {
+        Path file = write("Serial Number;Amount;Flixbus Service Fee\n1;2;3\n");
+
+        IOException error = assertThrows(IOException.class, () -> EspCsvParser.parse(file, false));
+        assertEquals("ESP file is missing the column 'Supplier Margin (Inc. Tax)'", error.getMessage());
+    }
+
+    @Test
+    void emptyFileHasNoRows() throws IOException {
+        assertEquals(0, EspCsvParser.parse(write(""), false).size());
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = Files.createTempFile(directory, "esp", ".csv");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static List<String> rows(EspColumns columns) {
+        List<String> rows = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            rows.add(columns.bookingNumber(row) + "|" + columns.amount(row) + "|" + columns.serviceFee(row)
+                    + "|" + columns.suplierMargin(row));
+        }
+        return rows;
+    }
+}
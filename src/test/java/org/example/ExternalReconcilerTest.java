@@ -0,0 +1,148 @@
+package org.example;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExternalReconcilerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesTheSameReportAsTheInMemoryComparison() throws IOException {
+        writeFiles(2_000, true);
+
+        assertSameReport(inMemoryReport(), externalReport(64L << 20, 64, 1L << 20));
+    }
+
+    @Test
+    void writesTheSameReportWhenNoFeeMatches() throws IOException {
+        writeFiles(2_000, false);
+
+        String report = inMemoryReport();
+        assertTrue(report.contains("fallback_fee_difference"), report);
+        assertSameReport(report, externalReport(64L << 20, 64, 1L << 20));
+    }
+
+    @Test
+    void writesTheSameReportWhenEverySorterSpills() throws IOException {
+        writeFiles(3_000, true);
+
+        // Small buffers and two-way merges force several spill files and merge passes per sorter
+        assertSameReport(inMemoryReport(), externalReport(16 * 1024, 2, 4 * 1024));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count()); // The spill files and the shared strings file are deleted
+        }
+    }
+
+    /**
+     * Compares two CSV reports. The in-memory comparison orders the rows of a section by booking number text and
+     * vouchers by their first row, the external one by canonical booking key, so the rows of each section are
+     * compared without their order. Every CSV line starts with its section.
+     */
+    private static void assertSameReport(String expected, String actual) {
+        List<String> expectedLines = expected.lines().toList();
+        List<String> actualLines = actual.lines().toList();
+        assertEquals(expectedLines.subList(0, 3), actualLines.subList(0, 3)); // Header and summary
+        assertEquals(expectedLines.stream().sorted().toList(), actualLines.stream().sorted().toList());
+    }
+
+    private String inMemoryReport() throws IOException {
+        InputFiles files = FileProcessor.readInputFiles(directory.resolve("esp.csv").toString(), directory.resolve("flixbus.xlsx").toString());
+        ReconciliationResult result = new ComparingFiles().compare(files.espRecords(), files.flixBusRecords());
+        StringWriter report = new StringWriter();
+        try (CsvReportSink sink = new CsvReportSink(report)) {
+            ComparingFiles.writeReport(result, sink);
+        }
+        return report.toString();
+    }
+
+    private String externalReport(long sortBytes, int maxOpenRuns, long chunkSize) throws IOException {
+        StringWriter report = new StringWriter();
+        try (CsvReportSink sink = new CsvReportSink(report)) {
+            ExternalReconciler.reconcile(directory.resolve("esp.csv"), directory.resolve("flixbus.xlsx"),
+                    sortBytes, maxOpenRuns, chunkSize, directory, sink);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes random bookings. Some have several rows in either file, some only exist in one of them, some ESP serial
+     * numbers have leading zeros and some amounts differ.
+     */
+    private void writeFiles(int bookings, boolean withFees) throws IOException {
+        SplittableRandom random = new SplittableRandom(bookings);
+        try (Writer esp = Files.newBufferedWriter(directory.resolve("esp.csv"), StandardCharsets.UTF_8);
+             XSSFWorkbook workbook = new XSSFWorkbook()) {
+            esp.write("Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)\n");
+            Sheet sheet = workbook.createSheet("Bookings");
+            Row header = sheet.createRow(0);
+            header.createCell(3).setCellValue("Booking Number");
+            header.createCell(10).setCellValue("Trip Services");
+            header.createCell(14).setCellValue("Cash");
+            header.createCell(15).setCellValue("Voucher");
+            header.createCell(16).setCellValue("Comm Gross");
+            int rowNum = 1;
+            for (int booking = 0; booking < bookings; booking++) {
+                String bookingNumber = booking % 50 == 49 ? "X" + (100_000 + booking) : Integer.toString(1_000_000 + booking);
+                int amount = 100 + random.nextInt(10_000);
+                int margin = amount / 10;
+                int fee = random.nextInt(3) == 0 ? 0 : 99;
+                boolean inESP = random.nextInt(10) != 0;
+                if (inESP) {
+                    int espRows = random.nextInt(5) == 0 ? 2 : 1;
+                    for (int row = 0; row < espRows; row++) {
+                        String serialNumber = row == 0 && random.nextInt(4) == 0 ? "00" + bookingNumber : bookingNumber;
+                        esp.write(serialNumber + ";" + Money.format(amount / espRows) + ";" + Money.format(fee) + ";"
+                                + Money.format(margin / espRows) + "\n");
+                    }
+                }
+                int kind = random.nextInt(10);
+                if (kind < 7) {
+                    int cash = random.nextInt(8) == 0 ? amount + 1 : amount;
+                    int flixBusRows = random.nextInt(5) == 0 ? 2 : 1;
+                    for (int row = 0; row < flixBusRows; row++) {
+                        addRow(sheet.createRow(rowNum++), bookingNumber, "Ticket", cash / flixBusRows, 0, margin / flixBusRows);
+                    }
+                } else if (kind < 9) {
+                    int voucher = random.nextInt(8) == 0 ? amount + 1 : amount;
+                    addRow(sheet.createRow(rowNum++), bookingNumber, "Ticket", 0, voucher, margin);
+                }
+                if (withFees && fee != 0 && random.nextInt(6) != 0) {
+                    addRow(sheet.createRow(rowNum++), bookingNumber, "PlatformFee", random.nextInt(10) == 0 ? 150 : fee, 0, 0);
+                }
+            }
+            Row total = sheet.createRow(rowNum);
+            total.createCell(0).setCellValue("Total");
+            total.createCell(14).setCellValue(1);
+            try (OutputStream out = Files.newOutputStream(directory.resolve("flixbus.xlsx"))) {
+                workbook.write(out);
+            }
+        }
+    }
+
+    private static void addRow(Row row, String bookingNumber, String tripServices, long cash, long voucher, long commGross) {
+        row.createCell(3).setCellValue(bookingNumber);
+        row.createCell(10).setCellValue(tripServices);
+        row.createCell(14).setCellValue(cash / 100.0);
+        row.createCell(15).setCellValue(voucher / 100.0);
+        row.createCell(16).setCellValue(commGross / 100.0);
+    }
+}
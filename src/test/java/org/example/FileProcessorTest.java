@@ -0,0 +1,74 @@
+package org.example;
+
+import org.apache.poi.openxml4j.exceptions.NotOfficeXmlFileException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileProcessorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void aFailedParseIsRethrownAndStopsTheOtherParse() throws IOException {
+        Path esp = writeESPFile("esp.csv", 500_000);
+        Path flixBus = Files.writeString(directory.resolve("flixbus.xlsx"), "not a workbook");
+        ProgressToken token = new ProgressToken(null);
+
+        assertThrows(NotOfficeXmlFileException.class,
+                () -> FileProcessor.readInputFiles(esp.toString(), flixBus.toString(), null, token));
+        assertFalse(token.isCancelled()); // Only the parses were cancelled, not the caller's token
+    }
+
+    @Test
+    void aFailedParseAmongManyFilesIsRethrown() throws IOException {
+        Path first = writeESPFile("first.csv", 10);
+        Path second = writeESPFile("second.csv", 200_000);
+        Path flixBus = Files.writeString(directory.resolve("flixbus.xlsx"), "not a workbook");
+
+        assertThrows(NotOfficeXmlFileException.class, () -> FileProcessor.readInputFiles(
+                List.of(first.toString(), second.toString(), flixBus.toString()), null, ProgressToken.NONE));
+    }
+
+    @Test
+    void aCancelledTokenStopsBothParses() throws IOException {
+        Path esp = writeESPFile("esp.csv", 10);
+        ProgressToken token = new ProgressToken(null);
+        token.cancel();
+
+        assertThrows(CancellationException.class, () -> FileProcessor.readInputFiles(esp.toString(), "missing.xlsx", null, token));
+    }
+
+    @Test
+    void readsOneFileOfEachTypeInEitherOrder() throws IOException {
+        Path esp = writeESPFile("esp.csv", 10);
+
+        InputFiles files = FileProcessor.readInputFiles("missing.txt", esp.toString());
+
+        assertEquals(10, files.espRecords().size());
+        assertEquals(null, files.flixBusRecords());
+    }
+
+    private Path writeESPFile(String name, int rows) throws IOException {
+        Path file = directory.resolve(name);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)\n");
+            for (int row = 0; row < rows; row++) {
+                out.write(1000 + row + ";12.50;0.99;1.25\n");
+            }
+        }
+        return file;
+    }
+}
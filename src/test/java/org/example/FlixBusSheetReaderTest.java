@@ -0,0 +1,257 @@
+package org.example;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FlixBusSheetReaderTest {
+    private static final Object[] HEADER = {
+            "Date", "Time", "Shop", "Booking Number", "Ride", "From", "To", "Passengers", "Payment Method", "Currency",
+            "Trip Services", "Net", "Tax", "Gross", "Cash", "Voucher", "Comm Gross"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsOnlyTheFirstSheet() throws IOException {
+        Path file = write(
+                sheet("Bookings", HEADER, booking("1", "Ticket", 10.5, 0, 1), booking("2", "Ticket", 0, 20, 2),
+                        booking("3", "PlatformFee", 0.99, 0, 0), total()),
+                sheet("Bookings (2)", HEADER, booking("1", "Ticket", 10.5, 0, 1)));
+
+        List<Record> records = read(file);
+
+        assertEquals(3, records.size());
+        assertEquals(new FlixBusRecord("1", "Ticket", 1050, 0, 100, 1050), records.get(0));
+        VoucherFlixBusRecord voucher = (VoucherFlixBusRecord) records.get(1);
+        assertEquals("2", voucher.bookingNumber());
+        assertEquals(2000, voucher.voucher());
+        FeeRecord fee = (FeeRecord) records.get(2);
+        assertEquals("3", fee.bookingNumber());
+        assertEquals(99, fee.getFeeAmount());
+    }
+
+    @Test
+    void deletesTheSpilledSharedStrings() throws IOException {
+        Path file = write(sheet("Bookings", HEADER, booking("1", "Ticket", 1, 0, 0), booking("2", "Ticket", 2, 0, 0)));
+        Path spillDirectory = Files.createDirectory(directory.resolve("spill"));
+
+        List<Record> records = new ArrayList<>();
+        FlixBusSheetReader.read(file.toString(), records::add, ProgressToken.NONE, spillDirectory);
+
+        assertEquals(List.of("1", "2"), records.stream().map(Record::bookingNumber).toList());
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void findsColumnsByTheirHeaderNames() throws IOException {
+        Path file = write(sheet("Bookings", new Object[]{"Comm. Gross", "booking no", "CASH", "Trip Service", "Voucher"},
+                new Object[]{1.0, "7", 12.5, "Ticket", 0.0}));
+
+        assertEquals(List.of(new FlixBusRecord("7", "Ticket", 1250, 0, 100, 1250)), read(file));
+    }
+
+    @Test
+    void fallsBackToTheDefaultColumnsWithoutHeaderNames() throws IOException {
+        Object[] header = new Object[HEADER.length];
+        for (int column = 0; column < header.length; column++) {
+            header[column] = "Column " + (column + 1);
+        }
+        Path file = write(sheet("Bookings", header, booking("7", "Ticket", 12.5, 2, 1)));
+
+        assertEquals(List.of(new FlixBusRecord("7", "Ticket", 1250, 200, 100, 1250)), read(file));
+    }
+
+    @Test
+    void doesNotReadAFieldWhoseDefaultColumnHasAnotherName() throws IOException {
+        // Column 4 is the default booking number column, but its header names it the cash column
+        Object[] header = HEADER.clone();
+        header[3] = "Cash";
+        header[14] = "Gross 2";
+        Object[] row = booking("7", "Ticket", 0, 0, 1);
+        row[3] = 12.5;
+        row[14] = 99.0;
+        Path file = write(sheet("Bookings", header, row));
+
+        assertEquals(List.of(new FlixBusRecord("", "Ticket", 1250, 0, 100, 1250)), read(file));
+    }
+
+    @Test
+    void skipsTotalAndSummeRows() throws IOException {
+        Object[] summe = booking("", "", 50, 0, 0);
+        summe[5] = "Summe Berlin";
+        Object[] totalBooking = booking("Total", "", 50, 0, 0);
+        Path file = write(sheet("Bookings", HEADER, booking("1", "Ticket", 1, 0, 0), summe, totalBooking, total(),
+                booking("2", "Ticket", 2, 0, 0)));
+
+        assertEquals(List.of("1", "2"), read(file).stream().map(Record::bookingNumber).toList());
+        List<Record> inMemory = new ArrayList<>();
+        FlixBusSheetReader.read(file.toString(), inMemory::add, ProgressToken.NONE, null);
+        assertEquals(List.of("1", "2"), inMemory.stream().map(Record::bookingNumber).toList());
+    }
+
+    @Test
+    void readsInlineStringsAndFormulaResults() throws IOException {
+        Path file = writeSheetXml("""
+                <row r="1"><c r="A1" t="inlineStr"><is><t>Booking Number</t></is></c><c r="B1" t="inlineStr"><is><t>Trip Services</t></is></c>\
+                <c r="C1" t="inlineStr"><is><t>Cash</t></is></c><c r="D1" t="inlineStr"><is><t>Voucher</t></is></c>\
+                <c r="E1" t="inlineStr"><is><t>Comm Gross</t></is></c></row>
+                <row r="2"><c r="A2" t="inlineStr"><is><t>A-1</t></is></c><c r="B2" t="str"><f>"Ti"&amp;"cket"</f><v>Ticket</v></c>\
+                <c r="C2"><v>10</v></c><c r="D2"><v>0</v></c><c r="E2"><v>1</v></c></row>
+                <row r="3"><c r="A3" t="inlineStr"><is><t>Summe</t></is></c><c r="C3"><v>10</v></c></row>
+                """);
+
+        assertEquals(List.of(new FlixBusRecord("A-1", "Ticket", 1000, 0, 100, 1000)), read(file));
+    }
+
+    @Test
+    void parsesAmountsFromNumericAndTextCells() throws IOException {
+        Path file = writeSheetXml("""
+                <row r="1"><c r="A1" t="inlineStr"><is><t>Booking Number</t></is></c><c r="B1" t="inlineStr"><is><t>Trip Services</t></is></c>\
+                <c r="C1" t="inlineStr"><is><t>Cash</t></is></c><c r="D1" t="inlineStr"><is><t>Voucher</t></is></c>\
+                <c r="E1" t="inlineStr"><is><t>Comm Gross</t></is></c></row>
+                <row r="2"><c r="A2"><v>123</v></c><c r="B2" t="inlineStr"><is><t>Ticket</t></is></c>\
+                <c r="C2"><v>0.10500000000000001</v></c><c r="D2" t="inlineStr"><is><t>2.50</t></is></c><c r="E2"><v>1E-1</v></c></row>
+                <row r="3"><c r="A3" t="inlineStr"><is><t>124</t></is></c><c r="B3" t="inlineStr"><is><t>Ticket</t></is></c>\
+                <c r="C3" t="inlineStr"><is><t>12.345</t></is></c><c r="D3" t="inlineStr"><is><t></t></is></c><c r="E3"><v>3</v></c></row>
+                """);
+
+        List<Record> records = read(file);
+
+        // Numeric booking numbers are formatted like a spreadsheet displays them
+        assertEquals(new FlixBusRecord("123", "Ticket", 11, 250, 10, 11), records.get(0));
+        assertEquals(new FlixBusRecord("124", "Ticket", 1235, 0, 300, 1235), records.get(1));
+        assertEquals(2, records.size());
+    }
+
+    @Test
+    void formatsNumericTextCellsWithTheirStyle() throws IOException {
+        Path file = Files.createTempFile(directory, "flixbus", ".xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            CellStyle padded = workbook.createCellStyle();
+            padded.setDataFormat(workbook.createDataFormat().getFormat("00000"));
+            CellStyle date = workbook.createCellStyle();
+            date.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            CellStyle euros = workbook.createCellStyle();
+            euros.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00 \"€\""));
+            Sheet sheet = workbook.createSheet("Bookings");
+            Row header = sheet.createRow(0);
+            for (int column = 0; column < HEADER.length; column++) {
+                header.createCell(column).setCellValue((String) HEADER[column]);
+            }
+            Row row = sheet.createRow(1);
+            row.createCell(3).setCellValue(42);
+            row.getCell(3).setCellStyle(padded);
+            row.createCell(10).setCellValue(45292); // 2024-01-01
+            row.getCell(10).setCellStyle(date);
+            row.createCell(14).setCellValue(1234.5);
+            row.getCell(14).setCellStyle(euros);
+            workbook.write(out);
+        }
+
+        // Amounts keep their stored value whatever their display format
+        assertEquals(List.of(new FlixBusRecord("00042", "2024-01-01", 123450, 0, 0, 123450)), read(file));
+    }
+
+    static Object[][] sheet(String name, Object[] header, Object[]... rows) {
+        Object[][] sheet = new Object[rows.length + 2][];
+        sheet[0] = new Object[]{name};
+        sheet[1] = header;
+        System.arraycopy(rows, 0, sheet, 2, rows.length);
+        return sheet;
+    }
+
+    /**
+     * Returns a row of the default FlixBus layout with the decoded columns filled in.
+     */
+    static Object[] booking(String bookingNumber, String tripServices, double cash, double voucher, double commGross) {
+        Object[] row = new Object[HEADER.length];
+        row[0] = "2024-01-01";
+        row[3] = bookingNumber;
+        row[10] = tripServices;
+        row[14] = cash;
+        row[15] = voucher;
+        row[16] = commGross;
+        return row;
+    }
+
+    static Object[] total() {
+        Object[] row = new Object[HEADER.length];
+        row[0] = "Total";
+        row[14] = 1000.0;
+        return row;
+    }
+
+    /**
+     * Writes a workbook with one sheet per array: its first row holds the sheet name, the others the cells,
+     * where strings become text cells, numbers numeric cells and nulls are left out.
+     */
+    Path write(Object[][]... sheets) throws IOException {
+        Path file = Files.createTempFile(directory, "flixbus", ".xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            for (Object[][] rows : sheets) {
+                Sheet sheet = workbook.createSheet((String) rows[0][0]);
+                for (int r = 1; r < rows.length; r++) {
+                    Row row = sheet.createRow(r - 1);
+                    for (int c = 0; c < rows[r].length; c++) {
+                        if (rows[r][c] instanceof String text) {
+                            row.createCell(c).setCellValue(text);
+                        } else if (rows[r][c] instanceof Number number) {
+                            row.createCell(c).setCellValue(number.doubleValue());
+                        }
+                    }
+                }
+            }
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a workbook whose only sheet has the given rows of sheet XML, for cell types that POI does not write.
+     */
+    Path writeSheetXml(String rows) throws IOException {
+        Path template = write(new Object[][]{{"Bookings"}});
+        Path file = Files.createTempFile(directory, "flixbus", ".xlsx");
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(template));
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+                    out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>"
+                            + rows + "</sheetData></worksheet>").getBytes(StandardCharsets.UTF_8));
+                } else {
+                    in.transferTo(out);
+                }
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    static List<Record> read(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        FlixBusSheetReader.read(file.toString(), records::add);
+        return records;
+    }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTest {
+
+    @Test
+    void roundsHalfUpAwayFromZero() {
+        assertCents(13, "0.125");
+        assertCents(12, "0.1249");
+        assertCents(13, "0.12500001");
+        assertCents(-13, "-0.125");
+        assertCents(-1, "-0.005");
+        assertCents(0, "-0.004");
+        assertCents(100, "0.995");
+        assertCents(1250, "12.5");
+        assertCents(1200, "12");
+        assertCents(1200, "12.");
+        assertCents(50, ".5");
+        assertCents(1200, "+12.00");
+    }
+
+    @Test
+    void usesBigDecimalForExponentsWhitespaceAndLongValues() {
+        assertCents(123000, "1.23E3");
+        assertCents(1, "5e-3");
+        assertCents(-250, " -2.5 ");
+        assertCents(12345678901234567L * 100 + 89, "12345678901234567.885");
+        assertCents(9999999999999999L * 100 + 99, "9999999999999999.99");
+    }
+
+    @Test
+    void fastPathAgreesWithBigDecimal() {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder value = new StringBuilder();
+            if (random.nextInt(4) == 0) {
+                value.append('-');
+            }
+            value.append(random.nextLong(1_000_000_000_000L));
+            int fractionDigits = random.nextInt(6);
+            if (fractionDigits > 0) {
+                value.append('.');
+                for (int digit = 0; digit < fractionDigits; digit++) {
+                    value.append(random.nextInt(10));
+                }
+            }
+            assertCents(Money.toCents(new BigDecimal(value.toString())), value.toString());
+        }
+    }
+
+    @Test
+    void rejectsText() {
+        for (String value : new String[]{"", "-", ".", "1,5", "abc", "1.2.3"}) {
+            assertThrows(NumberFormatException.class, () -> Money.parseCents(value), value);
+            assertThrows(NumberFormatException.class, () -> Money.parseCents(bytes(value), 1, value.length() + 1), value);
+        }
+    }
+
+    @Test
+    void formatsTwoDecimalPlaces() {
+        assertEquals("0.00", Money.format(0));
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("12.50", Money.format(1250));
+        assertEquals("-1234.01", Money.format(-123401));
+    }
+
+    /**
+     * Checks both parsers; the byte range is placed inside other bytes to catch reads outside it.
+     */
+    private static void assertCents(long expected, String value) {
+        assertEquals(expected, Money.parseCents(value), value);
+        assertEquals(expected, Money.parseCents(bytes(value), 1, value.length() + 1), value);
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(("9" + value + "9").getBytes(StandardCharsets.US_ASCII));
+    }
+}
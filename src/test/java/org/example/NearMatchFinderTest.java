@@ -0,0 +1,122 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NearMatchFinderTest {
+
+    @Test
+    void findsKeysOneEditApart() {
+        assertTrue(NearMatchFinder.isOneEditApart("12345", "12945")); // Substitution
+        assertTrue(NearMatchFinder.isOneEditApart("12345", "123945")); // Insertion
+        assertTrue(NearMatchFinder.isOneEditApart("12345", "1245")); // Deletion
+        assertTrue(NearMatchFinder.isOneEditApart("12345", "13245")); // Swap of neighbours
+        assertTrue(NearMatchFinder.isOneEditApart("12345", "12354")); // Swap at the end
+        assertTrue(NearMatchFinder.isOneEditApart("1", ""));
+        assertTrue(NearMatchFinder.isOneEditApart("1122", "11222")); // Insertion into a run
+        assertFalse(NearMatchFinder.isOneEditApart("12345", "12345"));
+        assertFalse(NearMatchFinder.isOneEditApart("12345", "19395")); // Two substitutions
+        assertFalse(NearMatchFinder.isOneEditApart("12345", "14325")); // Swap of non-neighbours
+        assertFalse(NearMatchFinder.isOneEditApart("12345", "123")); // Two deletions
+        assertFalse(NearMatchFinder.isOneEditApart("12345", "2345X")); // Deletion and insertion
+    }
+
+    @Test
+    void deletionIndexFindsTheSameTyposAsComparingEveryPair() {
+        SplittableRandom random = new SplittableRandom(11);
+        Set<String> espKeys = new LinkedHashSet<>();
+        Set<String> flixBusKeys = new LinkedHashSet<>();
+        while (espKeys.size() < 300 || flixBusKeys.size() < 300) {
+            (espKeys.size() < 300 ? espKeys : flixBusKeys).add(randomKey(random));
+        }
+        List<ESPRecord> espRecords = new ArrayList<>();
+        List<FlixBusRecord> flixBusRecords = new ArrayList<>();
+        long amount = 0;
+        for (String key : espKeys) {
+            // Distinct amounts far apart, so only booking numbers can make a suggestion
+            espRecords.add(new ESPRecord(key, amount += 1_000_000, 0, 10));
+        }
+        for (String key : flixBusKeys) {
+            flixBusRecords.add(new FlixBusRecord(key, "Ticket", amount += 1_000_000, 0, 10, 0));
+        }
+
+        List<NearMatchFinder.Suggestion> suggestions = new NearMatchFinder(1, Integer.MAX_VALUE).suggest(espRecords, flixBusRecords);
+
+        Set<String> found = new HashSet<>();
+        for (NearMatchFinder.Suggestion suggestion : suggestions) {
+            assertTrue(suggestion.similarBookingNumber());
+            assertTrue(found.add(suggestion.espRecord().serialNumber() + "/" + suggestion.flixBusRecord().bookingNumber()));
+        }
+        Set<String> expected = new HashSet<>();
+        for (ESPRecord espRecord : espRecords) {
+            for (FlixBusRecord flixBusRecord : flixBusRecords) {
+                if (NearMatchFinder.isOneEditApart(espRecord.bookingKey().text(), flixBusRecord.bookingKey().text())) {
+                    expected.add(espRecord.serialNumber() + "/" + flixBusRecord.bookingNumber());
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, found);
+    }
+
+    @Test
+    void ranksTyposWithTheSameAmountFirst() {
+        ESPRecord espRecord = new ESPRecord("123456", 1000, 99, 10);
+        List<FlixBusRecord> flixBusRecords = List.of(
+                new FlixBusRecord("999999", "Ticket", 1000, 0, 10, 1000),
+                new FlixBusRecord("123465", "Ticket", 5000, 0, 10, 5000),
+                new FlixBusRecord("12356", "Ticket", 1099, 0, 10, 1099),
+                new FlixBusRecord("123457", "Ticket", 1001, 0, 10, 1001));
+
+        List<NearMatchFinder.Suggestion> suggestions = new NearMatchFinder().suggest(List.of(espRecord), flixBusRecords);
+
+        assertEquals(List.of("123457", "12356", "123465"), suggestions.stream().map(suggestion -> suggestion.flixBusRecord().bookingNumber()).toList());
+        assertEquals("booking number typo, same amount", suggestions.get(0).reason());
+        assertEquals("booking number typo, amount plus service fee", suggestions.get(1).reason());
+        assertEquals("booking number typo", suggestions.get(2).reason());
+    }
+
+    /**
+     * Returns a booking number of four or five digits from a small alphabet, so that many numbers are one typo apart.
+     */
+    private static String randomKey(SplittableRandom random) {
+        StringBuilder key = new StringBuilder();
+        int length = 4 + random.nextInt(2);
+        for (int i = 0; i < length; i++) {
+            key.append((char) ('1' + random.nextInt(4)));
+        }
+        return key.toString();
+    }
+
+    @Test
+    void stopsWhenTheTokenIsCancelled() {
+        List<ESPRecord> espRecords = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            espRecords.add(new ESPRecord(Integer.toString(100_000 + i), 100, 0, 10));
+        }
+        List<FlixBusRecord> flixBusRecords = List.of(new FlixBusRecord("100001", "Ticket", 100, 0, 10, 100));
+        List<Long> reported = new ArrayList<>();
+        ProgressToken[] token = new ProgressToken[1];
+        token[0] = new ProgressToken((stage, done, total) -> {
+            reported.add(done);
+            if (done > 0) {
+                token[0].cancel(); // Cancelled at the first checkpoint, stops at the next one
+            }
+        });
+
+        assertThrows(CancellationException.class, () -> new NearMatchFinder().suggest(espRecords, flixBusRecords, token[0]));
+        assertEquals(List.of(0L, 4096L), reported);
+    }
+}
@@ -0,0 +1,60 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParsedInputCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAnUnchangedFileFromItsEntry() throws IOException {
+        Path file = Files.writeString(directory.resolve("esp.csv"),
+                "Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)\n00123;12.50;0.99;1.25\nAB-7;3.00;0;0.30\n");
+        ParsedInputCache cache = new ParsedInputCache(directory.resolve("cache"), ParsedInputCache.DEFAULT_MAX_BYTES);
+
+        EspColumns parsed = cache.readESPFile(file);
+        EspColumns cached = cache.readESPFile(file);
+
+        assertEquals(1, entries().size());
+        assertEquals(parsed.size(), cached.size());
+        for (int row = 0; row < parsed.size(); row++) {
+            assertEquals(parsed.bookingNumber(row), cached.bookingNumber(row));
+            assertEquals(parsed.bookingKey(row), cached.bookingKey(row));
+            assertEquals(parsed.amount(row), cached.amount(row));
+            assertEquals(parsed.serviceFee(row), cached.serviceFee(row));
+        }
+    }
+
+    @Test
+    void replacesAnUnusableEntry() throws IOException {
+        Path file = Files.writeString(directory.resolve("esp.csv"),
+                "Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)\n1;1.00;0;0.10\n");
+        ParsedInputCache cache = new ParsedInputCache(directory.resolve("cache"), ParsedInputCache.DEFAULT_MAX_BYTES);
+        cache.readESPFile(file);
+        Path entry = entries().get(0);
+        Files.write(entry, new byte[]{0x44, 0x46}); // Truncated header
+
+        EspColumns records = cache.readESPFile(file);
+
+        assertEquals(1, records.size());
+        assertEquals(100, records.amount(0));
+        assertEquals(List.of(entry), entries()); // Parsed again and written anew
+        assertEquals(1, cache.readESPFile(file).size());
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("cache"))) {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressTokenTest {
+
+    @Test
+    void cancellingAChildLeavesTheParentRunning() {
+        ProgressToken parent = new ProgressToken(null);
+        ProgressToken child = parent.child();
+
+        child.cancel();
+
+        assertTrue(child.isCancelled());
+        assertFalse(parent.isCancelled());
+        assertThrows(CancellationException.class, () -> child.advance(ProgressToken.Stage.MATCHING, 1, 2));
+        parent.checkCancelled();
+    }
+
+    @Test
+    void cancellingTheParentCancelsItsChildren() {
+        ProgressToken parent = new ProgressToken(null);
+        ProgressToken child = parent.child().child();
+
+        parent.cancel();
+
+        assertTrue(child.isCancelled());
+        assertThrows(CancellationException.class, child::checkCancelled);
+    }
+
+    @Test
+    void childrenReportToTheParentsListener() {
+        List<String> reports = new ArrayList<>();
+        ProgressToken parent = new ProgressToken((stage, done, total) -> reports.add(stage + " " + done + "/" + total));
+
+        parent.child().advance(ProgressToken.Stage.COMBINING, 1, 4);
+
+        assertEquals(List.of("COMBINING 1/4"), reports);
+    }
+
+    @Test
+    void theSharedTokenCannotBeCancelled() {
+        ProgressToken.NONE.cancel();
+
+        assertFalse(ProgressToken.NONE.isCancelled());
+        ProgressToken.NONE.checkCancelled();
+    }
+
+    @Test
+    void partsReportTheSumOfTheirProgress() {
+        List<String> reports = new ArrayList<>();
+        ProgressToken token = new ProgressToken((stage, done, total) -> reports.add(done + "/" + total));
+        ProgressToken[] parts = token.parts(3);
+
+        parts[0].advance(ProgressToken.Stage.READING_ESP, 10, 100);
+        parts[1].advance(ProgressToken.Stage.READING_ESP, 5, 50);
+        parts[0].advance(ProgressToken.Stage.READING_ESP, 100, 100);
+        parts[2].advance(ProgressToken.Stage.READING_ESP, 1, -1);
+        parts[2].advance(ProgressToken.Stage.READING_FLIXBUS, 7, 7);
+
+        assertEquals(List.of("10/100", "15/150", "105/150", "106/-1", "7/7"), reports);
+        token.cancel();
+        assertTrue(parts[1].isCancelled());
+    }
+}
@@ -0,0 +1,183 @@
+package org.example;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatchFolderDaemonTest {
+    private static final long DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(1000);
+    private static final String[] FLIXBUS_HEADER = {
+            "Date", "Time", "Shop", "Booking Number", "Ride", "From", "To", "Passengers", "Payment Method", "Currency",
+            "Trip Services", "Net", "Tax", "Gross", "Cash", "Voucher", "Comm Gross"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void waitsUntilBothFilesStopChanging() throws IOException {
+        Path espFile = writeESPFile("march.csv");
+        writeFlixBusFile("march.xlsx");
+        try (WatchFolderDaemon daemon = daemon(4)) {
+            daemon.scan(0);
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS - 1);
+            assertNull(daemon.nextQueuedPair());
+
+            Files.writeString(espFile, "2;200;0;20\n", StandardOpenOption.APPEND); // Still being copied
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS);
+            assertNull(daemon.nextQueuedPair());
+            daemon.dispatchCompleteFiles(2 * DEBOUNCE_NANOS - 1);
+            assertNull(daemon.nextQueuedPair());
+
+            daemon.dispatchCompleteFiles(2 * DEBOUNCE_NANOS);
+            BatchReconciler.Pair pair = daemon.nextQueuedPair();
+            assertNotNull(pair);
+            assertEquals(new BatchReconciler.Pair("march", directory.resolve("march.csv"), directory.resolve("march.xlsx")), pair);
+            assertNull(daemon.nextQueuedPair());
+        }
+    }
+
+    @Test
+    void pairsExtensionsInAnyCase() throws IOException {
+        writeESPFile("april.CSV");
+        writeFlixBusFile("april.Xlsx");
+        try (WatchFolderDaemon daemon = daemon(4)) {
+            daemon.scan(0);
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS);
+
+            BatchReconciler.Pair pair = daemon.nextQueuedPair();
+            assertEquals(new BatchReconciler.Pair("april", directory.resolve("april.CSV"), directory.resolve("april.Xlsx")), pair);
+            daemon.reconcile(pair);
+            assertTrue(Files.exists(directory.resolve("april.report.txt")));
+        }
+    }
+
+    @Test
+    void leavesPairsOnDiskWhileTheQueueIsFull() throws IOException {
+        for (String name : new String[]{"a", "b"}) {
+            writeESPFile(name + ".csv");
+            writeFlixBusFile(name + ".xlsx");
+        }
+        try (WatchFolderDaemon daemon = daemon(1)) {
+            daemon.scan(0);
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS);
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS + 1);
+            BatchReconciler.Pair first = daemon.nextQueuedPair();
+            assertNotNull(first);
+            assertNull(daemon.nextQueuedPair());
+
+            // The queue has room again, so the pair that waited on disk is queued
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS + 2);
+            BatchReconciler.Pair second = daemon.nextQueuedPair();
+            assertNotNull(second);
+            assertEquals(List.of("a", "b"), Stream.of(first, second).map(BatchReconciler.Pair::name).sorted().toList());
+
+            daemon.reconcile(first);
+            daemon.reconcile(second);
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS + 3);
+            assertNull(daemon.nextQueuedPair());
+            assertTrue(Files.exists(directory.resolve("a.report.txt")));
+            assertTrue(Files.exists(directory.resolve("b.report.txt")));
+        }
+    }
+
+    @Test
+    void retriesAFailedPairOnlyAfterItsFilesChange() throws IOException {
+        writeESPFile("may.csv");
+        Path flixBusFile = directory.resolve("may.xlsx");
+        Files.writeString(flixBusFile, "not a workbook");
+        Files.setLastModifiedTime(flixBusFile, hourAgo());
+        try (WatchFolderDaemon daemon = daemon(4)) {
+            daemon.scan(0);
+            daemon.dispatchCompleteFiles(DEBOUNCE_NANOS);
+            daemon.reconcile(daemon.nextQueuedPair());
+            assertEquals(List.of("may.csv", "may.xlsx"), fileNames()); // No report and no partial report
+
+            daemon.scan(2 * DEBOUNCE_NANOS);
+            daemon.dispatchCompleteFiles(3 * DEBOUNCE_NANOS);
+            assertNull(daemon.nextQueuedPair());
+
+            writeFlixBusFile("may.xlsx");
+            Files.setLastModifiedTime(flixBusFile, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+            daemon.scan(4 * DEBOUNCE_NANOS);
+            daemon.dispatchCompleteFiles(5 * DEBOUNCE_NANOS);
+            daemon.reconcile(daemon.nextQueuedPair());
+            assertEquals(List.of("may.csv", "may.report.txt", "may.xlsx"), fileNames());
+        }
+    }
+
+    @Test
+    void closingStopsAReconciliationWithoutWritingItsReport() throws IOException {
+        writeESPFile("june.csv");
+        writeFlixBusFile("june.xlsx");
+        WatchFolderDaemon daemon = daemon(4);
+        daemon.scan(0);
+        daemon.dispatchCompleteFiles(DEBOUNCE_NANOS);
+        BatchReconciler.Pair pair = daemon.nextQueuedPair();
+
+        daemon.close();
+        daemon.reconcile(pair);
+
+        assertEquals(List.of("june.csv", "june.xlsx"), fileNames());
+    }
+
+    private WatchFolderDaemon daemon(int queueCapacity) throws IOException {
+        return new WatchFolderDaemon(directory, 1, queueCapacity, TimeUnit.NANOSECONDS.toMillis(DEBOUNCE_NANOS), "txt");
+    }
+
+    /**
+     * Writes an ESP file dated an hour ago, so a report written now is clearly newer.
+     */
+    private Path writeESPFile(String fileName) throws IOException {
+        Path file = directory.resolve(fileName);
+        Files.writeString(file, "Serial Number;Amount;Flixbus Service Fee;Supplier Margin (Inc. Tax)\n1;100;0;10\n", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, hourAgo());
+        return file;
+    }
+
+    private void writeFlixBusFile(String fileName) throws IOException {
+        Path file = directory.resolve(fileName);
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Bookings");
+            Row header = sheet.createRow(0);
+            for (int column = 0; column < FLIXBUS_HEADER.length; column++) {
+                header.createCell(column).setCellValue(FLIXBUS_HEADER[column]);
+            }
+            Row row = sheet.createRow(1);
+            row.createCell(3).setCellValue("1");
+            row.createCell(10).setCellValue("Ticket");
+            row.createCell(14).setCellValue(100);
+            row.createCell(15).setCellValue(0);
+            row.createCell(16).setCellValue(10);
+            workbook.write(out);
+        }
+        Files.setLastModifiedTime(file, hourAgo());
+    }
+
+    private static FileTime hourAgo() {
+        return FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+}
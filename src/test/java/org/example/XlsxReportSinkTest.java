@@ -0,0 +1,55 @@
+package org.example;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class XlsxReportSinkTest {
+
+    @Test
+    void continuesAFullSectionOnAnotherSheet() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (XlsxReportSink sink = new XlsxReportSink(bytes, 3)) {
+            sink.summary(new ReconciliationResult.Summary(0, 0, 0, 0, 0, 0));
+            sink.startSection(ReportSink.Section.UNMATCHED_ESP);
+            for (int i = 1; i <= 5; i++) {
+                sink.unmatchedESPRecord(new ESPRecord(Integer.toString(i), i * 100, 0, i * 10));
+            }
+            sink.endSection(ReportSink.Section.UNMATCHED_ESP);
+            sink.startSection(ReportSink.Section.UNMATCHED_FEES);
+            sink.unmatchedFeeRecord(new FeeRecord("7", 99));
+            sink.endSection(ReportSink.Section.UNMATCHED_FEES);
+        }
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes.toByteArray()))) {
+            List<String> names = new ArrayList<>();
+            workbook.forEach(sheet -> names.add(sheet.getSheetName()));
+            assertEquals(List.of("Summary", "Unmatched ESP", "Unmatched ESP (2)", "Unmatched ESP (3)", "Unmatched fees"), names);
+            assertEquals(List.of("1", "2"), serials(workbook.getSheet("Unmatched ESP")));
+            assertEquals(List.of("3", "4"), serials(workbook.getSheet("Unmatched ESP (2)")));
+            assertEquals(List.of("5"), serials(workbook.getSheet("Unmatched ESP (3)")));
+            assertEquals("ESP Serial", workbook.getSheet("Unmatched ESP (3)").getRow(0).getCell(0).getStringCellValue());
+            assertEquals(5.0, workbook.getSheet("Unmatched ESP (3)").getRow(1).getCell(1).getNumericCellValue());
+            assertEquals(List.of("7"), serials(workbook.getSheet("Unmatched fees")));
+        }
+    }
+
+    /**
+     * Returns the first cell of every row below the header.
+     */
+    private static List<String> serials(Sheet sheet) {
+        List<String> values = new ArrayList<>();
+        for (int row = 1; row <= sheet.getLastRowNum(); row++) {
+            values.add(sheet.getRow(row).getCell(0).getStringCellValue());
+        }
+        return values;
+    }
+}